@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly.appender;
+
+import com.github.tony19.loggly.LogglyClient;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Helpers shared by the Logback appender and the JUL handler
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class AppenderSupport {
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    private AppenderSupport() {}
+
+    /**
+     * Registers a JVM shutdown hook that closes a client, sending its
+     * buffered events
+     * @param client client to close
+     * @param timeoutMillis max time in milliseconds to send the buffered events
+     * @return the hook, for {@link #removeShutdownHook(Thread)}
+     */
+    static Thread addShutdownHook(final LogglyClient client, final long timeoutMillis) {
+        final Thread hook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                client.close(timeoutMillis);
+            }
+        }, "loggly-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    /**
+     * Unregisters a shutdown hook, unless the JVM is already shutting down
+     * @param hook hook from {@link #addShutdownHook(LogglyClient, long)}
+     */
+    static void removeShutdownHook(Thread hook) {
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // shutting down, and the hook is running
+        }
+    }
+
+    /**
+     * Formats a time as an ISO-8601 UTC timestamp (e.g.,
+     * {@code 2015-06-01T12:34:56.789Z}), without the date and calendar
+     * objects of {@code SimpleDateFormat}
+     * @param millis time in epoch milliseconds
+     * @return the timestamp
+     */
+    static String timestamp(long millis) {
+        long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+        int ms = (int) Math.floorMod(millis, MILLIS_PER_DAY);
+
+        // civil date from days since 1970-01-01 (proleptic Gregorian)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        char[] buf = new char[24];
+        int y = (int) year;
+        buf[0] = (char) ('0' + y / 1000 % 10);
+        buf[1] = (char) ('0' + y / 100 % 10);
+        buf[2] = (char) ('0' + y / 10 % 10);
+        buf[3] = (char) ('0' + y % 10);
+        buf[4] = '-';
+        put2(buf, 5, month);
+        buf[7] = '-';
+        put2(buf, 8, day);
+        buf[10] = 'T';
+        put2(buf, 11, ms / 3600000);
+        buf[13] = ':';
+        put2(buf, 14, ms / 60000 % 60);
+        buf[16] = ':';
+        put2(buf, 17, ms / 1000 % 60);
+        buf[19] = '.';
+        buf[20] = (char) ('0' + ms / 100 % 10);
+        buf[21] = (char) ('0' + ms / 10 % 10);
+        buf[22] = (char) ('0' + ms % 10);
+        buf[23] = 'Z';
+        return new String(buf);
+    }
+
+    private static void put2(char[] buf, int offset, int value) {
+        buf[offset] = (char) ('0' + value / 10);
+        buf[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * Gets the stack trace of an exception
+     * @param t exception
+     * @return the stack trace, as printed by {@link Throwable#printStackTrace()}
+     */
+    static String stackTrace(Throwable t) {
+        StringWriter out = new StringWriter();
+        t.printStackTrace(new PrintWriter(out));
+        return out.toString();
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly.appender;
+
+import com.github.tony19.loggly.BatchOptions;
+import com.github.tony19.loggly.FlushResult;
+import com.github.tony19.loggly.LogglyClient;
+import com.github.tony19.loggly.LogglyEvent;
+import com.github.tony19.loggly.OverflowPolicy;
+import com.github.tony19.loggly.Priority;
+
+import java.io.File;
+import java.util.Map;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.Layout;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * Logback appender that sends events to Loggly (and thus a sink for
+ * SLF4J). Events are buffered by a batching {@link LogglyClient}, and
+ * posted in bulk from a background thread, so that logging never waits
+ * on Loggly. Buffered events are flushed when the appender is stopped
+ * and when the JVM shuts down.
+ * <p>
+ * By default, each event is sent as a JSON object with the fields
+ * {@code timestamp}, {@code level}, {@code logger}, {@code thread},
+ * {@code message}, {@code exception} and {@code mdc}, which is written
+ * straight into the request buffer. If a layout is set, its output is
+ * sent as text instead.
+ * <pre>
+ * &lt;appender name="LOGGLY" class="com.github.tony19.loggly.appender.LogglyAppender"&gt;
+ *   &lt;token&gt;your-token&lt;/token&gt;
+ *   &lt;tags&gt;web,checkout&lt;/tags&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public class LogglyAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+    private final BatchOptions batching = new BatchOptions();
+    private String token;
+    private String endpoint;
+    private String tags;
+    private long flushTimeoutMillis = 5000;
+    private Layout<ILoggingEvent> layout;
+
+    private LogglyClient client;
+    private Thread shutdownHook;
+
+    /**
+     * Sets the Loggly authorization token (required)
+     * @param token Loggly customer token
+     */
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Sets the Loggly endpoint URL
+     * @param endpoint base URL, ending with {@code /}
+     */
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Sets the Loggly tags of all events
+     * @param tags CSV of tags
+     */
+    public void setTags(String tags) {
+        this.tags = tags;
+    }
+
+    /**
+     * Sets the max number of buffered events
+     * @param capacity number of events
+     * @see BatchOptions#capacity(int)
+     */
+    public void setCapacity(int capacity) {
+        batching.capacity(capacity);
+    }
+
+    /**
+     * Sets the max number of events in each bulk request
+     * @param maxEvents number of events
+     * @see BatchOptions#maxEvents(int)
+     */
+    public void setMaxEvents(int maxEvents) {
+        batching.maxEvents(maxEvents);
+    }
+
+    /**
+     * Sets the max size of each bulk request
+     * @param maxBytes size in bytes
+     * @see BatchOptions#maxBytes(int)
+     */
+    public void setMaxBytes(int maxBytes) {
+        batching.maxBytes(maxBytes);
+    }
+
+    /**
+     * Sets the max time that an event waits in the buffer
+     * @param maxLingerMillis time in milliseconds
+     * @see BatchOptions#maxLingerMillis(long)
+     */
+    public void setMaxLingerMillis(long maxLingerMillis) {
+        batching.maxLingerMillis(maxLingerMillis);
+    }
+
+    /**
+     * Sets a directory in which buffered events are kept until Loggly
+     * accepts them
+     * @param directory path of the spool directory
+     * @see BatchOptions#spoolDirectory(File)
+     */
+    public void setSpoolDirectory(String directory) {
+        batching.spoolDirectory(new File(directory));
+    }
+
+    /**
+     * Sets what happens to events logged while the buffer is full
+     * @param policy name of an {@link OverflowPolicy} (e.g., {@code BLOCK})
+     * @see BatchOptions#overflowPolicy(OverflowPolicy)
+     */
+    public void setOverflowPolicy(String policy) {
+        batching.overflowPolicy(OverflowPolicy.valueOf(policy.trim()));
+    }
+
+    /**
+     * Sets the max time that a logging thread waits for room in a full
+     * buffer under {@link OverflowPolicy#BLOCK}
+     * @param blockTimeoutMillis time in milliseconds
+     * @see BatchOptions#blockTimeoutMillis(long)
+     */
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        batching.blockTimeoutMillis(blockTimeoutMillis);
+    }
+
+    /**
+     * Sends error events through a lane of their own, which lingers
+     * for at most the specified time
+     * @param maxLingerMillis time in milliseconds, or -1 to batch errors
+     *                        with the other events
+     * @see BatchOptions#highPriorityLane(long)
+     */
+    public void setHighPriorityLingerMillis(long maxLingerMillis) {
+        batching.highPriorityLane(maxLingerMillis);
+    }
+
+    /**
+     * Tunes the batch size and concurrency to keep requests within a
+     * target latency
+     * @param targetLatencyMillis time in milliseconds, or 0 for fixed batches
+     * @see BatchOptions#adaptive(long)
+     */
+    public void setTargetLatencyMillis(long targetLatencyMillis) {
+        batching.adaptive(targetLatencyMillis);
+    }
+
+    /**
+     * Sets the max time to wait for buffered events to be sent when the
+     * appender stops or the JVM shuts down
+     * @param flushTimeoutMillis time in milliseconds
+     */
+    public void setFlushTimeoutMillis(long flushTimeoutMillis) {
+        this.flushTimeoutMillis = flushTimeoutMillis;
+    }
+
+    /**
+     * Sets a layout that formats events as text instead of JSON
+     * @param layout layout of events
+     */
+    public void setLayout(Layout<ILoggingEvent> layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public void start() {
+        if (token == null || token.isEmpty()) {
+            addError("No token set for the appender named [" + name + "].");
+            return;
+        }
+        LogglyClient.Builder builder = new LogglyClient.Builder(token).batching(batching);
+        if (endpoint != null) {
+            builder.endpoint(endpoint);
+        }
+        if (tags != null) {
+            builder.tags(tags);
+        }
+        try {
+            client = builder.build();
+        } catch (IllegalArgumentException e) {
+            addError("Invalid settings for the appender named [" + name + "].", e);
+            return;
+        }
+        shutdownHook = AppenderSupport.addShutdownHook(client, flushTimeoutMillis);
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        AppenderSupport.removeShutdownHook(shutdownHook);
+        FlushResult result = client.close(flushTimeoutMillis);
+        if (!result.isComplete()) {
+            addWarn("Timed out sending buffered events to Loggly: " + result);
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        final Priority priority = priority(event.getLevel());
+        if (layout != null) {
+            client.log(layout.doLayout(event), null, priority);
+            return;
+        }
+
+        final LogglyEvent json = new LogglyEvent(7)
+                .put("timestamp", AppenderSupport.timestamp(event.getTimeStamp()))
+                .put("level", event.getLevel().toString())
+                .put("logger", event.getLoggerName())
+                .put("thread", event.getThreadName())
+                .put("message", event.getFormattedMessage());
+
+        final IThrowableProxy throwable = event.getThrowableProxy();
+        if (throwable != null) {
+            json.put("exception", ThrowableProxyUtil.asString(throwable));
+        }
+
+        final Map<String, String> mdc = event.getMDCPropertyMap();
+        if (mdc != null && !mdc.isEmpty()) {
+            final LogglyEvent fields = new LogglyEvent(mdc.size());
+            for (Map.Entry<String, String> entry : mdc.entrySet()) {
+                fields.put(entry.getKey(), entry.getValue());
+            }
+            json.put("mdc", fields);
+        }
+        client.logEvent(json, null, priority);
+    }
+
+    /**
+     * Maps a Logback level to the priority of an event, which decides
+     * whether it is sampled out or throttled when Loggly falls behind
+     * @param level level of the event
+     * @return the priority
+     */
+    static Priority priority(Level level) {
+        if (level.isGreaterOrEqual(Level.ERROR)) {
+            return Priority.HIGH;
+        }
+        return level.isGreaterOrEqual(Level.INFO) ? Priority.NORMAL : Priority.LOW;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly.appender;
+
+import com.github.tony19.loggly.BatchOptions;
+import com.github.tony19.loggly.FlushResult;
+import com.github.tony19.loggly.LogglyClient;
+import com.github.tony19.loggly.LogglyEvent;
+import com.github.tony19.loggly.OverflowPolicy;
+import com.github.tony19.loggly.Priority;
+
+import java.io.File;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * {@code java.util.logging} handler that sends records to Loggly. Records
+ * are buffered by a batching {@link LogglyClient}, and posted in bulk
+ * from a background thread, so that logging never waits on Loggly.
+ * Buffered records are flushed by {@link #flush()}, and sent before the
+ * client is closed by {@link #close()} or when the JVM shuts down.
+ * <p>
+ * By default, each record is sent as a JSON object with the fields
+ * {@code timestamp}, {@code level}, {@code logger}, {@code thread},
+ * {@code message} and {@code exception}. If a formatter is set, its
+ * output is sent as text instead. The handler is configured with these
+ * {@code LogManager} properties:
+ * <ul>
+ *     <li>{@code com.github.tony19.loggly.appender.LogglyHandler.token} (required)</li>
+ *     <li>{@code ...LogglyHandler.endpoint}, {@code ...LogglyHandler.tags}</li>
+ *     <li>{@code ...LogglyHandler.capacity}, {@code ...LogglyHandler.maxEvents},
+ *     {@code ...LogglyHandler.maxBytes}, {@code ...LogglyHandler.maxLingerMillis},
+ *     {@code ...LogglyHandler.spoolDirectory}, {@code ...LogglyHandler.overflowPolicy},
+ *     {@code ...LogglyHandler.blockTimeoutMillis},
+ *     {@code ...LogglyHandler.highPriorityLingerMillis},
+ *     {@code ...LogglyHandler.targetLatencyMillis}</li>
+ *     <li>{@code ...LogglyHandler.flushTimeoutMillis} (default 5000)</li>
+ *     <li>{@code ...LogglyHandler.level}, {@code ...LogglyHandler.formatter}</li>
+ * </ul>
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public class LogglyHandler extends Handler {
+    private static final Formatter MESSAGE_FORMATTER = new SimpleFormatter();
+
+    private final LogglyClient client;
+    private final long flushTimeoutMillis;
+    private final Thread shutdownHook;
+    private volatile boolean closed;
+
+    /**
+     * Creates a handler configured by {@code LogManager} properties
+     */
+    public LogglyHandler() {
+        final String prefix = getClass().getName() + ".";
+        final String token = property(prefix + "token", null);
+        this.flushTimeoutMillis = Long.parseLong(property(prefix + "flushTimeoutMillis", "5000"));
+
+        LogglyClient client = null;
+        try {
+            if (token == null || token.isEmpty()) {
+                throw new IllegalArgumentException("No token set for " + getClass().getName());
+            }
+            final LogglyClient.Builder builder = new LogglyClient.Builder(token)
+                    .batching(batchOptions(prefix));
+            final String endpoint = property(prefix + "endpoint", null);
+            if (endpoint != null) {
+                builder.endpoint(endpoint);
+            }
+            final String tags = property(prefix + "tags", null);
+            if (tags != null) {
+                builder.tags(tags);
+            }
+            client = builder.build();
+            configure(prefix);
+        } catch (Exception e) {
+            reportError(e.getMessage(), e, ErrorManager.OPEN_FAILURE);
+        }
+        this.client = client;
+        this.shutdownHook = client == null ? null : AppenderSupport.addShutdownHook(client, flushTimeoutMillis);
+    }
+
+    /**
+     * Creates a handler that logs with a client
+     * @param client client in batching mode
+     * @param flushTimeoutMillis max time to wait for buffered records to
+     *                           be sent by {@link #flush()}, {@link #close()}
+     *                           and when the JVM shuts down
+     */
+    public LogglyHandler(LogglyClient client, long flushTimeoutMillis) {
+        if (client == null) {
+            throw new IllegalArgumentException("client cannot be null");
+        }
+        this.client = client;
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        this.shutdownHook = AppenderSupport.addShutdownHook(client, flushTimeoutMillis);
+    }
+
+    private static String property(String name, String defaultValue) {
+        final String value = LogManager.getLogManager().getProperty(name);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    private static BatchOptions batchOptions(String prefix) {
+        final BatchOptions options = new BatchOptions();
+        String value = property(prefix + "capacity", null);
+        if (value != null) {
+            options.capacity(Integer.parseInt(value));
+        }
+        value = property(prefix + "maxEvents", null);
+        if (value != null) {
+            options.maxEvents(Integer.parseInt(value));
+        }
+        value = property(prefix + "maxBytes", null);
+        if (value != null) {
+            options.maxBytes(Integer.parseInt(value));
+        }
+        value = property(prefix + "maxLingerMillis", null);
+        if (value != null) {
+            options.maxLingerMillis(Long.parseLong(value));
+        }
+        value = property(prefix + "spoolDirectory", null);
+        if (value != null) {
+            options.spoolDirectory(new File(value));
+        }
+        value = property(prefix + "overflowPolicy", null);
+        if (value != null) {
+            options.overflowPolicy(OverflowPolicy.valueOf(value));
+        }
+        value = property(prefix + "blockTimeoutMillis", null);
+        if (value != null) {
+            options.blockTimeoutMillis(Long.parseLong(value));
+        }
+        value = property(prefix + "highPriorityLingerMillis", null);
+        if (value != null) {
+            options.highPriorityLane(Long.parseLong(value));
+        }
+        value = property(prefix + "targetLatencyMillis", null);
+        if (value != null) {
+            options.adaptive(Long.parseLong(value));
+        }
+        return options;
+    }
+
+    private void configure(String prefix) throws ReflectiveOperationException {
+        final String level = property(prefix + "level", null);
+        if (level != null) {
+            setLevel(Level.parse(level));
+        }
+        final String formatter = property(prefix + "formatter", null);
+        if (formatter != null) {
+            setFormatter((Formatter) ClassLoader.getSystemClassLoader()
+                    .loadClass(formatter).newInstance());
+        }
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (client == null || closed || !isLoggable(record)) {
+            return;
+        }
+        final Priority priority = priority(record.getLevel());
+        final Formatter formatter = getFormatter();
+        if (formatter != null) {
+            client.log(formatter.format(record), null, priority);
+            return;
+        }
+
+        final LogglyEvent json = new LogglyEvent(6)
+                .put("timestamp", AppenderSupport.timestamp(record.getMillis()))
+                .put("level", record.getLevel().getName())
+                .put("logger", record.getLoggerName())
+                .put("thread", Thread.currentThread().getName())
+                .put("message", MESSAGE_FORMATTER.formatMessage(record));
+        if (record.getThrown() != null) {
+            json.put("exception", AppenderSupport.stackTrace(record.getThrown()));
+        }
+        client.logEvent(json, null, priority);
+    }
+
+    /**
+     * Sends all buffered records, waiting up to the flush timeout
+     */
+    @Override
+    public void flush() {
+        if (client == null || closed) {
+            return;
+        }
+        FlushResult result = client.flush(flushTimeoutMillis);
+        if (!result.isComplete()) {
+            reportError("Timed out sending buffered records to Loggly: " + result, null, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    /**
+     * Sends all buffered records, waiting up to the flush timeout, and
+     * closes the client
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (shutdownHook != null) {
+            AppenderSupport.removeShutdownHook(shutdownHook);
+        }
+        if (client == null) {
+            return;
+        }
+        FlushResult result = client.close(flushTimeoutMillis);
+        if (!result.isComplete()) {
+            reportError("Timed out sending buffered records to Loggly: " + result, null, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    /**
+     * Maps a JUL level to the priority of a record, which decides
+     * whether it is sampled out or throttled when Loggly falls behind
+     * @param level level of the record
+     * @return the priority
+     */
+    static Priority priority(Level level) {
+        final int value = level.intValue();
+        if (value >= Level.SEVERE.intValue()) {
+            return Priority.HIGH;
+        }
+        return value >= Level.INFO.intValue() ? Priority.NORMAL : Priority.LOW;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly.appender;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.MDC;
+
+import java.util.List;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+import com.github.tony19.loggly.Priority;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link LogglyAppender}
+ * @author tony19@gmail.com
+ */
+public class LogglyAppenderTest {
+    private RecordingLogglyServer server;
+    private LoggerContext context;
+    private LogglyAppender appender;
+    private Logger logger;
+
+    @Before
+    public void setup() throws Exception {
+        server = new RecordingLogglyServer();
+        context = new LoggerContext();
+        appender = new LogglyAppender();
+        appender.setContext(context);
+        appender.setName("LOGGLY");
+        appender.setToken("TOKEN");
+        appender.setEndpoint(server.url());
+        appender.setTags("web,checkout");
+        appender.setMaxLingerMillis(60000);
+        logger = context.getLogger("com.example.Orders");
+    }
+
+    @After
+    public void teardown() {
+        appender.stop();
+        context.stop();
+        server.stop();
+    }
+
+    @Test
+    public void sendsEventsAsJsonWhenStopped() {
+        appender.start();
+        logger.addAppender(appender);
+        MDC.put("orderId", "1234");
+        try {
+            logger.info("order {} placed", 1234);
+            logger.error("payment failed", new IllegalStateException("declined"));
+        } finally {
+            MDC.remove("orderId");
+        }
+        assertThat(server.requests().size(), is(0));
+
+        appender.stop();
+
+        List<String> requests = server.requests();
+        assertThat(requests.size(), is(1));
+        String[] lines = requests.get(0).split("\n");
+        assertThat(lines[0], startsWith("/bulk/TOKEN|web,checkout|{\"timestamp\":\""));
+        assertThat(lines[0], containsString("\",\"level\":\"INFO\",\"logger\":\"com.example.Orders\",\"thread\":\""
+                + Thread.currentThread().getName() + "\",\"message\":\"order 1234 placed\",\"mdc\":{\"orderId\":\"1234\"}}"));
+        assertThat(lines[1], containsString("\"level\":\"ERROR\""));
+        assertThat(lines[1], containsString("\"exception\":\"java.lang.IllegalStateException: declined"));
+    }
+
+    @Test
+    public void sendsLayoutAsText() {
+        PatternLayout layout = new PatternLayout();
+        layout.setContext(context);
+        layout.setPattern("%level %msg");
+        layout.start();
+        appender.setLayout(layout);
+        appender.start();
+        logger.addAppender(appender);
+
+        logger.warn("low stock");
+        appender.stop();
+
+        assertThat(server.requests().get(0), is("/bulk/TOKEN|web,checkout|WARN low stock\n"));
+    }
+
+    @Test
+    public void doesNotStartWithoutToken() {
+        appender.setToken(null);
+        appender.start();
+        assertThat(appender.isStarted(), is(false));
+    }
+
+    @Test
+    public void mapsLevelsToPriorities() {
+        assertThat(LogglyAppender.priority(Level.ERROR), is(Priority.HIGH));
+        assertThat(LogglyAppender.priority(Level.WARN), is(Priority.NORMAL));
+        assertThat(LogglyAppender.priority(Level.INFO), is(Priority.NORMAL));
+        assertThat(LogglyAppender.priority(Level.DEBUG), is(Priority.LOW));
+        assertThat(LogglyAppender.priority(Level.TRACE), is(Priority.LOW));
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly.appender;
+
+import com.github.tony19.loggly.BatchOptions;
+import com.github.tony19.loggly.LogglyClient;
+import com.github.tony19.loggly.Priority;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link LogglyHandler}
+ * @author tony19@gmail.com
+ */
+public class LogglyHandlerTest {
+    private RecordingLogglyServer server;
+    private LogglyHandler handler;
+
+    @Before
+    public void setup() throws Exception {
+        server = new RecordingLogglyServer();
+        LogglyClient client = new LogglyClient.Builder("TOKEN")
+                .endpoint(server.url())
+                .batching(new BatchOptions().maxLingerMillis(60000))
+                .build();
+        handler = new LogglyHandler(client, 5000);
+    }
+
+    @After
+    public void teardown() {
+        handler.close();
+        server.stop();
+    }
+
+    @Test
+    public void sendsRecordsAsJsonWhenFlushed() {
+        LogRecord record = new LogRecord(Level.WARNING, "low stock: {0}");
+        record.setParameters(new Object[] { "widget" });
+        record.setLoggerName("com.example.Inventory");
+        record.setMillis(1433162096789L);
+        handler.publish(record);
+        assertThat(server.requests().size(), is(0));
+
+        handler.flush();
+
+        assertThat(server.requests().get(0), is("/bulk/TOKEN|null|{\"timestamp\":\"2015-06-01T12:34:56.789Z\","
+                + "\"level\":\"WARNING\",\"logger\":\"com.example.Inventory\",\"thread\":\""
+                + Thread.currentThread().getName() + "\",\"message\":\"low stock: widget\"}\n"));
+    }
+
+    @Test
+    public void sendsFormatterOutputAsText() {
+        handler.setFormatter(new SimpleFormatter() {
+            @Override
+            public String format(LogRecord record) {
+                return record.getLevel() + " " + formatMessage(record);
+            }
+        });
+        handler.publish(new LogRecord(Level.SEVERE, "disk full"));
+        handler.flush();
+
+        assertThat(server.requests().get(0), is("/bulk/TOKEN|null|SEVERE disk full\n"));
+    }
+
+    @Test
+    public void closeFlushesAndIgnoresLaterRecords() {
+        handler.setLevel(Level.INFO);
+        handler.publish(new LogRecord(Level.FINE, "filtered"));
+        LogRecord failure = new LogRecord(Level.SEVERE, "failed");
+        failure.setThrown(new IllegalStateException("declined"));
+        handler.publish(failure);
+        handler.close();
+        handler.publish(new LogRecord(Level.SEVERE, "after close"));
+        handler.flush();
+
+        assertThat(server.requests().size(), is(1));
+        assertThat(server.requests().get(0), containsString("\"exception\":\"java.lang.IllegalStateException: declined"));
+        assertThat(server.requests().get(0).contains("filtered"), is(false));
+    }
+
+    @Test
+    public void mapsLevelsToPriorities() {
+        assertThat(LogglyHandler.priority(Level.SEVERE), is(Priority.HIGH));
+        assertThat(LogglyHandler.priority(Level.WARNING), is(Priority.NORMAL));
+        assertThat(LogglyHandler.priority(Level.INFO), is(Priority.NORMAL));
+        assertThat(LogglyHandler.priority(Level.FINE), is(Priority.LOW));
+        assertThat(LogglyHandler.priority(Level.FINEST), is(Priority.LOW));
+    }
+
+    @Test
+    public void formatsTimestampsAsIso8601Utc() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long millis = (long) (random.nextDouble() * 253402300799999L);
+            assertThat(AppenderSupport.timestamp(millis), is(format.format(new Date(millis))));
+        }
+        assertThat(AppenderSupport.timestamp(0), is("1970-01-01T00:00:00.000Z"));
+    }
+}
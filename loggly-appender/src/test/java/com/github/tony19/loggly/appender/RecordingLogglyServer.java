@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly.appender;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process stand-in for Loggly's HTTP API, which records the path, tags
+ * and body of each request and accepts it with {@code {"response":"ok"}}
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class RecordingLogglyServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] OK = "{\"response\":\"ok\"}".getBytes(UTF_8);
+
+    private final HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface
+     * @throws IOException the server socket could not be opened
+     */
+    RecordingLogglyServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                InputStream in = exchange.getRequestBody();
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    body.write(buffer, 0, n);
+                }
+                in.close();
+                requests.add(exchange.getRequestURI().getPath() + "|"
+                        + exchange.getRequestHeaders().getFirst("X-LOGGLY-TAG") + "|" + new String(body.toByteArray(), UTF_8));
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, OK.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(OK);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Gets the base URL of the server's API
+     * @return the URL, ending with a slash
+     */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Gets the requests received so far
+     * @return the requests, each as {@code path|tags|body}
+     */
+    List<String> requests() {
+        return requests;
+    }
+
+    /**
+     * Stops the server
+     */
+    void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Measures the encoding of bulk parcels across message sizes and
+ * new-line densities. Scores are per event; run with the GC profiler
+ * ({@code gc.alloc.rate.norm}) to see the bytes allocated per event.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EncodeBenchmark {
+    private static final int EVENTS = 100;
+
+    /** Length of each message in characters */
+    @Param({"64", "512", "8192"})
+    public int messageLength;
+
+    /** Average number of characters between new-lines (0 for none) */
+    @Param({"0", "80"})
+    public int lineLength;
+
+    /** Whether the messages contain non-ASCII characters */
+    @Param({"false", "true"})
+    public boolean unicode;
+
+    private List<String> messages;
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(1 << 20);
+    private final OutputStream nullStream = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        String alphabet = unicode
+                ? "abcdefghij klmnopqrst \u00e9\u00fc\u00df\u4e2d\u6587 {}:\"0123456789"
+                : "abcdefghij klmnopqrst uvwxyz {}:\"0123456789";
+        messages = new ArrayList<String>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            StringBuilder b = new StringBuilder(messageLength);
+            for (int j = 0; j < messageLength; j++) {
+                if (lineLength > 0 && random.nextInt(lineLength) == 0) {
+                    b.append('\n');
+                } else {
+                    b.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            messages.add(b.toString());
+        }
+    }
+
+    /** The String-building encoder, formerly used by the callback API */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public byte[] joinStrings() throws IOException {
+        StringBuilder b = new StringBuilder();
+        for (String s : messages) {
+            if (s == null || s.isEmpty()) {
+                continue;
+            }
+            appendEscaped(b, s);
+            b.append('\n');
+        }
+        return b.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Appends an event to a string builder, replacing new-lines with
+     * '\r'. Events without new-lines are appended as-is.
+     * @param b destination builder
+     * @param event event to be appended
+     */
+    private static void appendEscaped(StringBuilder b, String event) {
+        int start = 0;
+        final int len = event.length();
+        for (int i = 0; i < len; i++) {
+            if (event.charAt(i) == '\n') {
+                b.append(event, start, i).append('\r');
+                start = i + 1;
+            }
+        }
+        if (start == 0) {
+            b.append(event);
+        } else {
+            b.append(event, start, len);
+        }
+    }
+
+    /** The single-pass encoder used by the bulk and batching paths */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void eventEncoder() throws IOException {
+        EventEncoder encoder = new EventEncoder(nullStream);
+        for (String s : messages) {
+            encoder.writeEvent(s);
+        }
+        encoder.close();
+    }
+
+    /** A whole bulk request body, as written to the socket by the transport */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public long bulkRequestBody() throws IOException {
+        new BulkRequestBody(messages, Deflater.NO_COMPRESSION, 0).writeTo(sink);
+        long size = sink.size();
+        sink.reset();
+        return size;
+    }
+
+    /** A gzipped bulk request body */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public long gzipRequestBody() throws IOException {
+        new BulkRequestBody(messages, Deflater.BEST_SPEED, 0).writeTo(sink);
+        long size = sink.size();
+        sink.reset();
+        return size;
+    }
+}
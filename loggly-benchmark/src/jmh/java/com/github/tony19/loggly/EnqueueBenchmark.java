@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of {@link LogglyClient#log(String)} in batching
+ * mode, with several application threads contending for the buffer
+ * while the sender thread drains it to a {@link LocalLogglyServer}.
+ * The sample-time mode reports percentiles, including the tail.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class EnqueueBenchmark {
+    private static final String MESSAGE = "{\"level\":\"INFO\",\"thread\":\"main\",\"message\":\"user signed in\"}";
+
+    private LocalLogglyServer server;
+    private LogglyClient client;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new LocalLogglyServer();
+        client = new LogglyClient.Builder("benchmark-token")
+                .endpoint(server.url())
+                .retryPolicy(new RetryPolicy().maxAttempts(1))
+                .batching(new BatchOptions().capacity(65536).maxLingerMillis(10))
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    /**
+     * Logs an event. Events are dropped while the buffer is full, which
+     * is counted in the result rather than hidden.
+     * @return whether the event was buffered
+     */
+    @Benchmark
+    public boolean log() {
+        return client.log(MESSAGE);
+    }
+}
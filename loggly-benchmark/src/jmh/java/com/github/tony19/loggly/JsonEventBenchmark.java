@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building a JSON event as a map serialized by Gson (then
+ * encoded as a string event) with a {@link LogglyEvent} serialized
+ * straight into the encoder's buffer. Run with the GC profiler to
+ * compare the bytes allocated per event.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JsonEventBenchmark {
+    private final Gson gson = new Gson();
+    private EventEncoder encoder;
+    private long counter;
+
+    @Setup
+    public void setup() {
+        encoder = new EventEncoder(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+    }
+
+    @Benchmark
+    public void gsonMap() throws IOException {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("level", "INFO");
+        map.put("logger", "com.example.checkout.PaymentService");
+        map.put("message", "payment \"authorized\" for order");
+        map.put("orderId", counter++);
+        map.put("amount", 129.95);
+        map.put("retry", false);
+        encoder.writeEvent(gson.toJson(map), BulkRequestBody.MAX_EVENT_BYTES);
+    }
+
+    @Benchmark
+    public void logglyEvent() throws IOException {
+        LogglyEvent event = new LogglyEvent(6)
+                .put("level", "INFO")
+                .put("logger", "com.example.checkout.PaymentService")
+                .put("message", "payment \"authorized\" for order")
+                .put("orderId", counter++)
+                .put("amount", 129.95)
+                .put("retry", false);
+        encoder.writeEvent(event, BulkRequestBody.MAX_EVENT_BYTES);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process stand-in for Loggly's HTTP API, which reads and discards
+ * each request body and accepts it with {@code {"response":"ok"}}
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class LocalLogglyServer {
+    private static final byte[] OK = "{\"response\":\"ok\"}".getBytes(Charset.forName("UTF-8"));
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface
+     * @throws IOException the server socket could not be opened
+     */
+    LocalLogglyServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] buffer = new byte[8192];
+                InputStream in = exchange.getRequestBody();
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+                in.close();
+
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, OK.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(OK);
+                out.close();
+            }
+        });
+        executor = Executors.newFixedThreadPool(8);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Gets the base URL of the server's API
+     * @return the URL, ending with a slash
+     */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * Stops the server
+     */
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
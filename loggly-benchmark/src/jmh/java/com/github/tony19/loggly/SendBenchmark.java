@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of posting events one at a time with posting
+ * them in bulk, against a {@link LocalLogglyServer}. Scores are events
+ * per second.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SendBenchmark {
+    private static final int EVENTS = 100;
+
+    /** Length of each message in characters */
+    @Param({"128", "2048"})
+    public int messageLength;
+
+    private LocalLogglyServer server;
+    private LogglyClient client;
+    private String message;
+    private List<String> messages;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new LocalLogglyServer();
+        client = new LogglyClient.Builder("benchmark-token")
+                .endpoint(server.url())
+                .retryPolicy(new RetryPolicy().maxAttempts(1))
+                .build();
+
+        StringBuilder b = new StringBuilder(messageLength);
+        for (int i = 0; i < messageLength; i++) {
+            b.append((char) ('a' + i % 26));
+        }
+        message = b.toString();
+        messages = new ArrayList<String>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            messages.add(message);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public boolean single() {
+        return client.log(message);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public boolean bulk() {
+        return client.logBulk(messages);
+    }
+}
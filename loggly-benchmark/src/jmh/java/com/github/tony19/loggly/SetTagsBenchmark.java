@@ -0,0 +1,56 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link LogglyClient#setTags(String...)}, which parses the
+ * tags into the CSV sent in each request's tag header
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SetTagsBenchmark {
+    private LogglyClient client;
+
+    @Setup
+    public void setup() {
+        // no requests are sent, so the endpoint is never contacted
+        client = new LogglyClient("benchmark-token");
+    }
+
+    @Benchmark
+    public void varargs() {
+        client.setTags("android", "production", "v1.2.3");
+    }
+
+    @Benchmark
+    public void csv() {
+        client.setTags(" android, production ,v1.2.3,, ");
+    }
+}
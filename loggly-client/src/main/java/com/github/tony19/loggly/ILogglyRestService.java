@@ -15,8 +15,8 @@
  */
 package com.github.tony19.loggly;
 
+import okhttp3.RequestBody;
 import retrofit2.Call;
-import retrofit2.Callback;
 import retrofit2.http.Body;
 import retrofit2.http.Header;
 import retrofit2.http.POST;
@@ -40,37 +40,17 @@ interface ILogglyRestService {
     @POST("inputs/{token}")
     Call<LogglyResponse> log(@Path("token") String token, @Header("X-LOGGLY-TAG") String tags, @Body String message);
 
-    /**
-     * Posts a single log event to Loggly's REST endpoint
-     * @param token Loggly customer token
-     * @param tags CSV of tags
-     * @param message log event to be posted
-     * @param callback callback to be invoked on completion of the post
-     */
-    @POST("inputs/{token}")
-    Call<Void> log(@Path("token") String token, @Header("X-LOGGLY-TAG") String tags, @Body String message, Callback<LogglyResponse> callback);
-
     /**
      * Posts several log events at once to Loggly's bulk REST endpoint
      * @param token Loggly customer token
      * @param tags CSV of tags
+     * @param contentEncoding encoding of the body (e.g., "gzip"), or
+     *                        {@code null} for none
      * @param messages log event messages, each delimited by new-line
      *                 The text is parsed for a log event in each line.
      *                 e.g., "Hello\nWorld" would create two log events.
      * @return result of the post as a {@link com.github.tony19.loggly.LogglyResponse}
      */
     @POST("bulk/{token}")
-    Call<LogglyResponse> logBulk(@Path("token") String token, @Header("X-LOGGLY-TAG") String tags, @Body String messages);
-
-    /**
-     * Posts several log events at once to Loggly's bulk REST endpoint
-     * @param token Loggly customer token
-     * @param tags CSV of tags
-     * @param messages log event messages, each delimited by new-line
-     *                 The text is parsed for a log event in each line.
-     *                 e.g., "Hello\nWorld" would create two log events.
-     * @param callback callback to be invoked on completion of the post
-     */
-    @POST("bulk/{token}")
-    Call<Void> logBulk(@Path("token") String token, @Header("X-LOGGLY-TAG") String tags, @Body String messages, Callback<LogglyResponse> callback);
+    Call<LogglyResponse> logBulk(@Path("token") String token, @Header("X-LOGGLY-TAG") String tags, @Header("Content-Encoding") String contentEncoding, @Body RequestBody messages);
 }
@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import retrofit2.Call;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Transport} based on Retrofit and OkHttp, which brings HTTP/2,
+ * a tunable connection pool and a dispatcher that can be shared by
+ * several clients.
+ * <pre>
+ * final ILogglyClient loggly = new LogglyClient.Builder(LOGGLY_TOKEN)
+ *         .transport(new RetrofitTransport.Builder().maxInFlightRequests(4).build())
+ *         .build();
+ * </pre>
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class RetrofitTransport implements Transport {
+    private static final MediaType TEXT_PLAIN = MediaType.parse("text/plain; charset=utf-8");
+    private final ILogglyRestService loggly;
+
+    /**
+     * Creates a transport with the specified REST API.
+     * This is package private for internal testing only.
+     * @param restApi implementation of {@link ILogglyRestService}
+     */
+    RetrofitTransport(ILogglyRestService restApi) {
+        this.loggly = restApi;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        return response(call(request).execute());
+    }
+
+    @Override
+    public void enqueue(TransportRequest request, final Callback callback) {
+        call(request).enqueue(new retrofit2.Callback<LogglyResponse>() {
+            @Override
+            public void onResponse(Call<LogglyResponse> call, Response<LogglyResponse> response) {
+                callback.onResponse(response(response));
+            }
+
+            @Override
+            public void onFailure(Call<LogglyResponse> call, Throwable error) {
+                callback.onFailure(error instanceof IOException ? (IOException) error : new IOException(error));
+            }
+        });
+    }
+
+    private Call<LogglyResponse> call(TransportRequest request) {
+        if (!request.isBulk()) {
+            return loggly.log(request.getToken(), request.getTags(), request.getMessage());
+        }
+        return loggly.logBulk(request.getToken(), request.getTags(), request.getContentEncoding(),
+                new StreamingBody(request));
+    }
+
+    private static TransportResponse response(Response<LogglyResponse> response) {
+        return new TransportResponse(response.code(), response.message(), response.body(),
+                response.headers().get("Retry-After"));
+    }
+
+    /**
+     * Request body that streams the events of a bulk request straight
+     * into OkHttp's sink
+     */
+    private static final class StreamingBody extends RequestBody {
+        private final TransportRequest request;
+
+        StreamingBody(TransportRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return TEXT_PLAIN;
+        }
+
+        @Override
+        public long contentLength() {
+            return request.getContentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            request.writeTo(sink.outputStream());
+        }
+    }
+
+    /**
+     * Builder of a {@link RetrofitTransport} with a tuned HTTP stack.
+     * <p>
+     * By default, each transport gets its own connection pool. Clients
+     * that post to the same endpoint can share warm (TLS) connections
+     * by sharing a transport, or by building their transports from the
+     * same {@link OkHttpClient}, whose connection pool and dispatcher are
+     * kept while the timeouts set here are applied on top.
+     */
+    public static final class Builder {
+        private String endpoint = "https://logs-01.loggly.com/";
+        private OkHttpClient httpClient;
+        private int maxIdleConnections;
+        private long keepAliveMillis;
+        private int maxInFlightRequests;
+        private long connectTimeoutMillis = -1;
+        private long readTimeoutMillis = -1;
+        private long writeTimeoutMillis = -1;
+        private boolean http2 = true;
+        private boolean virtualThreads;
+
+        /**
+         * Sets the base URL of Loggly's HTTP API
+         * @param url base URL (default: {@code https://logs-01.loggly.com/})
+         * @return this {@code Builder}
+         */
+        public Builder endpoint(String url) {
+            if (url == null || url.isEmpty()) {
+                throw new IllegalArgumentException("url cannot be empty");
+            }
+            this.endpoint = url.endsWith("/") ? url : url + "/";
+            return this;
+        }
+
+        /**
+         * Sets the HTTP client to be shared with other transports, along
+         * with its connection pool and dispatcher
+         * @param client HTTP client
+         * @return this {@code Builder}
+         */
+        public Builder httpClient(OkHttpClient client) {
+            if (client == null) {
+                throw new IllegalArgumentException("client cannot be null");
+            }
+            this.httpClient = client;
+            return this;
+        }
+
+        /**
+         * Sets up a connection pool for this transport, replacing the
+         * pool of any shared HTTP client
+         * @param maxIdleConnections max number of idle connections kept open
+         * @param keepAliveMillis time in milliseconds that an idle
+         *                        connection is kept open
+         * @return this {@code Builder}
+         */
+        public Builder connectionPool(int maxIdleConnections, long keepAliveMillis) {
+            if (maxIdleConnections <= 0) {
+                throw new IllegalArgumentException("maxIdleConnections must be positive");
+            }
+            if (keepAliveMillis <= 0) {
+                throw new IllegalArgumentException("keepAliveMillis must be positive");
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * Limits the number of asynchronous requests in flight at once,
+         * beyond which they wait in OkHttp's dispatcher queue
+         * @param maxInFlightRequests max number of concurrent requests
+         * @return this {@code Builder}
+         * @see LogglyClient.Builder#maxInFlightRequests(int)
+         */
+        public Builder maxInFlightRequests(int maxInFlightRequests) {
+            if (maxInFlightRequests <= 0) {
+                throw new IllegalArgumentException("maxInFlightRequests must be positive");
+            }
+            this.maxInFlightRequests = maxInFlightRequests;
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout of new connections
+         * @param millis timeout in milliseconds (0 for none)
+         * @return this {@code Builder}
+         */
+        public Builder connectTimeoutMillis(long millis) {
+            this.connectTimeoutMillis = checkTimeout(millis);
+            return this;
+        }
+
+        /**
+         * Sets the read timeout of connections
+         * @param millis timeout in milliseconds (0 for none)
+         * @return this {@code Builder}
+         */
+        public Builder readTimeoutMillis(long millis) {
+            this.readTimeoutMillis = checkTimeout(millis);
+            return this;
+        }
+
+        /**
+         * Sets the write timeout of connections
+         * @param millis timeout in milliseconds (0 for none)
+         * @return this {@code Builder}
+         */
+        public Builder writeTimeoutMillis(long millis) {
+            this.writeTimeoutMillis = checkTimeout(millis);
+            return this;
+        }
+
+        /**
+         * Enables or disables HTTP/2, which multiplexes concurrent
+         * requests over a single connection when the server supports it
+         * @param enabled {@code true} to negotiate HTTP/2 (default);
+         *                {@code false} to only use HTTP/1.1
+         * @return this {@code Builder}
+         */
+        public Builder http2(boolean enabled) {
+            this.http2 = enabled;
+            return this;
+        }
+
+        /**
+         * Runs OkHttp's requests on virtual threads (Java 21+), one per
+         * request, unless an HTTP client is shared. Ignored if the
+         * runtime lacks virtual threads.
+         * @param enabled {@code true} to use virtual threads
+         * @return this {@code Builder}
+         * @see LogglyClient.Builder#virtualThreads(boolean)
+         */
+        public Builder virtualThreads(boolean enabled) {
+            this.virtualThreads = enabled;
+            return this;
+        }
+
+        /**
+         * Creates a transport with the settings of this builder
+         * @return the transport
+         */
+        public RetrofitTransport build() {
+            Retrofit restAdapter = new Retrofit.Builder()
+                    .baseUrl(endpoint)
+                    .client(createHttpClient())
+                    .addConverterFactory(GsonConverterFactory.create())
+                    .build();
+            return new RetrofitTransport(restAdapter.create(ILogglyRestService.class));
+        }
+
+        /**
+         * Creates the HTTP client, derived from the shared client if any
+         * @return the HTTP client
+         */
+        OkHttpClient createHttpClient() {
+            OkHttpClient.Builder b;
+            if (httpClient != null) {
+                b = httpClient.newBuilder();
+            } else {
+                b = new OkHttpClient.Builder();
+                ExecutorService executor = virtualThreads ? VirtualThreads.newPerTaskExecutor("loggly-http-") : null;
+                if (maxInFlightRequests > 0 || executor != null) {
+                    Dispatcher dispatcher = executor != null ? new Dispatcher(executor) : new Dispatcher();
+                    if (maxInFlightRequests > 0) {
+                        // the default dispatcher would queue requests beyond 5 per host
+                        dispatcher.setMaxRequests(maxInFlightRequests);
+                        dispatcher.setMaxRequestsPerHost(maxInFlightRequests);
+                    }
+                    b.dispatcher(dispatcher);
+                }
+            }
+            if (maxIdleConnections > 0) {
+                b.connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS));
+            }
+            if (connectTimeoutMillis >= 0) {
+                b.connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (readTimeoutMillis >= 0) {
+                b.readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (writeTimeoutMillis >= 0) {
+                b.writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            if (!http2) {
+                b.protocols(Collections.singletonList(Protocol.HTTP_1_1));
+            }
+            return b.build();
+        }
+
+        private static long checkTimeout(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("timeout cannot be negative");
+            }
+            return millis;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.RetrofitTransport}
+ * @author tony19@gmail.com
+ */
+public class RetrofitTransportTest {
+    private static final String TOKEN = "1e29e92a-b099-49c5-a260-4c56a71f7c89";
+
+    private HttpServer server;
+    /** Requests received by the server, as "path|tags|body" */
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                InputStream in = exchange.getRequestBody();
+                for (int b; (b = in.read()) != -1; ) {
+                    body.write(b);
+                }
+                requests.add(exchange.getRequestURI().getPath() + "|"
+                        + exchange.getRequestHeaders().getFirst("X-LOGGLY-TAG") + "|" + body.toString("UTF-8"));
+                byte[] ok = "{\"response\":\"ok\"}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, ok.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(ok);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void sendsBulkEventsThroughOkHttp() {
+        RetrofitTransport transport = new RetrofitTransport.Builder()
+                .endpoint("http://127.0.0.1:" + server.getAddress().getPort())
+                .build();
+        LogglyClient client = new LogglyClient.Builder(TOKEN).transport(transport).tags("web").build();
+
+        assertThat(client.logBulk("E 1", "E\n2"), is(true));
+        assertThat(requests.get(0), is("/bulk/" + TOKEN + "|web|E 1\nE\r2\n"));
+    }
+
+    @Test
+    public void sendsSingleEventsThroughOkHttp() throws Exception {
+        RetrofitTransport transport = new RetrofitTransport.Builder()
+                .endpoint("http://127.0.0.1:" + server.getAddress().getPort())
+                .build();
+        LogglyClient client = new LogglyClient.Builder(TOKEN).transport(transport).build();
+
+        assertThat(client.log("E 1"), is(true));
+        assertThat(client.logAsync("E 2").get(5, TimeUnit.SECONDS).isOk(), is(true));
+        // Retrofit's converter posts a single event as a JSON string
+        assertThat(requests.get(0), is("/inputs/" + TOKEN + "|null|\"E 1\""));
+        assertThat(requests.get(1), is("/inputs/" + TOKEN + "|null|\"E 2\""));
+    }
+
+    @Test
+    public void builderAppliesHttpSettings() {
+        OkHttpClient client = new RetrofitTransport.Builder()
+                .connectTimeoutMillis(1000)
+                .readTimeoutMillis(2000)
+                .writeTimeoutMillis(3000)
+                .http2(false)
+                .createHttpClient();
+
+        assertThat(client.connectTimeoutMillis(), is(1000));
+        assertThat(client.readTimeoutMillis(), is(2000));
+        assertThat(client.writeTimeoutMillis(), is(3000));
+        assertThat(client.protocols(), is(Collections.singletonList(Protocol.HTTP_1_1)));
+    }
+
+    @Test
+    public void builderSharesPoolOfHttpClient() {
+        OkHttpClient shared = new OkHttpClient();
+        OkHttpClient client = new RetrofitTransport.Builder()
+                .httpClient(shared)
+                .readTimeoutMillis(500)
+                .createHttpClient();
+
+        assertThat(client.connectionPool(), is(shared.connectionPool()));
+        assertThat(client.dispatcher(), is(shared.dispatcher()));
+        assertThat(client.readTimeoutMillis(), is(500));
+    }
+}
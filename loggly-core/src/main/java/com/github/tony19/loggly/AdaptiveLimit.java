@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunes the batch size and the number of concurrent bulk requests of a
+ * dispatcher from the latency and outcome of its requests, with an
+ * AIMD (additive increase, multiplicative decrease) controller.
+ * <p>
+ * Each request that Loggly accepts within the target latency raises
+ * the batch size by a fixed step, and the concurrency by one request
+ * per window of requests. A request that fails, or that takes longer
+ * than the target, halves both limits. The requests that were already
+ * in flight then answer for the load before the decrease, so further
+ * decreases are held off for one round trip.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class AdaptiveLimit {
+    /** Smallest batch size in bytes, unless the max batch size is smaller */
+    static final int MIN_BATCH_BYTES = 64 * 1024;
+    /** Fraction of the limits kept by a decrease */
+    private static final double BACKOFF = 0.5;
+    /** Number of increases that take the batch size from its min to its max */
+    private static final int BYTES_STEPS = 16;
+
+    private final long targetLatencyNanos;
+    private final int minBytes;
+    private final int maxBytes;
+    private final int maxConcurrency;
+    private final double bytesStep;
+
+    // guarded by this
+    private double concurrency = 1;
+    private double batchBytes;
+    private long holdUntil;
+
+    /** Current limits, read by the sender thread without locking */
+    private volatile int currentConcurrency = 1;
+    private volatile int currentBatchBytes;
+
+    /**
+     * Creates a controller that starts with the smallest batches and
+     * a single request in flight
+     * @param targetLatencyMillis latency in milliseconds above which the
+     *                            endpoint is considered congested
+     * @param minBytes smallest batch size in bytes
+     * @param maxBytes largest batch size in bytes
+     * @param maxConcurrency max number of concurrent requests
+     */
+    AdaptiveLimit(long targetLatencyMillis, int minBytes, int maxBytes, int maxConcurrency) {
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.minBytes = Math.min(minBytes, maxBytes);
+        this.maxBytes = maxBytes;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.bytesStep = Math.max(1.0, (maxBytes - this.minBytes) / (double) BYTES_STEPS);
+        this.batchBytes = this.minBytes;
+        this.currentBatchBytes = this.minBytes;
+        this.holdUntil = System.nanoTime();
+    }
+
+    /**
+     * Adjusts the limits after a request completed
+     * @param latencyNanos time from the start of the request to its
+     *                     outcome, including retries
+     * @param ok whether Loggly accepted the request
+     */
+    synchronized void onResponse(long latencyNanos, boolean ok) {
+        final long now = System.nanoTime();
+        if (!ok || latencyNanos > targetLatencyNanos) {
+            if (now - holdUntil < 0) {
+                return;
+            }
+            concurrency = Math.max(1, concurrency * BACKOFF);
+            batchBytes = Math.max(minBytes, batchBytes * BACKOFF);
+            holdUntil = now + Math.max(latencyNanos, targetLatencyNanos);
+        } else {
+            concurrency = Math.min(maxConcurrency, concurrency + 1 / concurrency);
+            batchBytes = Math.min(maxBytes, batchBytes + bytesStep);
+        }
+        currentConcurrency = (int) concurrency;
+        currentBatchBytes = (int) batchBytes;
+    }
+
+    /**
+     * Gets the number of requests that may be in flight
+     * @return the concurrency limit
+     */
+    int getConcurrency() {
+        return currentConcurrency;
+    }
+
+    /**
+     * Gets the size at which a batch is sent
+     * @return the batch size in bytes
+     */
+    int getBatchBytes() {
+        return currentBatchBytes;
+    }
+}
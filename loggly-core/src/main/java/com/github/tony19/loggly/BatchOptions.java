@@ -0,0 +1,390 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.File;
+
+/**
+ * Settings for the asynchronous batching mode of {@link LogglyClient}.
+ * Events are buffered in memory and posted to Loggly's bulk endpoint
+ * as soon as any of the flush thresholds is reached.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class BatchOptions {
+    /** Subdirectory of the spool directory that holds the high-priority lane's spool */
+    static final String HIGH_PRIORITY_DIR = "high-priority";
+
+    private int capacity = 10000;
+    private int maxEvents = 1000;
+    private int maxBytes = 1024 * 1024;
+    private long maxLingerMillis = 1000;
+    private File spoolDirectory;
+    private int spoolSegmentBytes = 16 * 1024 * 1024;
+    private long repeatWindowMillis;
+    private int maxRepeatEntries;
+    private boolean normalizeRepeats;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private long blockTimeoutMillis = 100;
+    private long highPriorityLingerMillis = -1;
+    private long targetLatencyMillis;
+
+    /**
+     * Creates options with the default settings
+     */
+    public BatchOptions() {
+    }
+
+    /**
+     * Creates a copy of options, which later changes to the options
+     * do not affect
+     * @param options options to be copied
+     */
+    BatchOptions(BatchOptions options) {
+        this.capacity = options.capacity;
+        this.maxEvents = options.maxEvents;
+        this.maxBytes = options.maxBytes;
+        this.maxLingerMillis = options.maxLingerMillis;
+        this.spoolDirectory = options.spoolDirectory;
+        this.spoolSegmentBytes = options.spoolSegmentBytes;
+        this.repeatWindowMillis = options.repeatWindowMillis;
+        this.maxRepeatEntries = options.maxRepeatEntries;
+        this.normalizeRepeats = options.normalizeRepeats;
+        this.overflowPolicy = options.overflowPolicy;
+        this.blockTimeoutMillis = options.blockTimeoutMillis;
+        this.highPriorityLingerMillis = options.highPriorityLingerMillis;
+        this.targetLatencyMillis = options.targetLatencyMillis;
+    }
+
+    /**
+     * Sets the maximum number of events held in memory awaiting
+     * delivery. Events logged while the buffer is full are handled
+     * by the {@link #overflowPolicy(OverflowPolicy) overflow policy}.
+     * @param capacity max number of buffered events (rounded up to
+     *                 the next power of two)
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions capacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets the number of events that triggers a flush
+     * @param maxEvents max number of events per bulk request
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions maxEvents(int maxEvents) {
+        if (maxEvents <= 0) {
+            throw new IllegalArgumentException("maxEvents must be positive");
+        }
+        this.maxEvents = maxEvents;
+        return this;
+    }
+
+    /**
+     * Sets the encoded size (in bytes) that triggers a flush
+     * @param maxBytes max number of bytes per bulk request
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions maxBytes(int maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Sets the longest time an event may wait in the buffer before
+     * its batch is flushed, regardless of the batch size
+     * @param maxLingerMillis max linger time in milliseconds
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions maxLingerMillis(long maxLingerMillis) {
+        if (maxLingerMillis < 0) {
+            throw new IllegalArgumentException("maxLingerMillis cannot be negative");
+        }
+        this.maxLingerMillis = maxLingerMillis;
+        return this;
+    }
+
+    /**
+     * Enables a durable spool, which keeps buffered events in
+     * memory-mapped files until Loggly acknowledges them. Events left
+     * in the spool by a previous process (e.g., after a crash or while
+     * the network was down) are sent when the client starts.
+     * @param directory directory of the spool files, which must not be
+     *                  shared with another client, or {@code null} to
+     *                  keep events in memory only
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions spoolDirectory(File directory) {
+        this.spoolDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Sets the size of each spool file
+     * @param segmentBytes size in bytes (at least 2 MB)
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions spoolSegmentBytes(int segmentBytes) {
+        if (segmentBytes < DiskSpool.MIN_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("spoolSegmentBytes must be at least " + DiskSpool.MIN_SEGMENT_BYTES);
+        }
+        this.spoolSegmentBytes = segmentBytes;
+        return this;
+    }
+
+    /**
+     * Enables suppression of repeated messages. The first occurrence of
+     * a message is logged, and its repeats within the window are only
+     * counted; at the end of the window, a summary event is logged with
+     * the message, the number of repeats, and the times of the first
+     * and last occurrence.
+     * @param windowMillis length of the window in milliseconds, or 0
+     *                     to disable suppression
+     * @param maxEntries max number of distinct messages tracked at once;
+     *                   beyond that, the oldest windows end early
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions suppressRepeats(long windowMillis, int maxEntries) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis cannot be negative");
+        }
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.repeatWindowMillis = windowMillis;
+        this.maxRepeatEntries = maxEntries;
+        return this;
+    }
+
+    /**
+     * Sets whether messages that differ only in their numbers (such as
+     * IDs, ports or durations) count as repeats of each other
+     * @param normalize {@code true} to compare messages with each run
+     *                  of digits replaced by a placeholder
+     * @return this {@code BatchOptions}
+     * @see #suppressRepeats(long, int)
+     */
+    public BatchOptions normalizeRepeats(boolean normalize) {
+        this.normalizeRepeats = normalize;
+        return this;
+    }
+
+    /**
+     * Sets what happens to events logged while the buffer is full.
+     * {@link OverflowPolicy#SPILL_TO_DISK} requires a
+     * {@link #spoolDirectory(File) spool directory}.
+     * @param policy overflow policy (default: {@link OverflowPolicy#DROP_NEWEST})
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions overflowPolicy(OverflowPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy cannot be null");
+        }
+        this.overflowPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets the longest time a logging thread waits for room in a full
+     * buffer under {@link OverflowPolicy#BLOCK}, which bounds the
+     * latency added to the thread during an outage
+     * @param blockTimeoutMillis max wait in milliseconds (default: 100)
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions blockTimeoutMillis(long blockTimeoutMillis) {
+        if (blockTimeoutMillis < 0) {
+            throw new IllegalArgumentException("blockTimeoutMillis cannot be negative");
+        }
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Tunes the batch size and the number of concurrent bulk requests at
+     * runtime from the latency and errors of the requests. Batches start
+     * small and sequential, and grow in size and concurrency while Loggly
+     * answers within the target latency; a failed or slower request
+     * halves both. {@link #maxBytes(int)} and the client's max in-flight
+     * requests become the upper bounds.
+     * @param targetLatencyMillis latency in milliseconds above which
+     *                            Loggly is considered congested, or 0
+     *                            to use fixed batches (default: 0)
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions adaptive(long targetLatencyMillis) {
+        if (targetLatencyMillis < 0) {
+            throw new IllegalArgumentException("targetLatencyMillis cannot be negative");
+        }
+        this.targetLatencyMillis = targetLatencyMillis;
+        return this;
+    }
+
+    /**
+     * Sends {@link Priority#HIGH} events through a lane of their own:
+     * a separate buffer and sender thread, batches that are sent after
+     * a short linger, and an in-flight request slot that other events
+     * cannot take. Errors then reach Loggly within the linger time, even
+     * while large batches of other events are being sent or retried.
+     * The lane has the same capacity and thresholds as the other events,
+     * and spools into a subdirectory of the spool directory.
+     * @param maxLingerMillis max linger time of high-priority events in
+     *                        milliseconds, 0 to send them as soon as the
+     *                        lane's buffer is empty, or -1 to disable the lane
+     * @return this {@code BatchOptions}
+     */
+    public BatchOptions highPriorityLane(long maxLingerMillis) {
+        if (maxLingerMillis < -1) {
+            throw new IllegalArgumentException("maxLingerMillis must be -1 or more");
+        }
+        this.highPriorityLingerMillis = maxLingerMillis;
+        return this;
+    }
+
+    /**
+     * Gets the max number of buffered events
+     * @return the buffer capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of events that triggers a flush
+     * @return the max number of events per bulk request
+     */
+    public int getMaxEvents() {
+        return maxEvents;
+    }
+
+    /**
+     * Gets the encoded size (in bytes) that triggers a flush
+     * @return the max number of bytes per bulk request
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the longest time an event may wait in the buffer
+     * @return the max linger time in milliseconds
+     */
+    public long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    /**
+     * Gets the directory of the durable spool
+     * @return the directory, or {@code null} if the spool is disabled
+     */
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Gets the size of each spool file
+     * @return the size in bytes
+     */
+    public int getSpoolSegmentBytes() {
+        return spoolSegmentBytes;
+    }
+
+    /**
+     * Gets the window of repeated-message suppression
+     * @return the window in milliseconds, or 0 if disabled
+     */
+    public long getRepeatWindowMillis() {
+        return repeatWindowMillis;
+    }
+
+    /**
+     * Gets the max number of distinct messages tracked for suppression
+     * @return the number of entries
+     */
+    public int getMaxRepeatEntries() {
+        return maxRepeatEntries;
+    }
+
+    /**
+     * Determines whether numbers are ignored when comparing repeats
+     * @return {@code true} if messages are normalized
+     */
+    public boolean isNormalizeRepeats() {
+        return normalizeRepeats;
+    }
+
+    /**
+     * Gets what happens to events logged while the buffer is full
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Gets the longest time a logging thread waits for room in a full buffer
+     * @return the max wait in milliseconds
+     */
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    /**
+     * Gets the linger time of the high-priority lane
+     * @return the max linger time in milliseconds, or -1 if the lane is disabled
+     */
+    public long getHighPriorityLingerMillis() {
+        return highPriorityLingerMillis;
+    }
+
+    /**
+     * Gets the target latency of adaptive batching
+     * @return the target latency in milliseconds, or 0 if batches are fixed
+     */
+    public long getTargetLatencyMillis() {
+        return targetLatencyMillis;
+    }
+
+    /**
+     * Creates the options of the high-priority lane, which are a copy of
+     * these with the lane's linger time and spool directory, and fixed
+     * batches
+     * @return the options of the lane
+     */
+    BatchOptions highPriorityOptions() {
+        BatchOptions lane = new BatchOptions();
+        lane.capacity = capacity;
+        lane.maxEvents = maxEvents;
+        lane.maxBytes = maxBytes;
+        lane.maxLingerMillis = Math.max(0, highPriorityLingerMillis);
+        lane.spoolDirectory = spoolDirectory != null ? new File(spoolDirectory, HIGH_PRIORITY_DIR) : null;
+        lane.spoolSegmentBytes = spoolSegmentBytes;
+        lane.repeatWindowMillis = repeatWindowMillis;
+        lane.maxRepeatEntries = maxRepeatEntries;
+        lane.normalizeRepeats = normalizeRepeats;
+        lane.overflowPolicy = overflowPolicy;
+        lane.blockTimeoutMillis = blockTimeoutMillis;
+        return lane;
+    }
+}
@@ -0,0 +1,1404 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Buffers log events in memory and posts them in batches from a
+ * background thread through {@link LogglyClient#postBulk}.
+ * A batch is flushed once it reaches the configured number of events
+ * or bytes, or once its oldest event has lingered for too long.
+ * <p>
+ * Logging threads hand events over through a lock-free ring buffer,
+ * and only wake the sender thread when it is parked.
+ * <p>
+ * Since a bulk request carries a single tag set, events are batched in
+ * a separate partition per tag set, so events with the same tags still
+ * coalesce into as few requests as possible. Events logged without
+ * tags use the client's tags at the time they are sent. A partition
+ * with explicit tags is closed, along with its spool, once it has been
+ * empty for a minute.
+ * <p>
+ * With a {@link DiskSpool}, the sender thread appends each event to
+ * the spool of its partition and posts batches straight from the spool
+ * files. A batch is removed from the spool only after Loggly accepts
+ * it; otherwise it is retried after the linger time. Partitions with
+ * explicit tags are spooled in subdirectories named after the tags.
+ * <p>
+ * With repeat suppression, logging threads check each message against
+ * a {@link RepeatFilter} before it reaches the buffer, and the sender
+ * thread periodically buffers the summaries of the windows that ended.
+ * <p>
+ * A flush or close drains the buffer, the spools and the overflow
+ * spools at once, and sends all of their batches in parallel. A close
+ * gives up on the requests that are not done by its deadline, and
+ * then stops the sender loop.
+ * <p>
+ * With an {@link AdaptiveLimit}, batches are sent once they reach the
+ * batch size of the controller, and in-memory batches are posted
+ * asynchronously, with as many requests in flight as the controller
+ * allows. Spooled batches are still posted one at a time, since they
+ * are acknowledged in order.
+ * <p>
+ * On a shared scheduler (see {@link LogglyRouter}), the sender loop
+ * does not own a thread: it runs in turns on the scheduler's threads,
+ * which end whenever it would park, and in-memory batches are posted
+ * asynchronously, up to a window of requests in flight. A dispatcher
+ * whose window is full stops draining its buffer until a response
+ * arrives, so a slow endpoint only fills its own buffer. A drain posts
+ * all batches at once, and ends when no request is in flight.
+ * <p>
+ * Events logged while the buffer is full are handled by the
+ * {@link OverflowPolicy} of the options. Spilled events are appended
+ * to overflow spools by the logging threads, under the lock of the
+ * spools, and the sender thread posts them whenever the buffer is empty.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+class BulkDispatcher implements Runnable {
+    /** Longest time the idle sender parks between checks of the buffer */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Time after which an empty partition of an explicit tag set is closed */
+    private static final long PARTITION_IDLE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    /** Prefix of the spool subdirectory of each explicit tag set */
+    private static final String TAGS_DIR_PREFIX = "tags-";
+
+    /** Subdirectory of the spool directory that holds the overflow spools */
+    private static final String SPILL_DIR = "overflow";
+
+    /** Shortest and longest time a blocked producer parks between attempts */
+    private static final long MIN_BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    private static final long MAX_BLOCK_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LogglyClient client;
+    private final LogglyMetrics metrics;
+    /** In-flight slots of the requests of this dispatcher, or {@code null} if unlimited */
+    private final Semaphore slots;
+    /** Tunes the batch size and concurrency, or {@code null} for fixed batches */
+    private final AdaptiveLimit limit;
+    /** Scheduler that runs the sender loop in turns, or {@code null} for a dedicated thread */
+    private final ScheduledExecutorService scheduler;
+    /** Max asynchronous requests in flight on a scheduler, unless adaptive */
+    private final int window;
+    /** Whether a turn of the sender loop is running or about to run */
+    private final AtomicBoolean running = new AtomicBoolean();
+    /** Timer of the next turn, which is only touched by the running turn */
+    private ScheduledFuture<?> timer;
+    /** Whether the last turn ended with no batch to wait for, nor a response */
+    private volatile boolean idle;
+    private final Runnable wakeTask = new Runnable() {
+        @Override
+        public void run() {
+            wake();
+        }
+    };
+    /** Drain whose batches the running turn is posting, or {@code null} */
+    private Drain collecting;
+    private long collectedEvents;
+    /** Drain waiting for the requests in flight on a shared scheduler, or {@code null} */
+    private final AtomicReference<Drain> draining = new AtomicReference<Drain>();
+    /** Asynchronous requests in flight, and their events */
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong outstandingEvents = new AtomicLong();
+    private final MpscRingBuffer<Object> queue;
+    private final File spoolDirectory;
+    private final int spoolSegmentBytes;
+    /** Dedicated thread running the sender loop, woken by producers when parked */
+    private volatile Thread thread;
+    /** Scheduler thread running the current turn of the sender loop, or {@code null} */
+    private volatile Thread turnThread;
+    private final int maxEvents;
+    private final int maxBytes;
+    private final long maxLingerNanos;
+    private final int batchCapacity;
+    /** Suppresses repeated messages, or {@code null} if disabled */
+    private final RepeatFilter repeats;
+    private long nextRepeatSweep;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+    /** Buffer sizes at which low- and normal-priority events are dropped */
+    private final int lowPriorityLimit;
+    private final int normalPriorityLimit;
+
+    /** Overflow spools by tag set, which also serves as their lock */
+    private final Map<TagSet, DiskSpool> spills = new HashMap<TagSet, DiskSpool>();
+    private final File spillDirectory;
+    /** Whether the overflow spools may hold events */
+    private volatile boolean spilled;
+    private long nextSpillRetry;
+
+    /** Partitions by tag set, where the {@code null} key holds events without tags */
+    private final Map<TagSet, Partition> partitions = new HashMap<TagSet, Partition>();
+    private int pendingEvents;
+    private long nextDeadline;
+    private volatile boolean parked;
+
+    /** Flushes and closes waiting for the sender, which wakes them through {@link #flushLock} */
+    private final ConcurrentLinkedQueue<FlushRequest> flushRequests = new ConcurrentLinkedQueue<FlushRequest>();
+    private final Object flushLock = new Object();
+    /** Requests of the drain in progress, or {@code null} outside of a drain */
+    private List<Drained> drained;
+    /** Whether a close was handled, which ends the sender loop */
+    private volatile boolean stopped;
+
+    /**
+     * Pending events of a single tag set
+     */
+    private static final class Partition {
+        /** Tags of the events, or {@code null} for the client's tags */
+        final TagSet tags;
+        final DiskSpool spool;
+        final List<Object> batch;
+        int pendingEvents;
+        long pendingBytes;
+        long deadline;
+        /** {@link System#nanoTime()} of the last event added */
+        long lastAdded;
+        boolean retrying;
+
+        Partition(TagSet tags, DiskSpool spool, List<Object> batch) {
+            this.tags = tags;
+            this.spool = spool;
+            this.batch = batch;
+        }
+
+        boolean hasPending() {
+            return spool != null ? spool.pendingBytes() > 0 : !batch.isEmpty();
+        }
+    }
+
+    /**
+     * A flush or close, waiting for the drain that handles it
+     */
+    static final class FlushRequest {
+        /** {@link System#nanoTime()} by which the caller stops waiting */
+        final long deadline;
+        final boolean close;
+        /** Drain that handles this request, set by the sender */
+        volatile Drain drain;
+
+        FlushRequest(long deadline, boolean close) {
+            this.deadline = deadline;
+            this.close = close;
+        }
+    }
+
+    /**
+     * Progress of a drain, updated as its requests complete
+     */
+    private static final class Drain {
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        /** Number of events drained, or -1 until they are all collected */
+        volatile long total = -1;
+        /** Events of earlier asynchronous requests still in flight at the deadline */
+        volatile long unanswered;
+        volatile boolean done;
+
+        /**
+         * Gets the result of this drain so far
+         * @param pending number of events to report as abandoned if
+         *                the events are not collected yet
+         * @return the result
+         */
+        FlushResult result(long pending) {
+            long s = sent.get();
+            long f = failed.get();
+            long t = total;
+            return new FlushResult(s, f, t < 0 ? pending : Math.max(0, t - s - f) + unanswered);
+        }
+    }
+
+    /**
+     * Events collected by a drain, to be sent in one bulk request
+     */
+    private static final class Drained {
+        final TagSet tags;
+        final BulkRequestBody body;
+        /** Spool of the events, to be acknowledged once sent, or {@code null} if in memory */
+        final DiskSpool spool;
+        final DiskSpool.Batch batch;
+        /** Partition of spooled events, or {@code null} for an overflow spool */
+        final Partition partition;
+
+        Drained(TagSet tags, BulkRequestBody body, DiskSpool spool, DiskSpool.Batch batch, Partition partition) {
+            this.tags = tags;
+            this.body = body;
+            this.spool = spool;
+            this.batch = batch;
+            this.partition = partition;
+        }
+    }
+
+    /**
+     * Creates a dispatcher with unlimited requests and starts its sender thread
+     * @param client client used to post each batch
+     * @param options batching thresholds
+     */
+    BulkDispatcher(LogglyClient client, BatchOptions options) {
+        this(client, options, null, null, null, "loggly-sender");
+    }
+
+    /**
+     * Creates a dispatcher and starts its sender loop on a dedicated
+     * thread or an executor
+     * @param client client used to post each batch
+     * @param options batching thresholds
+     * @param executor executor of the sender loop, which occupies one of
+     *                 its threads for the life of the client, or
+     *                 {@code null} to start a dedicated daemon thread
+     * @param slots in-flight slots of the batches' requests, or
+     *              {@code null} if unlimited
+     * @param limit controller of the batch size and concurrency, or
+     *              {@code null} for fixed batches sent one at a time
+     * @param threadName name of the dedicated sender thread
+     */
+    BulkDispatcher(LogglyClient client, BatchOptions options, Executor executor, Semaphore slots,
+                   AdaptiveLimit limit, String threadName) {
+        this(client, options, executor, null, 0, slots, limit, threadName);
+    }
+
+    /**
+     * Creates a dispatcher and starts its sender loop
+     * @param client client used to post each batch
+     * @param options batching thresholds
+     * @param executor executor of the sender loop, which occupies one of
+     *                 its threads for the life of the client, or
+     *                 {@code null} to start a dedicated daemon thread
+     * @param scheduler scheduler that runs the sender loop in turns, or
+     *                  {@code null} to run it on the executor or thread
+     * @param window max asynchronous requests in flight on the scheduler,
+     *               unless the limit is adaptive
+     * @param slots in-flight slots of the batches' requests, or
+     *              {@code null} if unlimited
+     * @param limit controller of the batch size and concurrency, or
+     *              {@code null} for fixed batches
+     * @param threadName name of the dedicated sender thread
+     */
+    BulkDispatcher(LogglyClient client, BatchOptions options, Executor executor, ScheduledExecutorService scheduler,
+                   int window, Semaphore slots, AdaptiveLimit limit, String threadName) {
+        this.client = client;
+        this.metrics = client.getMetrics();
+        this.slots = slots;
+        this.limit = limit;
+        this.scheduler = scheduler;
+        this.window = window;
+        if (scheduler != null && limit == null && window <= 0) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        if (scheduler != null && options.getSpoolDirectory() != null) {
+            throw new IllegalArgumentException("a shared sender cannot spool to disk");
+        }
+        this.queue = new MpscRingBuffer<Object>(options.getCapacity());
+        this.maxEvents = options.getMaxEvents();
+        this.maxBytes = options.getMaxBytes();
+        this.maxLingerNanos = TimeUnit.MILLISECONDS.toNanos(options.getMaxLingerMillis());
+        this.batchCapacity = Math.min(maxEvents, options.getCapacity());
+        this.spoolDirectory = options.getSpoolDirectory();
+        this.spoolSegmentBytes = options.getSpoolSegmentBytes();
+        this.repeats = options.getRepeatWindowMillis() > 0
+                ? new RepeatFilter(options.getRepeatWindowMillis(), options.getMaxRepeatEntries(),
+                        options.isNormalizeRepeats(), new RepeatFilter.Sink() {
+                            @Override
+                            public void emit(LogglyEvent summary, TagSet tags) {
+                                if (offer(summary, tags, Priority.NORMAL)) {
+                                    metrics.eventsEnqueued.increment();
+                                }
+                            }
+                        })
+                : null;
+        this.overflowPolicy = options.getOverflowPolicy();
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getBlockTimeoutMillis());
+        this.lowPriorityLimit = queue.capacity() / 2;
+        this.normalPriorityLimit = queue.capacity() - queue.capacity() / 10;
+        if (overflowPolicy == OverflowPolicy.SPILL_TO_DISK && spoolDirectory == null) {
+            throw new IllegalArgumentException("SPILL_TO_DISK requires a spool directory");
+        }
+        this.spillDirectory = spoolDirectory != null ? new File(spoolDirectory, SPILL_DIR) : null;
+
+        // events recovered from the spool are sent right away
+        this.nextDeadline = System.nanoTime();
+        partition(null);
+        if (spoolDirectory != null) {
+            recoverPartitions();
+            recoverSpills();
+        }
+
+        if (scheduler != null) {
+            wake();
+        } else if (executor != null) {
+            executor.execute(this);
+        } else {
+            Thread t = new Thread(this, threadName);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Adds an event to the buffer without locking, applying the
+     * overflow policy if the buffer is full. Safe to call from any
+     * thread; the sender thread itself never blocks.
+     * @param message {@code String} or {@link LogglyEvent} to be sent
+     * @param tags tags of the event, or {@code null} for the client's tags
+     * @param priority priority of the event, or {@code null} for normal
+     * @return {@code true} if the event was buffered or spilled;
+     * {@code false} if it was dropped
+     */
+    boolean offer(Object message, TagSet tags, Priority priority) {
+        boolean ok;
+        switch (overflowPolicy) {
+            case BLOCK:
+                ok = offerOrBlock(message, tags);
+                break;
+            case DROP_OLDEST:
+                ok = offerOrEvict(message, tags);
+                break;
+            case SPILL_TO_DISK:
+                ok = queue.offer(message, tags) || spill(message, tags);
+                break;
+            case DROP_BY_PRIORITY:
+                ok = offerByPriority(message, tags, priority);
+                break;
+            default:
+                ok = queue.offer(message, tags);
+                break;
+        }
+        if (!ok) {
+            metrics.recordDropped(overflowPolicy, 1);
+            return false;
+        }
+        // a timer already brings the next turn, unless a batch is full
+        if (scheduler == null || idle || (queue.size() >= batchCapacity && !windowFull())) {
+            wake();
+        }
+        return true;
+    }
+
+    /**
+     * Wakes the sender loop: unparks its thread if it is parked, or
+     * schedules a turn on the shared scheduler if none is running
+     */
+    private void wake() {
+        if (scheduler == null) {
+            if (parked) {
+                parked = false;
+                LockSupport.unpark(thread);
+            }
+            return;
+        }
+        if (!running.get() && running.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the scheduler was shut down
+                running.set(false);
+            }
+        }
+    }
+
+    /**
+     * Ends a turn of the sender loop on the shared scheduler, unless
+     * more work arrived meanwhile
+     * @param waitNanos time until the next turn is due, or -1 to wait
+     *                  until an event, a flush or a response wakes the loop
+     * @return {@code true} if the turn ended; {@code false} if it goes on
+     */
+    private boolean endTurn(long waitNanos) {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+        if (waitNanos >= 0) {
+            try {
+                timer = scheduler.schedule(wakeTask, waitNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // the scheduler was shut down
+            }
+        }
+        idle = pendingEvents == 0 && draining.get() == null && !windowFull();
+        turnThread = null;
+        running.set(false);
+
+        // Re-check the buffer after ending the turn so that a producer
+        // either sees the turn running or we see its event.
+        if (draining.get() != null || (flushRequests.isEmpty() && (queue.isEmpty() || windowFull()))) {
+            return true;
+        }
+        if (!running.compareAndSet(false, true)) {
+            return true;
+        }
+        turnThread = Thread.currentThread();
+        return false;
+    }
+
+    /**
+     * Adds an event to the buffer, waiting up to the block timeout
+     * for room if the buffer is full
+     * @param message event to be buffered
+     * @param tags tags of the event, or {@code null} for the client's tags
+     * @return {@code true} if the event was buffered; {@code false}
+     * if the time ran out or the thread was interrupted
+     */
+    private boolean offerOrBlock(Object message, TagSet tags) {
+        if (queue.offer(message, tags)) {
+            return true;
+        }
+        // the sender (or the turn on a shared scheduler) must not wait for itself
+        final Thread sender = scheduler == null ? thread : turnThread;
+        if (blockTimeoutNanos == 0 || Thread.currentThread() == sender) {
+            return false;
+        }
+
+        final long start = System.nanoTime();
+        long park = MIN_BLOCK_PARK_NANOS;
+        boolean ok = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            long remaining = start + blockTimeoutNanos - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+            LockSupport.parkNanos(this, Math.min(park, remaining));
+            park = Math.min(park * 2, MAX_BLOCK_PARK_NANOS);
+            if (queue.offer(message, tags)) {
+                ok = true;
+                break;
+            }
+        }
+        metrics.blockLatency.record(System.nanoTime() - start);
+        return ok;
+    }
+
+    /**
+     * Adds an event to the buffer, evicting the oldest buffered events
+     * until there is room
+     * @param message event to be buffered
+     * @param tags tags of the event, or {@code null} for the client's tags
+     * @return {@code true}
+     */
+    private boolean offerOrEvict(Object message, TagSet tags) {
+        while (!queue.offer(message, tags)) {
+            if (queue.evict() != null) {
+                metrics.recordDropped(overflowPolicy, 1);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds an event to the buffer unless the buffer is too full for
+     * the priority of the event. High-priority events evict the oldest
+     * buffered events if needed.
+     * @param message event to be buffered
+     * @param tags tags of the event, or {@code null} for the client's tags
+     * @param priority priority of the event, or {@code null} for normal
+     * @return {@code true} if the event was buffered; {@code false} otherwise
+     */
+    private boolean offerByPriority(Object message, TagSet tags, Priority priority) {
+        if (priority == Priority.HIGH) {
+            return offerOrEvict(message, tags);
+        }
+        int limit = priority == Priority.LOW ? lowPriorityLimit : normalPriorityLimit;
+        return queue.size() < limit && queue.offer(message, tags);
+    }
+
+    /**
+     * Appends an event to the overflow spool of its tag set
+     * @param message event to be spilled
+     * @param tags tags of the event, or {@code null} for the client's tags
+     * @return {@code true} if the event was spilled; {@code false} if
+     * it could not be written
+     */
+    private boolean spill(Object message, TagSet tags) {
+        synchronized (spills) {
+            try {
+                spillSpool(tags).append(message);
+            } catch (IOException e) {
+                // the event is then counted as dropped
+                metrics.spoolErrors.increment();
+                return false;
+            }
+            spilled = true;
+        }
+        metrics.eventsSpilled.increment();
+        metrics.bytesEnqueued.add(EventEncoder.encodedLength(message, BulkRequestBody.MAX_EVENT_BYTES) + 1);
+        return true;
+    }
+
+    /**
+     * Posts the oldest batch of the overflow spools, unless a failed
+     * batch is waiting to be retried. The spools are only locked while
+     * the batch is read and acknowledged, not while it is posted.
+     * @return {@code true} if a batch was sent; {@code false} if there
+     * was nothing to send or the batch failed
+     */
+    private boolean sendSpilled() {
+        if (!spilled || System.nanoTime() - nextSpillRetry < 0) {
+            return false;
+        }
+
+        TagSet tags = null;
+        DiskSpool spool = null;
+        DiskSpool.Batch batch = null;
+        synchronized (spills) {
+            for (Map.Entry<TagSet, DiskSpool> e : spills.entrySet()) {
+                batch = e.getValue().peek(maxEvents, maxBytes);
+                if (batch != null) {
+                    tags = e.getKey();
+                    spool = e.getValue();
+                    break;
+                }
+            }
+            if (batch == null) {
+                spilled = false;
+                closeSpills();
+                return false;
+            }
+        }
+
+        if (client.logBulk(batch.events(), batch.count(), tags, slots)) {
+            synchronized (spills) {
+                spool.commit(batch);
+            }
+            return true;
+        }
+        nextSpillRetry = System.nanoTime() + maxLingerNanos;
+        return false;
+    }
+
+    /**
+     * Closes the empty overflow spools of explicit tag sets, which are
+     * opened again by the next event that spills. The caller must hold
+     * the lock of {@link #spills}.
+     */
+    private void closeSpills() {
+        for (Iterator<Map.Entry<TagSet, DiskSpool>> it = spills.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<TagSet, DiskSpool> e = it.next();
+            if (e.getKey() != null && e.getValue().pendingBytes() == 0) {
+                it.remove();
+                e.getValue().destroy();
+            }
+        }
+    }
+
+    /**
+     * Determines whether a message repeats one logged recently, in
+     * which case it is only counted, to be summarized later.
+     * Safe to call from any thread.
+     * @param message message to be logged
+     * @param tags tags of the message, or {@code null} for the client's tags
+     * @return {@code true} if the message is suppressed; {@code false}
+     * if it should be logged
+     */
+    boolean isRepeat(String message, TagSet tags) {
+        if (repeats == null || !repeats.isRepeat(message, tags)) {
+            return false;
+        }
+        metrics.eventsSuppressed.increment();
+        return true;
+    }
+
+    /**
+     * Gets the number of events waiting to be sent. This is only
+     * approximate when called from another thread than the sender.
+     * @return the number of buffered and pending events
+     */
+    int depth() {
+        return queue.size() + pendingEvents;
+    }
+
+    /**
+     * Gets the fill level of the buffer
+     * @return the fraction of the buffer in use (0.0 to 1.0)
+     */
+    double fill() {
+        return queue.size() / (double) queue.capacity();
+    }
+
+    /**
+     * Runs the sender loop, which drains the buffer into batches
+     */
+    @Override
+    public void run() {
+        if (scheduler == null) {
+            thread = Thread.currentThread();
+        } else {
+            turnThread = Thread.currentThread();
+        }
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+            if (scheduler != null && (draining.get() != null || (windowFull() && flushRequests.isEmpty()))) {
+                // a response starts the next turn
+                if (endTurn(-1)) return;
+                continue;
+            }
+            Object message = queue.poll();
+            if (message == null) {
+                if (!flushRequests.isEmpty()) {
+                    flushAll();
+                    continue;
+                }
+                if (spilled && sendSpilled()) {
+                    continue;
+                }
+                long wait = flushDue();
+                if (wait <= 0) {
+                    continue;
+                }
+                if (scheduler != null) {
+                    // an idle loop waits for its next event without a timer
+                    if (endTurn(pendingEvents == 0 && repeats == null ? -1 : wait)) return;
+                    continue;
+                }
+
+                // Announce the park before re-checking the buffer so that
+                // a producer either sees the flag or we see its event.
+                parked = true;
+                if (queue.isEmpty() && flushRequests.isEmpty()) {
+                    LockSupport.parkNanos(this, wait);
+                }
+                parked = false;
+                continue;
+            }
+
+            accept(message, (TagSet) queue.polledTag());
+            if (partitions.size() > 1 && System.nanoTime() - nextDeadline >= 0) {
+                // a busy partition must not hold back the linger of the others
+                flushDue();
+            } else if (repeats != null) {
+                expireRepeats();
+            }
+        }
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        for (Partition p : partitions.values()) {
+            if (!stopped) {
+                flush(p);
+            }
+            if (p.spool != null) {
+                p.spool.force();
+            }
+        }
+        synchronized (spills) {
+            for (DiskSpool spool : spills.values()) {
+                spool.force();
+            }
+        }
+    }
+
+    /**
+     * Adds a polled event to the batch of its partition, flushing the
+     * batch when it is full
+     * @param message event to be added
+     * @param tags tags of the event, or {@code null} for the client's tags
+     */
+    private void accept(Object message, TagSet tags) {
+        Partition p = partition(tags);
+        int size = EventEncoder.encodedLength(message, BulkRequestBody.MAX_EVENT_BYTES) + 1;
+        metrics.bytesEnqueued.add(size);
+        final int batchBytes = batchBytes();
+        // a batch is already full if the window held back its request
+        if (!p.retrying && p.pendingEvents > 0
+                && (p.pendingBytes + size > batchBytes || p.pendingEvents >= maxEvents)) {
+            flush(p);
+        }
+        if (!p.hasPending()) {
+            p.deadline = System.nanoTime() + maxLingerNanos;
+            if (p.deadline - nextDeadline < 0) {
+                nextDeadline = p.deadline;
+            }
+        }
+        add(p, message, size);
+
+        if (!p.retrying && (p.pendingEvents >= maxEvents || p.pendingBytes >= batchBytes)) {
+            flush(p);
+        }
+    }
+
+    /**
+     * Handles the pending flush requests: ends all repeat windows, then
+     * sends everything that was buffered, spooled or spilled in parallel
+     * requests, and finally wakes the threads waiting in {@link #flush(long)}
+     * and {@link #close(long)}. A close sets a deadline for the requests.
+     */
+    private void flushAll() {
+        final Drain drain = new Drain();
+        long deadline = LogglyClient.NO_DEADLINE;
+        FlushRequest request;
+        while ((request = flushRequests.poll()) != null) {
+            request.drain = drain;
+            if (request.close) {
+                deadline = request.deadline;
+                stopped = true;
+            }
+        }
+        if (scheduler != null) {
+            drainAsync(drain);
+            return;
+        }
+        if (limit != null) {
+            drain.unanswered = awaitOutstanding(deadline);
+        }
+
+        if (repeats != null) {
+            repeats.endAll();
+        }
+        drained = new ArrayList<Drained>();
+        Object message;
+        while ((message = queue.poll()) != null) {
+            accept(message, (TagSet) queue.polledTag());
+        }
+        for (Partition p : partitions.values()) {
+            if (p.spool == null) {
+                drainBatch(p);
+                continue;
+            }
+            for (DiskSpool.Batch b = p.spool.peek(maxEvents, maxBytes); b != null;
+                 b = p.spool.peekAfter(b, maxEvents, maxBytes)) {
+                drained.add(new Drained(p.tags, client.bulkBody(b.events(), b.count()), p.spool, b, p));
+            }
+        }
+        synchronized (spills) {
+            for (Map.Entry<TagSet, DiskSpool> e : spills.entrySet()) {
+                DiskSpool spool = e.getValue();
+                for (DiskSpool.Batch b = spool.peek(maxEvents, maxBytes); b != null;
+                     b = spool.peekAfter(b, maxEvents, maxBytes)) {
+                    drained.add(new Drained(e.getKey(), client.bulkBody(b.events(), b.count()), spool, b, null));
+                }
+            }
+        }
+        final List<Drained> requests = drained;
+        drained = null;
+
+        send(requests, deadline, drain);
+        synchronized (flushLock) {
+            drain.done = true;
+            flushLock.notifyAll();
+        }
+    }
+
+    /**
+     * Handles the flush requests on a shared scheduler without blocking:
+     * ends all repeat windows, posts every batch at once, whatever the
+     * window, and lets the last response end the drain. New events wait
+     * in the buffer until then.
+     * @param drain progress of the drain
+     */
+    private void drainAsync(Drain drain) {
+        if (repeats != null) {
+            repeats.endAll();
+        }
+        collecting = drain;
+        collectedEvents = 0;
+        try {
+            Object message;
+            while ((message = queue.poll()) != null) {
+                accept(message, (TagSet) queue.polledTag());
+            }
+            for (Partition p : partitions.values()) {
+                if (!p.batch.isEmpty()) {
+                    sendAsync(p);
+                }
+            }
+        } finally {
+            collecting = null;
+        }
+        drain.total = collectedEvents;
+        draining.set(drain);
+        if (outstanding.get() == 0) {
+            endDrain(drain);
+        }
+    }
+
+    /**
+     * Wakes the threads waiting for a drain on a shared scheduler
+     * @param drain drain whose requests are done
+     */
+    private void endDrain(Drain drain) {
+        if (!draining.compareAndSet(drain, null)) {
+            return;
+        }
+        synchronized (flushLock) {
+            drain.done = true;
+            flushLock.notifyAll();
+        }
+        wake();
+    }
+
+    /**
+     * Sends the requests of a drain in parallel, and acknowledges the
+     * spooled batches that were sent. The batches of a spool are
+     * acknowledged in order, up to the first one that was not sent.
+     * @param requests requests of the drain
+     * @param deadline {@link System#nanoTime()} by which to give up,
+     *                 or {@link LogglyClient#NO_DEADLINE}
+     * @param drain progress of the drain
+     */
+    private void send(List<Drained> requests, long deadline, Drain drain) {
+        final int n = requests.size();
+        final List<BulkRequestBody> bodies = new ArrayList<BulkRequestBody>(n);
+        final List<TagSet> tagSets = new ArrayList<TagSet>(n);
+        long total = 0;
+        for (Drained d : requests) {
+            bodies.add(d.body);
+            tagSets.add(d.tags);
+            total += d.body.eventCount();
+        }
+        drain.total = total;
+
+        int[] outcomes;
+        try {
+            outcomes = n > 0 ? client.sendAll(bodies, tagSets, deadline, drain.sent, drain.failed, slots) : new int[0];
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            outcomes = new int[n];
+        }
+
+        final Set<DiskSpool> unsent = new HashSet<DiskSpool>();
+        for (int i = 0; i < n; i++) {
+            Drained d = requests.get(i);
+            if (d.spool == null || unsent.contains(d.spool)) {
+                continue;
+            }
+            if (outcomes[i] != LogglyClient.SENT) {
+                unsent.add(d.spool);
+                if (d.partition != null) {
+                    d.partition.retrying = true;
+                    d.partition.deadline = System.nanoTime() + maxLingerNanos;
+                } else {
+                    nextSpillRetry = System.nanoTime() + maxLingerNanos;
+                }
+            } else if (d.partition != null) {
+                d.spool.commit(d.batch);
+                sent(d.partition, d.batch);
+            } else {
+                synchronized (spills) {
+                    d.spool.commit(d.batch);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends all buffered events without waiting for their batches to
+     * fill or linger, and waits until they are sent (or failed).
+     * Events still pending when the time runs out are sent later.
+     * Safe to call from any thread but the sender.
+     * @param timeoutMillis max time to wait in milliseconds
+     * @return the events sent, failed, and still pending
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    FlushResult flush(long timeoutMillis) throws InterruptedException {
+        return drain(timeoutMillis, false);
+    }
+
+    /**
+     * Sends all buffered events until a deadline, then stops the sender
+     * loop. Events in memory that were not sent by the deadline are
+     * discarded; those in a spool stay there. The caller must stop
+     * offering events first. Safe to call from any thread but the sender.
+     * @param timeoutMillis max time in milliseconds to send the events
+     * @return the events sent, failed, and abandoned
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    FlushResult close(long timeoutMillis) throws InterruptedException {
+        return drain(timeoutMillis, true);
+    }
+
+    /**
+     * Asks the sender to drain the buffer, and waits for the result
+     * @param timeoutMillis max time to wait in milliseconds
+     * @param close whether to stop the sender loop afterwards
+     * @return the result of the drain, as of when it ended or the time ran out
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    private FlushResult drain(long timeoutMillis, boolean close) throws InterruptedException {
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        return awaitDrain(requestDrain(end, close));
+    }
+
+    /**
+     * Asks the sender to drain the buffer, without waiting, so that
+     * several dispatchers can drain in parallel
+     * @param deadline {@link System#nanoTime()} by which to give up
+     * @param close whether to stop the sender loop afterwards
+     * @return the request, to be passed to {@link #awaitDrain(FlushRequest)}
+     */
+    FlushRequest requestDrain(long deadline, boolean close) {
+        final FlushRequest request = new FlushRequest(deadline, close);
+        flushRequests.add(request);
+        if (scheduler != null) {
+            wake();
+        } else {
+            final Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Waits for a drain of this dispatcher until its deadline
+     * @param request request of the drain
+     * @return the result of the drain, as of when it ended or the time ran out
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    FlushResult awaitDrain(FlushRequest request) throws InterruptedException {
+        final long end = request.deadline;
+        synchronized (flushLock) {
+            while (request.drain == null || !request.drain.done) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (remaining <= 0) {
+                    break;
+                }
+                flushLock.wait(remaining);
+            }
+        }
+        final Drain drain = request.drain;
+        if (scheduler != null && drain != null && !drain.done && drain.total >= 0) {
+            // events of the other requests in flight at the deadline
+            long ownEvents = drain.total - drain.sent.get() - drain.failed.get();
+            drain.unanswered = Math.max(0, outstandingEvents.get() - ownEvents);
+        }
+        return drain != null ? drain.result(depth()) : new FlushResult(0, 0, depth());
+    }
+
+    /**
+     * Flushes the partitions whose linger time has passed
+     * @return the time in nanoseconds until the next deadline (at
+     * most {@link #IDLE_PARK_NANOS}), or 0 if a partition is due again
+     */
+    private long flushDue() {
+        if (repeats != null) {
+            expireRepeats();
+        }
+        long now = System.nanoTime();
+        long next = now + IDLE_PARK_NANOS;
+        for (Iterator<Partition> it = partitions.values().iterator(); it.hasNext(); ) {
+            Partition p = it.next();
+            if (!p.hasPending()) {
+                if (isIdle(p, now)) {
+                    it.remove();
+                    if (p.spool != null) {
+                        p.spool.destroy();
+                    }
+                }
+                continue;
+            }
+            if (p.deadline - now <= 0) {
+                flush(p);
+                if (!p.hasPending()) {
+                    continue;
+                }
+            }
+            if (p.deadline - next < 0) {
+                next = p.deadline;
+            }
+        }
+        nextDeadline = next;
+        return Math.max(0, next - System.nanoTime());
+    }
+
+    /**
+     * Determines whether an empty partition can be closed, which keeps
+     * short-lived tag sets from piling up. The partition of the client's
+     * tags is always kept.
+     * @param p partition without pending events
+     * @param now current {@link System#nanoTime()}
+     * @return {@code true} if the partition is idle; {@code false} otherwise
+     */
+    private boolean isIdle(Partition p, long now) {
+        return p.tags != null && !p.retrying && now - p.lastAdded - PARTITION_IDLE_NANOS >= 0;
+    }
+
+    /**
+     * Buffers the summaries of the repeat windows that ended, at most
+     * once per {@link #IDLE_PARK_NANOS}
+     */
+    private void expireRepeats() {
+        long now = System.nanoTime();
+        if (now - nextRepeatSweep >= 0) {
+            nextRepeatSweep = now + IDLE_PARK_NANOS;
+            repeats.expire();
+        }
+    }
+
+    /**
+     * Gets the partition of a tag set, creating it if needed
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return the partition
+     */
+    private Partition partition(TagSet tags) {
+        Partition p = partitions.get(tags);
+        if (p == null) {
+            p = spoolDirectory != null
+                    ? new Partition(tags, openSpool(spoolDirectoryOf(spoolDirectory, tags)), null)
+                    : new Partition(tags, null, new ArrayList<Object>(batchCapacity));
+            p.deadline = nextDeadline;
+            p.lastAdded = System.nanoTime();
+            partitions.put(tags, p);
+        }
+        return p;
+    }
+
+    /**
+     * Opens the spools left in tag subdirectories by a previous instance
+     */
+    private void recoverPartitions() {
+        for (TagSet tags : spooledTags(spoolDirectory)) {
+            partition(tags);
+        }
+    }
+
+    /**
+     * Opens the overflow spools left by a previous instance, whose
+     * events are sent once the buffer is empty
+     */
+    private void recoverSpills() {
+        if (!spillDirectory.isDirectory()) {
+            return;
+        }
+        synchronized (spills) {
+            try {
+                spillSpool(null);
+                for (TagSet tags : spooledTags(spillDirectory)) {
+                    spillSpool(tags);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException("cannot open spool: " + spillDirectory, e);
+            }
+            for (DiskSpool spool : spills.values()) {
+                if (spool.pendingBytes() > 0) {
+                    spilled = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the overflow spool of a tag set, opening it if needed.
+     * The caller must hold the lock of {@link #spills}.
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return the spool
+     * @throws IOException the spool could not be opened
+     */
+    private DiskSpool spillSpool(TagSet tags) throws IOException {
+        DiskSpool spool = spills.get(tags);
+        if (spool == null) {
+            spool = new DiskSpool(spoolDirectoryOf(spillDirectory, tags), spoolSegmentBytes, metrics.spoolErrors);
+            spills.put(tags, spool);
+        }
+        return spool;
+    }
+
+    /**
+     * Gets the tag sets of the spools in the tag subdirectories of a directory
+     * @param dir directory of the spools
+     * @return the tag sets
+     */
+    private static List<TagSet> spooledTags(File dir) {
+        List<TagSet> tagSets = new ArrayList<TagSet>();
+        File[] dirs = dir.listFiles();
+        if (dirs == null) {
+            return tagSets;
+        }
+        for (File d : dirs) {
+            String name = d.getName();
+            if (d.isDirectory() && name.startsWith(TAGS_DIR_PREFIX)) {
+                try {
+                    tagSets.add(TagSet.of(name.substring(TAGS_DIR_PREFIX.length()).replace('+', ',')));
+                } catch (IllegalArgumentException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return tagSets;
+    }
+
+    /**
+     * Gets the spool directory of a tag set. Commas are replaced with
+     * '+', which is not allowed in tags.
+     * @param dir directory of the spools
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return the directory
+     */
+    private static File spoolDirectoryOf(File dir, TagSet tags) {
+        return tags == null
+                ? dir
+                : new File(dir, TAGS_DIR_PREFIX + tags.toString().replace(',', '+'));
+    }
+
+    private DiskSpool openSpool(File dir) {
+        try {
+            return new DiskSpool(dir, spoolSegmentBytes, metrics.spoolErrors);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot open spool: " + dir, e);
+        }
+    }
+
+    /**
+     * Adds an event to the pending batch of a partition
+     * @param p partition of the event
+     * @param message event to be added
+     * @param size encoded size of the event
+     */
+    private void add(Partition p, Object message, int size) {
+        p.lastAdded = System.nanoTime();
+        if (p.spool != null) {
+            try {
+                p.spool.append(message);
+            } catch (IOException e) {
+                metrics.spoolErrors.increment();
+                metrics.eventsFailed.increment();
+                return;
+            }
+        } else {
+            p.batch.add(message);
+        }
+        p.pendingEvents++;
+        p.pendingBytes += size;
+        pendingEvents++;
+    }
+
+    /**
+     * Posts the pending batch of a partition to Loggly
+     * @param p partition to be flushed
+     */
+    private void flush(Partition p) {
+        if (drained != null) {
+            // the drain collects the spools once the buffer is empty
+            if (p.spool == null) {
+                drainBatch(p);
+            }
+            return;
+        }
+        p.retrying = false;
+        if (p.spool == null) {
+            if (p.batch.isEmpty()) return;
+            if (scheduler != null && collecting == null && windowFull()) {
+                // sent once a response frees the window
+                return;
+            }
+            if (limit != null || scheduler != null) {
+                sendAsync(p);
+                return;
+            }
+            try {
+                client.postBulk(p.batch, p.tags, slots);
+            } finally {
+                p.batch.clear();
+                pendingEvents -= p.pendingEvents;
+                p.pendingEvents = 0;
+                p.pendingBytes = 0;
+            }
+            return;
+        }
+
+        DiskSpool.Batch spooled = p.spool.peek(maxEvents, batchBytes());
+        if (spooled == null) {
+            pendingEvents -= p.pendingEvents;
+            p.pendingEvents = 0;
+            p.pendingBytes = 0;
+            return;
+        }
+        final long start = System.nanoTime();
+        final boolean ok = client.logBulk(spooled.events(), spooled.count(), p.tags, slots);
+        if (limit != null) {
+            limit.onResponse(System.nanoTime() - start, ok);
+        }
+        if (ok) {
+            p.spool.commit(spooled);
+            sent(p, spooled);
+
+            // keep draining any backlog without waiting for new events
+            p.deadline = System.nanoTime();
+        } else {
+            p.retrying = true;
+            p.deadline = System.nanoTime() + maxLingerNanos;
+        }
+    }
+
+    /**
+     * Updates the pending counts of a partition after a spooled batch was sent
+     * @param p partition of the batch
+     * @param batch batch that was acknowledged
+     */
+    private void sent(Partition p, DiskSpool.Batch batch) {
+        int sent = Math.min(p.pendingEvents, batch.count());
+        pendingEvents -= sent;
+        p.pendingEvents -= sent;
+        p.pendingBytes = Math.max(0, p.pendingBytes - batch.events().remaining());
+    }
+
+    /**
+     * Moves the batch of an in-memory partition to the requests of the drain
+     * @param p partition to be drained
+     */
+    private void drainBatch(Partition p) {
+        if (p.batch.isEmpty()) {
+            return;
+        }
+        // the bodies stream from the events, so they get their own list
+        List<Object> events = new ArrayList<Object>(p.batch);
+        for (BulkRequestBody body : client.bulkBodies(events)) {
+            drained.add(new Drained(p.tags, body, null, null, null));
+        }
+        p.batch.clear();
+        pendingEvents -= p.pendingEvents;
+        p.pendingEvents = 0;
+        p.pendingBytes = 0;
+    }
+
+    /**
+     * Posts the batch of an in-memory partition without waiting for its
+     * response, once the window allows another request in flight. The
+     * sender loop on a shared scheduler checks the window itself, and
+     * posts without a slot, so that it never blocks.
+     * @param p partition to be flushed
+     */
+    private void sendAsync(Partition p) {
+        if (scheduler == null) {
+            awaitWindow();
+        }
+        // the bodies stream from the events, so they get their own list
+        final List<Object> events = new ArrayList<Object>(p.batch);
+        p.batch.clear();
+        pendingEvents -= p.pendingEvents;
+        p.pendingEvents = 0;
+        p.pendingBytes = 0;
+
+        final Drain drain = collecting;
+        if (drain != null) {
+            collectedEvents += events.size();
+        }
+        outstanding.incrementAndGet();
+        outstandingEvents.addAndGet(events.size());
+        final long start = System.nanoTime();
+        client.postBulkAsync(events, p.tags, scheduler != null ? null : slots, new ILogglyClient.Callback() {
+            @Override
+            public void success() {
+                completed(true);
+            }
+
+            @Override
+            public void failure(String error) {
+                completed(false);
+            }
+
+            private void completed(boolean ok) {
+                if (limit != null) {
+                    limit.onResponse(System.nanoTime() - start, ok);
+                }
+                if (drain != null) {
+                    (ok ? drain.sent : drain.failed).addAndGet(events.size());
+                }
+                outstandingEvents.addAndGet(-events.size());
+                final boolean idle = outstanding.decrementAndGet() == 0;
+                if (scheduler == null) {
+                    // the sender may be waiting for the window
+                    LockSupport.unpark(thread);
+                    return;
+                }
+                final Drain waiting = draining.get();
+                if (idle && waiting != null) {
+                    endDrain(waiting);
+                } else {
+                    wake();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits until fewer asynchronous requests are in flight than the
+     * window allows
+     */
+    private void awaitWindow() {
+        while (windowFull() && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Determines whether as many asynchronous requests are in flight
+     * as the window allows
+     * @return {@code true} if no other request can be sent yet
+     */
+    private boolean windowFull() {
+        return outstanding.get() >= (limit != null ? limit.getConcurrency() : window);
+    }
+
+    /**
+     * Waits for the asynchronous requests in flight to complete
+     * @param deadline {@link System#nanoTime()} by which to give up,
+     *                 or {@link LogglyClient#NO_DEADLINE}
+     * @return the number of events of the requests still in flight
+     */
+    private long awaitOutstanding(long deadline) {
+        while (outstanding.get() > 0 && !Thread.currentThread().isInterrupted()) {
+            long wait = IDLE_PARK_NANOS;
+            if (deadline != LogglyClient.NO_DEADLINE) {
+                wait = Math.min(wait, deadline - System.nanoTime());
+                if (wait <= 0) {
+                    break;
+                }
+            }
+            LockSupport.parkNanos(this, wait);
+        }
+        return outstandingEvents.get();
+    }
+
+    /**
+     * Gets the encoded size at which a batch is sent
+     * @return the adaptive batch size, or the max batch size if fixed
+     */
+    private int batchBytes() {
+        return limit != null ? limit.getBatchBytes() : maxBytes;
+    }
+
+    /**
+     * Gets the controller of the batch size and concurrency
+     * @return the controller, or {@code null} for fixed batches
+     */
+    AdaptiveLimit adaptiveLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Request body for Loggly's bulk endpoint that streams its events
+ * straight into the HTTP stream while the request is being sent,
+ * instead of building the whole parcel in memory first. Each event
+ * is terminated by a new-line.
+ * <p>
+ * Loggly rejects bulk requests over {@value #MAX_BULK_BYTES} bytes and
+ * events over {@value #MAX_EVENT_BYTES} bytes, so {@link #split} sizes
+ * the bodies of a large collection to fit, truncating oversized events.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+class BulkRequestBody {
+    private static final String GZIP = "gzip";
+
+    /** Max size (in bytes) of a bulk request accepted by Loggly */
+    static final int MAX_BULK_BYTES = 5 * 1024 * 1024;
+
+    /** Max size (in bytes) of a single event accepted by Loggly */
+    static final int MAX_EVENT_BYTES = 1024 * 1024;
+
+    private final Collection<?> messages;
+    private final ByteBuffer encoded;
+    private final long encodedLength;
+    private final int eventCount;
+    private final int maxEventBytes;
+    private final int compressionLevel;
+
+    /**
+     * Creates a bulk request body. The messages are not copied, so
+     * the collection must not change until the request is complete.
+     * @param messages events to be sent, each a {@code String} or a
+     *                 {@link LogglyEvent} (null or empty ones are skipped)
+     * @param level gzip compression level (1-9), or
+     *              {@link Deflater#NO_COMPRESSION} for none
+     * @param minCompressedBytes minimum encoded size (in bytes) of the
+     *                           body for compression to be applied
+     */
+    BulkRequestBody(Collection<?> messages, int level, int minCompressedBytes) {
+        this(messages, encodedLength(messages, MAX_EVENT_BYTES), countEvents(messages), MAX_EVENT_BYTES,
+                level, minCompressedBytes);
+    }
+
+    /**
+     * Creates a bulk request body from events that are already encoded
+     * @param encoded encoded events, each terminated by a new-line
+     * @param eventCount number of events
+     * @param level gzip compression level (1-9), or
+     *              {@link Deflater#NO_COMPRESSION} for none
+     * @param minCompressedBytes minimum size (in bytes) of the body for
+     *                           compression to be applied
+     */
+    BulkRequestBody(ByteBuffer encoded, int eventCount, int level, int minCompressedBytes) {
+        this.messages = null;
+        this.encoded = encoded;
+        this.encodedLength = encoded.remaining();
+        this.eventCount = eventCount;
+        this.maxEventBytes = MAX_EVENT_BYTES;
+        this.compressionLevel = encodedLength >= minCompressedBytes ? level : Deflater.NO_COMPRESSION;
+    }
+
+    private BulkRequestBody(Collection<?> messages, long encodedLength, int eventCount, int maxEventBytes,
+                            int level, int minCompressedBytes) {
+        this.messages = messages;
+        this.encoded = null;
+        this.encodedLength = encodedLength;
+        this.eventCount = eventCount;
+        this.maxEventBytes = maxEventBytes;
+        this.compressionLevel = encodedLength >= minCompressedBytes ? level : Deflater.NO_COMPRESSION;
+    }
+
+    /**
+     * Splits messages into bodies that each fit in a single bulk request
+     * accepted by Loggly
+     * @param messages events to be sent, each a {@code String} or a
+     *                 {@link LogglyEvent} (null or empty ones are skipped)
+     * @param level gzip compression level (1-9), or
+     *              {@link Deflater#NO_COMPRESSION} for none
+     * @param minCompressedBytes minimum encoded size (in bytes) of a
+     *                           body for compression to be applied
+     * @return the bodies, which is empty if there are no messages to send
+     */
+    static List<BulkRequestBody> split(Collection<?> messages, int level, int minCompressedBytes) {
+        return split(messages, MAX_BULK_BYTES, MAX_EVENT_BYTES, level, minCompressedBytes);
+    }
+
+    /**
+     * Splits messages into bodies of limited size. The bodies are views
+     * of the given collection, so it must not change until the requests
+     * are complete.
+     * @param messages events to be sent, each a {@code String} or a
+     *                 {@link LogglyEvent} (null or empty ones are skipped)
+     * @param maxBulkBytes max encoded size (in bytes) of each body
+     * @param maxEventBytes max encoded size (in bytes) of each event,
+     *                      beyond which the event is truncated
+     * @param level gzip compression level (1-9), or
+     *              {@link Deflater#NO_COMPRESSION} for none
+     * @param minCompressedBytes minimum encoded size (in bytes) of a
+     *                           body for compression to be applied
+     * @return the bodies, which is empty if there are no messages to send
+     */
+    @SuppressWarnings("unchecked")
+    static List<BulkRequestBody> split(Collection<?> messages, int maxBulkBytes, int maxEventBytes,
+                                       int level, int minCompressedBytes) {
+        final List<?> list = messages instanceof List
+                ? (List<?>) messages
+                : new ArrayList<Object>(messages);
+        final List<BulkRequestBody> bodies = new ArrayList<BulkRequestBody>(1);
+
+        int start = 0;
+        int index = 0;
+        int count = 0;
+        long length = 0;
+        for (Object event : list) {
+            if (!EventEncoder.isEmpty(event)) {
+                int size = EventEncoder.encodedLength(event, maxEventBytes) + 1;
+                if (length > 0 && length + size > maxBulkBytes) {
+                    bodies.add(new BulkRequestBody(list.subList(start, index), length, count, maxEventBytes,
+                            level, minCompressedBytes));
+                    start = index;
+                    count = 0;
+                    length = 0;
+                }
+                length += size;
+                count++;
+            }
+            index++;
+        }
+        if (length > 0) {
+            bodies.add(new BulkRequestBody(start == 0 ? list : list.subList(start, index), length, count,
+                    maxEventBytes, level, minCompressedBytes));
+        }
+        return bodies;
+    }
+
+    /**
+     * Counts the bytes needed to encode messages in a bulk request
+     * @param messages messages to be measured
+     * @param maxEventBytes max encoded size (in bytes) of each event
+     * @return the number of UTF-8 bytes of all events and delimiters
+     */
+    private static long encodedLength(Collection<?> messages, int maxEventBytes) {
+        long length = 0;
+        for (Object event : messages) {
+            if (!EventEncoder.isEmpty(event)) {
+                length += EventEncoder.encodedLength(event, maxEventBytes) + 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Counts the events in a bulk request
+     * @param messages messages to be counted
+     * @return the number of non-empty messages
+     */
+    static int countEvents(Collection<?> messages) {
+        int count = 0;
+        for (Object event : messages) {
+            if (!EventEncoder.isEmpty(event)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of events in the body
+     * @return the event count
+     */
+    int eventCount() {
+        return eventCount;
+    }
+
+    /**
+     * Gets the size of the uncompressed body
+     * @return the number of UTF-8 bytes of all events and delimiters
+     */
+    long encodedLength() {
+        return encodedLength;
+    }
+
+    /**
+     * Gets the value for the request's Content-Encoding header
+     * @return "gzip" if the body is compressed; {@code null} otherwise
+     */
+    String contentEncoding() {
+        return compressionLevel != Deflater.NO_COMPRESSION ? GZIP : null;
+    }
+
+    /**
+     * Gets the size of the body as sent
+     * @return the number of bytes, or -1 if unknown (compressed)
+     */
+    long contentLength() {
+        // compressed length is unknown until written, so use chunked encoding
+        return compressionLevel != Deflater.NO_COMPRESSION ? -1 : encodedLength;
+    }
+
+    /**
+     * Writes the body, compressed if needed. The body can be written
+     * again, such as when the request is retried.
+     * @param out destination of the body, which is left open
+     * @throws IOException the stream could not be written
+     */
+    void writeTo(OutputStream out) throws IOException {
+        if (compressionLevel == Deflater.NO_COMPRESSION) {
+            writeEvents(out);
+            return;
+        }
+
+        GzipStream gzip = new GzipStream(out, compressionLevel);
+        try {
+            writeEvents(gzip);
+            // finish (rather than close) the gzip stream to leave the
+            // HTTP stream open for the transport to complete the request
+            gzip.finish();
+        } finally {
+            gzip.end();
+        }
+    }
+
+    /**
+     * Encodes the events into a stream, which passes each full
+     * buffer on to the network
+     * @param out destination of the events
+     * @throws IOException the stream could not be written
+     */
+    private void writeEvents(OutputStream out) throws IOException {
+        EventEncoder encoder = new EventEncoder(out);
+        try {
+            if (encoded != null) {
+                // duplicate, so that the body can be written again on retry
+                encoder.write(encoded.duplicate());
+                return;
+            }
+            for (Object event : messages) {
+                encoder.writeEvent(event, maxEventBytes);
+            }
+        } finally {
+            encoder.close();
+        }
+    }
+
+    /**
+     * Gzip stream with a compression level, whose deflater can be ended
+     * without closing the underlying stream
+     */
+    private static final class GzipStream extends GZIPOutputStream {
+        GzipStream(OutputStream out, int level) throws IOException {
+            super(out, EventEncoder.BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+        /**
+         * Frees the native memory of the deflater, after which the
+         * stream cannot be written
+         */
+        void end() {
+            def.end();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free circuit breaker for requests to Loggly.
+ * <p>
+ * The circuit opens after a number of consecutive failures, and then
+ * refuses all requests for a while. Once that time has passed, a single
+ * trial request is let through (half-open): its success closes the
+ * circuit, and its failure opens it again.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class CircuitBreaker {
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+
+    /** Time (from {@link System#nanoTime()}) when the circuit opened */
+    private volatile long openedAt;
+    private volatile boolean open;
+
+    /**
+     * Creates a closed circuit breaker
+     * @param failureThreshold number of consecutive failures that opens the circuit
+     * @param openMillis time in milliseconds that the circuit stays open
+     */
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Determines whether a request may be sent. When this returns
+     * {@code true}, the outcome of the request must be reported with
+     * {@link #onSuccess()} or {@link #onFailure()}, or the request must
+     * be released with {@link #cancel()} if it is not sent after all.
+     * @return {@code true} if the request may be sent; {@code false}
+     * if the circuit is open
+     */
+    boolean allowRequest() {
+        if (!open) {
+            return true;
+        }
+        if (System.nanoTime() - openedAt < openNanos) {
+            return false;
+        }
+        return trialInFlight.compareAndSet(false, true);
+    }
+
+    /**
+     * Releases a request that was allowed but not sent, so that a trial
+     * request of the half-open circuit does not block later trials.
+     * Does nothing while the circuit is closed.
+     */
+    void cancel() {
+        if (open) {
+            trialInFlight.set(false);
+        }
+    }
+
+    /**
+     * Records a successful request, which closes the circuit
+     */
+    void onSuccess() {
+        failures.set(0);
+        open = false;
+        trialInFlight.set(false);
+    }
+
+    /**
+     * Records a failed request, which opens the circuit if the failure
+     * threshold is reached or if it was the trial request
+     */
+    void onFailure() {
+        if (open) {
+            if (trialInFlight.get()) {
+                openedAt = System.nanoTime();
+                trialInFlight.set(false);
+            }
+        } else if (failures.incrementAndGet() >= failureThreshold) {
+            openedAt = System.nanoTime();
+            open = true;
+        }
+    }
+
+    /**
+     * Determines whether the circuit is open (or half-open)
+     * @return {@code true} if requests are being refused
+     */
+    boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,427 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Durable queue of log events, stored in memory-mapped segment files
+ * of a fixed size.
+ * <p>
+ * Events are appended already encoded for Loggly's bulk endpoint
+ * (escaped UTF-8, each terminated by a new-line), so any range of a
+ * segment between event boundaries can be posted as-is. Each segment
+ * starts with a small header that holds its write and read positions,
+ * which are updated after every append and acknowledgement. Recovering
+ * after a crash therefore only reads the headers, and an append that
+ * was interrupted is simply ignored. A segment is deleted once it is
+ * full and all of its events have been acknowledged.
+ * <p>
+ * This class is not thread-safe. It is only used by the sender thread,
+ * except for overflow spools, which are used under their own lock.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class DiskSpool {
+    /** Smallest segment, which must hold at least one event of max size */
+    static final int MIN_SEGMENT_BYTES = 2 * BulkRequestBody.MAX_EVENT_BYTES;
+
+    private static final String SUFFIX = ".spool";
+    private static final int MAGIC = 0x4c474c31; // "LGL1"
+    private static final int HEADER_BYTES = 16;
+    private static final int WRITE_POS = 4;
+    private static final int READ_POS = 8;
+    private static final int SEALED = 12;
+
+    private final File dir;
+    private final int segmentBytes;
+    private final StripedCounter errors;
+    private final Deque<Segment> segments = new ArrayDeque<Segment>();
+    private final SegmentOutputStream out = new SegmentOutputStream();
+    private final EventEncoder encoder = new EventEncoder(out);
+    private long nextId;
+    private long pendingBytes;
+
+    /**
+     * A range of spooled events, to be acknowledged with {@link #commit}
+     */
+    static final class Batch {
+        private final Segment segment;
+        private final int end;
+        private final ByteBuffer events;
+        private final int count;
+
+        private Batch(Segment segment, int start, int end, int count) {
+            ByteBuffer b = segment.buffer.duplicate();
+            b.limit(end);
+            b.position(start);
+            this.segment = segment;
+            this.end = end;
+            this.events = b.slice();
+            this.count = count;
+        }
+
+        /**
+         * Gets the encoded events of this batch
+         * @return a read-only view of the events
+         */
+        ByteBuffer events() {
+            return events.asReadOnlyBuffer();
+        }
+
+        /**
+         * Gets the number of events in this batch
+         * @return the event count
+         */
+        int count() {
+            return count;
+        }
+    }
+
+    /**
+     * A memory-mapped segment file
+     */
+    private static final class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int writePos;
+        int readPos;
+        boolean sealed;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Opens a spool, recovering the events left in the directory by
+     * a previous instance
+     * @param dir directory of the segment files (created if needed)
+     * @param segmentBytes size of each segment file in bytes
+     * @throws IOException the directory or its files could not be opened
+     */
+    DiskSpool(File dir, int segmentBytes) throws IOException {
+        this(dir, segmentBytes, new StripedCounter());
+    }
+
+    /**
+     * Opens a spool, recovering the events left in the directory by
+     * a previous instance
+     * @param dir directory of the segment files (created if needed)
+     * @param segmentBytes size of each segment file in bytes
+     * @param errors counter of the segment files that could not be deleted
+     * @throws IOException the directory or its files could not be opened
+     */
+    DiskSpool(File dir, int segmentBytes, StripedCounter errors) throws IOException {
+        if (segmentBytes < MIN_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("segmentBytes must be at least " + MIN_SEGMENT_BYTES);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create spool directory: " + dir);
+        }
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.errors = errors;
+        recover();
+    }
+
+    /**
+     * Appends an event to the spool, truncating it if it exceeds the
+     * max event size. Null or empty events are ignored.
+     * @param event {@code String} or {@link LogglyEvent} to be appended
+     * @throws IOException a new segment file could not be created
+     */
+    void append(Object event) throws IOException {
+        if (EventEncoder.isEmpty(event)) {
+            return;
+        }
+
+        int size = EventEncoder.encodedLength(event, BulkRequestBody.MAX_EVENT_BYTES) + 1;
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.sealed || tail.writePos + size > tail.buffer.capacity()) {
+            if (tail != null) {
+                seal(tail);
+            }
+            tail = create();
+        }
+
+        out.segment = tail;
+        out.position = tail.writePos;
+        encoder.writeEvent(event, BulkRequestBody.MAX_EVENT_BYTES);
+        encoder.flush();
+
+        // publish the event only after all of its bytes are in place
+        tail.writePos += size;
+        tail.buffer.putInt(WRITE_POS, tail.writePos);
+        pendingBytes += size;
+    }
+
+    /**
+     * Gets the oldest unacknowledged events, without removing them
+     * @param maxEvents max number of events in the batch
+     * @param maxBytes max size of the batch in bytes (at least one
+     *                 event is returned regardless of its size)
+     * @return the batch, or {@code null} if the spool is empty
+     */
+    Batch peek(int maxEvents, int maxBytes) {
+        Segment head = segments.peekFirst();
+        while (head != null && head.readPos == head.writePos && head.sealed) {
+            delete(segments.removeFirst());
+            head = segments.peekFirst();
+        }
+        if (head == null || head.readPos == head.writePos) {
+            return null;
+        }
+        return batch(head, head.readPos, maxEvents, maxBytes);
+    }
+
+    /**
+     * Gets the unacknowledged events that follow a batch, so that
+     * several batches can be sent at once. The batches must be
+     * committed in order.
+     * @param previous batch returned from {@link #peek(int, int)} or
+     *                 from this method
+     * @param maxEvents max number of events in the batch
+     * @param maxBytes max size of the batch in bytes
+     * @return the next batch, or {@code null} if there are no more events
+     */
+    Batch peekAfter(Batch previous, int maxEvents, int maxBytes) {
+        Segment segment = previous.segment;
+        if (previous.end < segment.writePos) {
+            return batch(segment, previous.end, maxEvents, maxBytes);
+        }
+        if (!segment.sealed) {
+            return null;
+        }
+
+        boolean found = false;
+        for (Segment s : segments) {
+            if (found) {
+                return s.readPos < s.writePos ? batch(s, s.readPos, maxEvents, maxBytes) : null;
+            }
+            found = s == segment;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a batch of whole events from a segment
+     * @param segment segment of the events
+     * @param start offset of the first event
+     * @param maxEvents max number of events in the batch
+     * @param maxBytes max size of the batch in bytes
+     * @return the batch
+     */
+    private static Batch batch(Segment segment, int start, int maxEvents, int maxBytes) {
+        final int limit = segment.writePos;
+        int end = start;
+        int count = 0;
+        for (int i = start; i < limit; i++) {
+            if (segment.buffer.get(i) == '\n') {
+                if (count > 0 && i + 1 - start > maxBytes) {
+                    break;
+                }
+                end = i + 1;
+                if (++count == maxEvents) {
+                    break;
+                }
+            }
+        }
+        return new Batch(segment, start, end, count);
+    }
+
+    /**
+     * Acknowledges a batch, removing its events from the spool
+     * @param batch batch returned from {@link #peek(int, int)}
+     */
+    void commit(Batch batch) {
+        Segment segment = batch.segment;
+        pendingBytes -= batch.end - segment.readPos;
+        segment.readPos = batch.end;
+        segment.buffer.putInt(READ_POS, segment.readPos);
+
+        if (segment.sealed && segment.readPos == segment.writePos && segments.peekFirst() == segment) {
+            delete(segments.removeFirst());
+        }
+    }
+
+    /**
+     * Gets the size of the unacknowledged events
+     * @return the number of bytes of all pending events
+     */
+    long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Deletes the segment files and the directory of an empty spool,
+     * which cannot be used afterwards
+     */
+    void destroy() {
+        while (!segments.isEmpty()) {
+            delete(segments.removeFirst());
+        }
+        delete(dir);
+    }
+
+    /**
+     * Flushes the segments to the storage device
+     */
+    void force() {
+        for (Segment s : segments) {
+            s.buffer.force();
+        }
+    }
+
+    /**
+     * Loads the headers of the existing segment files
+     * @throws IOException a segment file could not be opened
+     */
+    private void recover() throws IOException {
+        File[] files = dir.listFiles();
+        long[] ids = new long[files == null ? 0 : files.length];
+        int n = 0;
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        ids[n++] = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        Arrays.sort(ids, 0, n);
+
+        for (int i = 0; i < n; i++) {
+            File file = segmentFile(ids[i]);
+            nextId = ids[i] + 1;
+            long length = file.length();
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                delete(file);
+                continue;
+            }
+
+            Segment s = new Segment(file, map(file, (int) length));
+            if (s.buffer.getInt(0) != MAGIC) {
+                delete(file);
+                continue;
+            }
+            s.writePos = s.buffer.getInt(WRITE_POS);
+            s.readPos = s.buffer.getInt(READ_POS);
+            s.sealed = s.buffer.getInt(SEALED) != 0;
+            if (s.writePos < HEADER_BYTES || s.writePos > length
+                    || s.readPos < HEADER_BYTES || s.readPos > s.writePos) {
+                delete(file);
+                continue;
+            }
+            if (s.sealed && s.readPos == s.writePos) {
+                delete(file);
+                continue;
+            }
+            if (length != segmentBytes) {
+                // left by an instance with another segment size, so
+                // only drain it
+                seal(s);
+            }
+            pendingBytes += s.writePos - s.readPos;
+            segments.addLast(s);
+        }
+    }
+
+    /**
+     * Creates a new segment file at the tail of the spool
+     * @return the segment
+     * @throws IOException the file could not be created
+     */
+    private Segment create() throws IOException {
+        long id = nextId++;
+        File file = segmentFile(id);
+        Segment s = new Segment(file, map(file, segmentBytes));
+        s.writePos = HEADER_BYTES;
+        s.readPos = HEADER_BYTES;
+        s.buffer.putInt(WRITE_POS, s.writePos);
+        s.buffer.putInt(READ_POS, s.readPos);
+        s.buffer.putInt(SEALED, 0);
+        // written last, so a segment torn while being created is discarded
+        s.buffer.putInt(0, MAGIC);
+        segments.addLast(s);
+        return s;
+    }
+
+    private void seal(Segment s) {
+        s.sealed = true;
+        s.buffer.putInt(SEALED, 1);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File segmentFile(long id) {
+        return new File(dir, id + SUFFIX);
+    }
+
+    private void delete(Segment s) {
+        delete(s.file);
+    }
+
+    private void delete(File file) {
+        if (!file.delete() && file.exists()) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Stream that copies encoded events into the tail segment
+     */
+    private static final class SegmentOutputStream extends OutputStream {
+        Segment segment;
+        int position;
+
+        @Override
+        public void write(int b) {
+            segment.buffer.put(position++, (byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            segment.buffer.position(position);
+            segment.buffer.put(b, off, len);
+            position += len;
+        }
+    }
+}
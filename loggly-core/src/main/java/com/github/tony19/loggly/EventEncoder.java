@@ -0,0 +1,739 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Encodes log events for Loggly's bulk endpoint in a single pass,
+ * replacing new-lines with '\r' and converting to UTF-8 straight
+ * into a byte buffer borrowed from a small pool. Nothing is
+ * allocated per event.
+ * <p>
+ * An event is either a {@code String}, or a {@link LogglyEvent} that
+ * is serialized as a JSON object with the same single pass.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class EventEncoder {
+    /** Size of each pooled buffer */
+    static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] HEX = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] SAMPLE_RATE_FIELD = ('"' + SampledEvent.FIELD + "\":").getBytes();
+    private static final byte[] SAMPLE_RATE_SUFFIX = (' ' + SampledEvent.FIELD + '=').getBytes();
+
+    private static final byte[] LONG_MIN = {
+            '-', '9', '2', '2', '3', '3', '7', '2', '0', '3', '6', '8', '5', '4', '7', '7', '5', '8', '0', '8'
+    };
+
+    /** Pooled buffers, taken and returned with a CAS on their slot */
+    private static final AtomicReferenceArray<byte[]> POOL = new AtomicReferenceArray<byte[]>(8);
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int pos;
+
+    /**
+     * Creates an encoder that writes to the given stream
+     * @param out destination of the encoded events
+     */
+    EventEncoder(OutputStream out) {
+        this.out = out;
+        this.buffer = acquire();
+    }
+
+    /**
+     * Encodes a log event followed by the event delimiter (new-line).
+     * New-lines and carriage-returns within the event are written as
+     * '\r' to preserve event boundaries (Loggly strips them). Null or
+     * empty events are skipped.
+     * @param event event to be written
+     * @throws IOException the underlying stream could not be written
+     */
+    void writeEvent(String event) throws IOException {
+        writeEvent(event, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Encodes a log event followed by the event delimiter (new-line),
+     * truncating the event at a character boundary if it is too long.
+     * @param event event to be written
+     * @param maxBytes max number of bytes of the event, excluding the
+     *                 delimiter
+     * @throws IOException the underlying stream could not be written
+     * @see #writeEvent(String)
+     */
+    void writeEvent(String event, int maxBytes) throws IOException {
+        if (event == null || event.isEmpty()) {
+            return;
+        }
+        writeText(event, 0, maxBytes);
+        if (pos == BUFFER_SIZE) {
+            drain();
+        }
+        buffer[pos++] = '\n';
+    }
+
+    /**
+     * Encodes the text of an event from the given index, without a
+     * delimiter, truncating it at a character boundary if it is too long
+     * @param event event to be written
+     * @param start index of the first character
+     * @param maxBytes max number of bytes
+     * @throws IOException the underlying stream could not be written
+     */
+    private void writeText(String event, int start, int maxBytes) throws IOException {
+        final int len = event.length();
+        int written = 0;
+        for (int i = start; i < len; i++) {
+            char c = event.charAt(i);
+            int width = width(event, i);
+            if (maxBytes - written < width) {
+                break;
+            }
+            written += width;
+
+            if (pos > BUFFER_SIZE - 4) {
+                drain();
+            }
+            if (width == 1) {
+                if (c == '\n') {
+                    c = '\r';
+                } else if (c >= 0x80) {
+                    // lone surrogate, same replacement as String.getBytes()
+                    c = '?';
+                }
+                buffer[pos++] = (byte) c;
+            } else if (width == 2) {
+                buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (width == 3) {
+                buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else {
+                int cp = Character.toCodePoint(c, event.charAt(++i));
+                buffer[pos++] = (byte) (0xf0 | (cp >> 18));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (cp & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Encodes a log event of any supported type followed by the event
+     * delimiter (new-line). A {@link LogglyEvent} whose JSON exceeds
+     * {@code maxBytes} is truncated like a string, so Loggly indexes
+     * it as text.
+     * @param event {@code String} or {@link LogglyEvent} to be written
+     * @param maxBytes max number of bytes of the event, excluding the
+     *                 delimiter
+     * @throws IOException the underlying stream could not be written
+     */
+    void writeEvent(Object event, int maxBytes) throws IOException {
+        if (event instanceof SampledEvent) {
+            writeSampled((SampledEvent) event, maxBytes);
+            return;
+        }
+        if (event instanceof LogglyEvent) {
+            LogglyEvent e = (LogglyEvent) event;
+            if (jsonLength(e) <= maxBytes) {
+                writeJson(e);
+                if (pos == BUFFER_SIZE) {
+                    drain();
+                }
+                buffer[pos++] = '\n';
+                return;
+            }
+            event = e.toString();
+        }
+        writeEvent((String) event, maxBytes);
+    }
+
+    /**
+     * Encodes a sampled event followed by the event delimiter, with its
+     * sample rate: as the first field of a JSON object (including a
+     * string that holds one), or else appended to the text as
+     * {@code " sampleRate=N"}
+     * @param sampled event to be written
+     * @param maxBytes max number of bytes of the event, excluding the
+     *                 delimiter
+     * @throws IOException the underlying stream could not be written
+     */
+    private void writeSampled(SampledEvent sampled, int maxBytes) throws IOException {
+        Object event = sampled.event;
+        if (event instanceof LogglyEvent) {
+            LogglyEvent e = (LogglyEvent) event;
+            if (sampledJsonLength(e, sampled.rate) <= maxBytes) {
+                writeJson(e, sampled.rate);
+                writeByte('\n');
+                return;
+            }
+            event = e.toString();
+        }
+
+        String s = (String) event;
+        if (isJsonObject(s)) {
+            boolean members = hasMembers(s);
+            writeByte('{');
+            writeBytes(SAMPLE_RATE_FIELD);
+            writeLong(sampled.rate);
+            if (members) {
+                writeByte(',');
+            }
+            writeText(s, 1, maxBytes - sampleFieldLength(sampled.rate, members) - 1);
+        } else {
+            writeText(s, 0, maxBytes - SAMPLE_RATE_SUFFIX.length - digits(sampled.rate));
+            writeBytes(SAMPLE_RATE_SUFFIX);
+            writeLong(sampled.rate);
+        }
+        writeByte('\n');
+    }
+
+    /**
+     * Serializes an event as a JSON object, without a delimiter
+     * @param event event to be written
+     * @throws IOException the underlying stream could not be written
+     */
+    void writeJson(LogglyEvent event) throws IOException {
+        writeJson(event, 0);
+    }
+
+    /**
+     * Serializes an event as a JSON object, without a delimiter
+     * @param event event to be written
+     * @param sampleRate sample rate written as the first field, or 0
+     *                   to omit it
+     * @throws IOException the underlying stream could not be written
+     */
+    private void writeJson(LogglyEvent event, int sampleRate) throws IOException {
+        writeByte('{');
+        if (sampleRate > 0) {
+            writeBytes(SAMPLE_RATE_FIELD);
+            writeLong(sampleRate);
+            if (event.size() > 0) {
+                writeByte(',');
+            }
+        }
+        for (int i = 0; i < event.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            writeJsonString(event.key(i));
+            writeByte(':');
+            switch (event.type(i)) {
+                case LogglyEvent.STRING:
+                    writeJsonString((String) event.object(i));
+                    break;
+                case LogglyEvent.LONG:
+                    writeLong(event.number(i));
+                    break;
+                case LogglyEvent.DOUBLE:
+                    writeDouble(Double.longBitsToDouble(event.number(i)));
+                    break;
+                case LogglyEvent.BOOLEAN:
+                    writeBytes(event.number(i) != 0 ? TRUE : FALSE);
+                    break;
+                case LogglyEvent.OBJECT:
+                    writeJson((LogglyEvent) event.object(i));
+                    break;
+                default:
+                    writeBytes(NULL);
+                    break;
+            }
+        }
+        writeByte('}');
+    }
+
+    /**
+     * Writes a quoted and escaped JSON string
+     * @param s string to be written
+     * @throws IOException the underlying stream could not be written
+     */
+    private void writeJsonString(String s) throws IOException {
+        writeByte('"');
+        final int len = s.length();
+        for (int i = 0; i < len; i++) {
+            if (pos > BUFFER_SIZE - 6) {
+                drain();
+            }
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    buffer[pos++] = '\\';
+                    buffer[pos++] = (byte) c;
+                } else if (c >= 0x20) {
+                    buffer[pos++] = (byte) c;
+                } else {
+                    buffer[pos++] = '\\';
+                    switch (c) {
+                        case '\n': buffer[pos++] = 'n'; break;
+                        case '\r': buffer[pos++] = 'r'; break;
+                        case '\t': buffer[pos++] = 't'; break;
+                        case '\b': buffer[pos++] = 'b'; break;
+                        case '\f': buffer[pos++] = 'f'; break;
+                        default:
+                            buffer[pos++] = 'u';
+                            buffer[pos++] = '0';
+                            buffer[pos++] = '0';
+                            buffer[pos++] = HEX[c >> 4];
+                            buffer[pos++] = HEX[c & 0xf];
+                            break;
+                    }
+                }
+                continue;
+            }
+
+            int width = width(s, i);
+            if (width == 1) {
+                // lone surrogate
+                buffer[pos++] = '?';
+            } else if (width == 2) {
+                buffer[pos++] = (byte) (0xc0 | (c >> 6));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (width == 3) {
+                buffer[pos++] = (byte) (0xe0 | (c >> 12));
+                buffer[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer[pos++] = (byte) (0xf0 | (cp >> 18));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buffer[pos++] = (byte) (0x80 | (cp & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    /**
+     * Writes the decimal digits of a long, without going through a string
+     * @param v value to be written
+     * @throws IOException the underlying stream could not be written
+     */
+    private void writeLong(long v) throws IOException {
+        if (pos > BUFFER_SIZE - 20) {
+            drain();
+        }
+        if (v == Long.MIN_VALUE) {
+            // cannot be negated
+            writeBytes(LONG_MIN);
+            return;
+        }
+        if (v < 0) {
+            buffer[pos++] = '-';
+            v = -v;
+        }
+        int end = pos + digits(v);
+        pos = end;
+        do {
+            buffer[--end] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+    }
+
+    /**
+     * Writes a double. Whole values are written as digits directly;
+     * others use {@link Double#toString(double)}, which allocates.
+     * @param d value to be written
+     * @throws IOException the underlying stream could not be written
+     */
+    private void writeDouble(double d) throws IOException {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            writeBytes(NULL);
+        } else if (isWhole(d)) {
+            writeLong((long) d);
+            writeByte('.');
+            writeByte('0');
+        } else {
+            String s = Double.toString(d);
+            for (int i = 0; i < s.length(); i++) {
+                writeByte(s.charAt(i));
+            }
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (pos == BUFFER_SIZE) {
+            drain();
+        }
+        buffer[pos++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] b) throws IOException {
+        if (pos > BUFFER_SIZE - b.length) {
+            drain();
+        }
+        System.arraycopy(b, 0, buffer, pos, b.length);
+        pos += b.length;
+    }
+
+    /**
+     * Writes events that are already encoded, such as those read from
+     * the {@link DiskSpool}
+     * @param encoded encoded events, consumed up to their limit
+     * @throws IOException the underlying stream could not be written
+     */
+    void write(ByteBuffer encoded) throws IOException {
+        while (encoded.hasRemaining()) {
+            if (pos == BUFFER_SIZE) {
+                drain();
+            }
+            int n = Math.min(encoded.remaining(), BUFFER_SIZE - pos);
+            encoded.get(buffer, pos, n);
+            pos += n;
+        }
+    }
+
+    /**
+     * Writes any buffered bytes to the underlying stream
+     * @throws IOException the underlying stream could not be written
+     */
+    void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    /**
+     * Writes any buffered bytes and returns the buffer to the pool.
+     * The encoder cannot be used afterwards.
+     * @throws IOException the underlying stream could not be written
+     */
+    void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            release(buffer);
+            buffer = null;
+        }
+    }
+
+    private void drain() throws IOException {
+        if (pos > 0) {
+            out.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+
+    /**
+     * Takes a buffer from the pool, or allocates one if the pool is empty
+     * @return the buffer
+     */
+    private static byte[] acquire() {
+        for (int i = 0; i < POOL.length(); i++) {
+            byte[] b = POOL.getAndSet(i, null);
+            if (b != null) {
+                return b;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer is dropped if the pool is full.
+     * @param b buffer to be returned
+     */
+    private static void release(byte[] b) {
+        for (int i = 0; i < POOL.length(); i++) {
+            if (POOL.get(i) == null && POOL.compareAndSet(i, null, b)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Determines whether an event is skipped when encoding
+     * @param event {@code String} or {@link LogglyEvent}
+     * @return {@code true} if the event is null or an empty string
+     */
+    static boolean isEmpty(Object event) {
+        if (event instanceof SampledEvent) {
+            return isEmpty(((SampledEvent) event).event);
+        }
+        return event == null || (event instanceof String && ((String) event).isEmpty());
+    }
+
+    /**
+     * Counts the bytes needed to encode an event of any supported type,
+     * as written by {@link #writeEvent(Object, int)}
+     * @param event {@code String} or {@link LogglyEvent} to be measured
+     * @param maxBytes max number of bytes
+     * @return the number of UTF-8 bytes, excluding the delimiter
+     */
+    static int encodedLength(Object event, int maxBytes) {
+        if (event instanceof SampledEvent) {
+            return sampledLength((SampledEvent) event, maxBytes);
+        }
+        if (event instanceof LogglyEvent) {
+            LogglyEvent e = (LogglyEvent) event;
+            int length = jsonLength(e);
+            return length <= maxBytes ? length : utf8Length(e.toString(), maxBytes);
+        }
+        return utf8Length((String) event, maxBytes);
+    }
+
+    /**
+     * Counts the bytes needed to encode a sampled event, as written by
+     * {@link #writeSampled(SampledEvent, int)}
+     * @param sampled event to be measured
+     * @param maxBytes max number of bytes
+     * @return the number of UTF-8 bytes, excluding the delimiter
+     */
+    private static int sampledLength(SampledEvent sampled, int maxBytes) {
+        Object event = sampled.event;
+        if (event instanceof LogglyEvent) {
+            LogglyEvent e = (LogglyEvent) event;
+            int length = sampledJsonLength(e, sampled.rate);
+            if (length <= maxBytes) {
+                return length;
+            }
+            event = e.toString();
+        }
+
+        String s = (String) event;
+        if (isJsonObject(s)) {
+            int extra = sampleFieldLength(sampled.rate, hasMembers(s)) + 1;
+            return extra + utf8Length(s, 1, maxBytes - extra);
+        }
+        int extra = SAMPLE_RATE_SUFFIX.length + digits(sampled.rate);
+        return extra + utf8Length(s, 0, maxBytes - extra);
+    }
+
+    private static int sampledJsonLength(LogglyEvent event, int sampleRate) {
+        return (int) Math.min((long) jsonLength(event) + sampleFieldLength(sampleRate, event.size() > 0),
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * Counts the bytes of the sample rate field of a JSON object
+     * @param sampleRate sample rate
+     * @param comma {@code true} if other fields follow
+     * @return the number of bytes
+     */
+    private static int sampleFieldLength(int sampleRate, boolean comma) {
+        return SAMPLE_RATE_FIELD.length + digits(sampleRate) + (comma ? 1 : 0);
+    }
+
+    /**
+     * Determines whether a string looks like a JSON object, which
+     * Loggly parses into fields. Text that merely starts and ends with
+     * braces, such as {@code "{job 42} finished"}, is not one.
+     * @param s string to be checked
+     * @return {@code true} if the string is enclosed in braces, and its
+     * first non-blank character after the opening brace is a quote or
+     * the closing brace
+     */
+    private static boolean isJsonObject(String s) {
+        final int len = s.length();
+        if (len < 2 || s.charAt(0) != '{' || s.charAt(len - 1) != '}') {
+            return false;
+        }
+        int i = 1;
+        while (Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return s.charAt(i) == '"' || i == len - 1;
+    }
+
+    /**
+     * Determines whether a JSON object (as checked by
+     * {@link #isJsonObject(String)}) has anything but whitespace
+     * between its braces
+     * @param s JSON object
+     * @return {@code true} if the object is not empty
+     */
+    private static boolean hasMembers(String s) {
+        for (int i = 1; i < s.length() - 1; i++) {
+            if (!Character.isWhitespace(s.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the bytes of an event serialized as JSON. The length is
+     * cached in the event, since it is needed again when writing it.
+     * @param event event to be measured
+     * @return the number of UTF-8 bytes
+     */
+    static int jsonLength(LogglyEvent event) {
+        int length = event.encodedLength;
+        if (length >= 0) {
+            return length;
+        }
+
+        long n = 2 + Math.max(0, event.size() - 1);
+        for (int i = 0; i < event.size(); i++) {
+            n += jsonStringLength(event.key(i)) + 1;
+            switch (event.type(i)) {
+                case LogglyEvent.STRING:
+                    n += jsonStringLength((String) event.object(i));
+                    break;
+                case LogglyEvent.LONG:
+                    n += longLength(event.number(i));
+                    break;
+                case LogglyEvent.DOUBLE:
+                    n += doubleLength(Double.longBitsToDouble(event.number(i)));
+                    break;
+                case LogglyEvent.BOOLEAN:
+                    n += event.number(i) != 0 ? TRUE.length : FALSE.length;
+                    break;
+                case LogglyEvent.OBJECT:
+                    n += jsonLength((LogglyEvent) event.object(i));
+                    break;
+                default:
+                    n += NULL.length;
+                    break;
+            }
+        }
+        length = (int) Math.min(n, Integer.MAX_VALUE);
+        event.encodedLength = length;
+        return length;
+    }
+
+    private static long jsonStringLength(String s) {
+        final int len = s.length();
+        long n = 2;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c == '"' || c == '\\' || c == '\n' || c == '\r' || c == '\t' || c == '\b' || c == '\f') {
+                    n += 2;
+                } else {
+                    n += c < 0x20 ? 6 : 1;
+                }
+            } else {
+                int width = width(s, i);
+                n += width;
+                if (width == 4) {
+                    i++;
+                }
+            }
+        }
+        return n;
+    }
+
+    private static int longLength(long v) {
+        if (v == Long.MIN_VALUE) {
+            return LONG_MIN.length;
+        }
+        return v < 0 ? 1 + digits(-v) : digits(v);
+    }
+
+    private static int doubleLength(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return NULL.length;
+        }
+        return isWhole(d) ? longLength((long) d) + 2 : Double.toString(d).length();
+    }
+
+    /**
+     * Determines whether a double is written as a whole number, which
+     * matches {@link Double#toString(double)} below 10^7
+     * @param d finite value
+     * @return {@code true} if {@code d} is whole and small enough
+     */
+    private static boolean isWhole(double d) {
+        return d == Math.rint(d) && Math.abs(d) < 1e7 && !(d == 0 && 1 / d < 0);
+    }
+
+    /**
+     * Counts the decimal digits of a non-negative long
+     * @param v value to be measured
+     * @return the number of digits
+     */
+    private static int digits(long v) {
+        int n = 1;
+        while (v >= 10) {
+            v /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Counts the bytes needed to encode a string in UTF-8
+     * without actually encoding it
+     * @param s string to be measured
+     * @return the number of UTF-8 bytes
+     */
+    static int utf8Length(String s) {
+        return utf8Length(s, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Counts the bytes needed to encode a string in UTF-8, truncated
+     * at a character boundary to the given limit, as written by
+     * {@link #writeEvent(String, int)}
+     * @param s string to be measured
+     * @param maxBytes max number of bytes
+     * @return the number of UTF-8 bytes
+     */
+    static int utf8Length(String s, int maxBytes) {
+        return utf8Length(s, 0, maxBytes);
+    }
+
+    private static int utf8Length(String s, int start, int maxBytes) {
+        final int len = s.length();
+        int bytes = 0;
+        for (int i = start; i < len; i++) {
+            int width = width(s, i);
+            if (maxBytes - bytes < width) {
+                break;
+            }
+            bytes += width;
+            if (width == 4) {
+                i++;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the number of UTF-8 bytes for the character at the given
+     * index. A surrogate pair takes 4 bytes, and a lone surrogate is
+     * replaced with a 1-byte '?'.
+     * @param s string containing the character
+     * @param i index of the character
+     * @return the number of UTF-8 bytes
+     */
+    private static int width(String s, int i) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800) {
+            return 2;
+        } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+            return 3;
+        } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(i + 1))) {
+            return 4;
+        }
+        return 1;
+    }
+}
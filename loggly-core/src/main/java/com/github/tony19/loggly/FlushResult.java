@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+/**
+ * Outcome of {@link LogglyClient#flush(long)} or
+ * {@link LogglyClient#close(long)}: how many of the pending events
+ * Loggly accepted before the deadline, how many failed for good, and
+ * how many were abandoned because the time ran out.
+ * <p>
+ * After a flush, abandoned events that were not yet sent stay buffered.
+ * After a close, they are discarded, except for those in a disk spool,
+ * which are sent by the next client that opens it.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class FlushResult {
+    /** Result of a client with nothing to flush */
+    static final FlushResult EMPTY = new FlushResult(0, 0, 0);
+
+    private final long eventsSent;
+    private final long eventsFailed;
+    private final long eventsAbandoned;
+
+    FlushResult(long eventsSent, long eventsFailed, long eventsAbandoned) {
+        this.eventsSent = eventsSent;
+        this.eventsFailed = eventsFailed;
+        this.eventsAbandoned = eventsAbandoned;
+    }
+
+    /**
+     * Gets the number of pending events that Loggly accepted
+     * @return the event count
+     */
+    public long getEventsSent() {
+        return eventsSent;
+    }
+
+    /**
+     * Gets the number of pending events that Loggly rejected, or whose
+     * requests failed after all retries
+     * @return the event count
+     */
+    public long getEventsFailed() {
+        return eventsFailed;
+    }
+
+    /**
+     * Gets the number of pending events whose outcome was not known by
+     * the deadline, including those still in flight
+     * @return the event count
+     */
+    public long getEventsAbandoned() {
+        return eventsAbandoned;
+    }
+
+    /**
+     * Determines whether all pending events were sent (or failed for
+     * good) before the deadline
+     * @return {@code true} if no event was abandoned
+     */
+    public boolean isComplete() {
+        return eventsAbandoned == 0;
+    }
+
+    /**
+     * Adds up the results of two lanes of a client
+     * @param other result of the other lane
+     * @return the sum of both results
+     */
+    FlushResult plus(FlushResult other) {
+        return new FlushResult(eventsSent + other.eventsSent, eventsFailed + other.eventsFailed,
+                eventsAbandoned + other.eventsAbandoned);
+    }
+
+    @Override
+    public String toString() {
+        return "FlushResult{sent=" + eventsSent + ", failed=" + eventsFailed
+                + ", abandoned=" + eventsAbandoned + "}";
+    }
+}
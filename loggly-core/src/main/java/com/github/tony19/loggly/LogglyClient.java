@@ -0,0 +1,1904 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+
+/**
+ * Loggly client
+ *
+ * @author tony19@gmail.com
+ */
+public class LogglyClient implements ILogglyClient, Closeable {
+    static final String API_URL = "https://logs-01.loggly.com/";
+    /** Max requests in flight by default, as in OkHttp's dispatcher */
+    static final int DEFAULT_MAX_REQUESTS = 64;
+    /** Time given to buffered events by {@link #close()} */
+    static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 5000;
+    /** Deadline of a drain that waits for all of its requests */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+    /** Outcomes of the requests of a drain, see {@link #sendAll} */
+    static final int PENDING = 0;
+    static final int SENT = 1;
+    static final int FAILED = 2;
+    private static final int RETRY = 3;
+    private final Transport transport;
+    private final String token;
+    private final BulkDispatcher dispatcher;
+    /** Lane of high-priority events, or {@code null} if they are batched with the others */
+    private final BulkDispatcher urgentDispatcher;
+    /** Limits the requests in flight, or {@code null} if unlimited */
+    private final Semaphore inFlight;
+    /** In-flight slot reserved for the high-priority lane, or {@code null} if unlimited */
+    private final Semaphore urgentSlots;
+    private final LogglyMetrics metrics = new LogglyMetrics();
+    /** Rate limit and sampling settings, or {@code null} if unlimited */
+    private final RateLimit rateLimit;
+    private final TokenBucket eventBucket;
+    private final TokenBucket byteBucket;
+    /** Tags of events logged without their own, replaced atomically by {@link #setTags} */
+    private volatile TagSet tags = TagSet.EMPTY;
+    private volatile int compressionLevel = Deflater.NO_COMPRESSION;
+    private volatile int compressionMinBytes;
+    private volatile RetryPolicy retryPolicy;
+    private volatile CircuitBreaker breaker;
+    private final Random random = new Random();
+    /** Runs the completion callbacks, or {@code null} to run them on the transport's threads */
+    private final Executor callbackExecutor;
+    /** Schedules the retries of asynchronous requests, created when first needed */
+    private ScheduledExecutorService retryExecutor;
+    /** Runs the sender loops and the retries of a {@link LogglyRouter}, or {@code null} */
+    private final ScheduledExecutorService sharedScheduler;
+    /** Exports the metrics periodically, or {@code null} if disabled */
+    private ScheduledExecutorService exportExecutor;
+    /** Closes the client when the JVM shuts down, or {@code null} if disabled */
+    private final Thread shutdownHook;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /** Source of sampling decisions, per thread to keep logging threads from contending */
+    private static final ThreadLocal<Random> SAMPLING_RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * Creates a Loggly client
+     * @param token Loggly customer token
+     *              http://loggly.com/docs/customer-token-authentication-token/
+     */
+    public LogglyClient(String token) {
+        this(new Builder(token));
+    }
+
+    /**
+     * Creates a Loggly client that buffers events from {@link #log(String)}
+     * and posts them in batches to Loggly's bulk endpoint from a
+     * background thread
+     * @param token Loggly customer token
+     *              http://loggly.com/docs/customer-token-authentication-token/
+     * @param batching batching thresholds, or {@code null} to post
+     *                 each event immediately
+     */
+    public LogglyClient(String token, BatchOptions batching) {
+        this(new Builder(token).batching(batching));
+    }
+
+    /**
+     * Creates a Loggly client from the settings of a builder
+     * @param builder client settings
+     */
+    private LogglyClient(Builder builder) {
+        this(builder, builder.createTransport());
+    }
+
+    /**
+     * Creates a Loggly client with the specified transport.
+     * This is package private for internal testing only.
+     * @param token Loggly customer token
+     * @param transport sender of the requests
+     */
+    LogglyClient(String token, Transport transport) {
+        this(new Builder(token), transport);
+    }
+
+    /**
+     * Creates a Loggly client with the specified transport and batching.
+     * This is package private for internal testing only.
+     * @param token Loggly customer token
+     * @param transport sender of the requests
+     * @param batching batching thresholds, or {@code null} to post
+     *                 each event immediately
+     */
+    LogglyClient(String token, Transport transport, BatchOptions batching) {
+        this(new Builder(token).batching(batching), transport);
+    }
+
+    /**
+     * Creates a Loggly client with the specified transport and the
+     * other settings of a builder.
+     * This is package private for internal testing only.
+     * @param builder client settings
+     * @param transport sender of the requests
+     */
+    LogglyClient(Builder builder, Transport transport) {
+        this.token = builder.token;
+        this.transport = transport;
+        this.inFlight = builder.maxInFlightRequests > 0 ? new Semaphore(builder.maxInFlightRequests) : null;
+        this.urgentSlots = inFlight != null ? new Semaphore(1) : null;
+        this.rateLimit = builder.rateLimit;
+        this.eventBucket = rateLimit != null ? rateLimit.createEventBucket() : null;
+        this.byteBucket = rateLimit != null ? rateLimit.createByteBucket() : null;
+        setTags(builder.tags);
+        setCompression(builder.compressionLevel, builder.compressionMinBytes);
+        setRetryPolicy(builder.retryPolicy);
+        Executor callbacks = builder.callbackExecutor;
+        Executor sender = builder.senderExecutor;
+        if (builder.virtualThreads) {
+            if (callbacks == null) {
+                callbacks = VirtualThreads.newPerTaskExecutor("loggly-callback-");
+            }
+            if (sender == null) {
+                sender = VirtualThreads.newPerTaskExecutor("loggly-sender-");
+            }
+        }
+        this.callbackExecutor = callbacks;
+        this.sharedScheduler = builder.sharedScheduler;
+        // started last, so that the sender thread sees all of the settings
+        this.dispatcher = builder.batching != null
+                ? new BulkDispatcher(this, builder.batching, sender, sharedScheduler,
+                        builder.maxInFlightRequests > 0 ? builder.maxInFlightRequests : DEFAULT_MAX_REQUESTS,
+                        inFlight, adaptiveLimit(builder), "loggly-sender")
+                : null;
+        this.urgentDispatcher = builder.batching != null && builder.batching.getHighPriorityLingerMillis() >= 0
+                ? new BulkDispatcher(this, builder.batching.highPriorityOptions(), sender, sharedScheduler, 1,
+                        urgentSlots, null, "loggly-sender-high")
+                : null;
+        metrics.setDispatchers(dispatcher, urgentDispatcher);
+        if (builder.metricsExporter != null) {
+            startExporter(builder.metricsExporter, builder.metricsPeriodMillis);
+        }
+        this.shutdownHook = builder.shutdownTimeoutMillis >= 0 ? addShutdownHook(builder.shutdownTimeoutMillis) : null;
+    }
+
+    /**
+     * Creates the controller of adaptive batching, which is bounded by
+     * the max batch size and the max in-flight requests
+     * @param builder client settings
+     * @return the controller, or {@code null} if batches are fixed
+     */
+    private static AdaptiveLimit adaptiveLimit(Builder builder) {
+        final BatchOptions options = builder.batching;
+        if (options.getTargetLatencyMillis() <= 0) {
+            return null;
+        }
+        return new AdaptiveLimit(options.getTargetLatencyMillis(), AdaptiveLimit.MIN_BATCH_BYTES,
+                options.getMaxBytes(),
+                builder.maxInFlightRequests > 0 ? builder.maxInFlightRequests : DEFAULT_MAX_REQUESTS);
+    }
+
+    /**
+     * Registers a JVM shutdown hook that closes this client
+     * @param timeoutMillis max time in milliseconds to send the buffered events
+     * @return the hook
+     */
+    private Thread addShutdownHook(final long timeoutMillis) {
+        Thread hook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close(timeoutMillis);
+            }
+        }, "loggly-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    /**
+     * Starts a daemon thread that periodically exports the metrics
+     * @param exporter destination of the metrics
+     * @param periodMillis time in milliseconds between exports
+     */
+    private void startExporter(final MetricsExporter exporter, long periodMillis) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(daemonThreads("loggly-metrics"));
+        exportExecutor = executor;
+        executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    exporter.export(metrics);
+                } catch (RuntimeException e) {
+                    // an exception would cancel all later exports
+                    metrics.exportErrors.increment();
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a factory of daemon threads, which do not keep the
+     * process alive
+     * @param name name of the threads
+     * @return the thread factory
+     */
+    static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Builder of a {@link LogglyClient} with a tuned HTTP stack.
+     * <p>
+     * By default, requests are sent with {@link java.net.HttpURLConnection},
+     * whose connections are kept alive and shared by all clients in the
+     * process. Another {@link Transport} can be set instead, such as the
+     * OkHttp-based one of the Android library.
+     *
+     * @since 1.1.0
+     */
+    public static final class Builder {
+        private final String token;
+        private String endpoint = API_URL;
+        private Transport transport;
+        private int maxInFlightRequests;
+        private long connectTimeoutMillis = 10000;
+        private long readTimeoutMillis = 10000;
+        private Executor callbackExecutor;
+        private Executor senderExecutor;
+        private boolean virtualThreads;
+        private BatchOptions batching;
+        private int compressionLevel = Deflater.NO_COMPRESSION;
+        private int compressionMinBytes;
+        private RetryPolicy retryPolicy = new RetryPolicy();
+        private String[] tags = new String[0];
+        private RateLimit rateLimit;
+        private MetricsExporter metricsExporter;
+        private long metricsPeriodMillis;
+        private long shutdownTimeoutMillis = -1;
+        private ScheduledExecutorService sharedScheduler;
+
+        /**
+         * Creates a builder
+         * @param token Loggly customer token
+         *              http://loggly.com/docs/customer-token-authentication-token/
+         */
+        public Builder(String token) {
+            if (token == null || token.isEmpty()) {
+                throw new IllegalArgumentException("token cannot be empty");
+            }
+            this.token = token;
+        }
+
+        /**
+         * Sets the base URL of Loggly's HTTP API, which is ignored if a
+         * transport is set
+         * @param url base URL (default: {@code https://logs-01.loggly.com/})
+         * @return this {@code Builder}
+         */
+        public Builder endpoint(String url) {
+            if (url == null || url.isEmpty()) {
+                throw new IllegalArgumentException("url cannot be empty");
+            }
+            this.endpoint = url.endsWith("/") ? url : url + "/";
+            return this;
+        }
+
+        /**
+         * Sets the transport that sends the requests, which may be shared
+         * with other clients
+         * @param transport transport, or {@code null} for the default
+         *                  {@link java.net.HttpURLConnection} transport
+         * @return this {@code Builder}
+         */
+        public Builder transport(Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Limits the number of requests that this client has in flight
+         * at once. Senders wait for a free slot, which caps socket usage
+         * under load. Asynchronous requests of the default transport
+         * wait in its queue instead (64 by default).
+         * @param maxInFlightRequests max number of concurrent requests
+         * @return this {@code Builder}
+         */
+        public Builder maxInFlightRequests(int maxInFlightRequests) {
+            if (maxInFlightRequests <= 0) {
+                throw new IllegalArgumentException("maxInFlightRequests must be positive");
+            }
+            this.maxInFlightRequests = maxInFlightRequests;
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout of the default transport
+         * @param millis timeout in milliseconds (0 for none; default 10000)
+         * @return this {@code Builder}
+         */
+        public Builder connectTimeoutMillis(long millis) {
+            this.connectTimeoutMillis = checkTimeout(millis);
+            return this;
+        }
+
+        /**
+         * Sets the read timeout of the default transport
+         * @param millis timeout in milliseconds (0 for none; default 10000)
+         * @return this {@code Builder}
+         */
+        public Builder readTimeoutMillis(long millis) {
+            this.readTimeoutMillis = checkTimeout(millis);
+            return this;
+        }
+
+        /**
+         * Runs the completion callbacks of asynchronous requests on an
+         * executor, so that a slow callback cannot stall the transport's
+         * threads
+         * @param executor executor of the callbacks, or {@code null} to
+         *                 run them on the transport's threads (default)
+         * @return this {@code Builder}
+         * @see LogglyClient#log(String, Callback)
+         * @see LogglyClient#logAsync(String)
+         */
+        public Builder callbackExecutor(Executor executor) {
+            this.callbackExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Runs the sender loop of batching mode on an executor, which
+         * occupies one of its threads for the life of the client
+         * @param executor executor of the sender loop, or {@code null}
+         *                 to start a dedicated daemon thread (default)
+         * @return this {@code Builder}
+         */
+        public Builder senderExecutor(Executor executor) {
+            this.senderExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Runs requests (of the default transport), callbacks and the
+         * sender loop on virtual threads (Java 21+), one per task, unless
+         * other executors are set. Callers
+         * of the synchronous methods should be virtual threads too, so
+         * that thousands of them can wait on Loggly without tying up
+         * platform threads. Ignored if the runtime lacks virtual threads.
+         * @param enabled {@code true} to use virtual threads
+         * @return this {@code Builder}
+         * @see #isVirtualThreadSupported()
+         */
+        public Builder virtualThreads(boolean enabled) {
+            this.virtualThreads = enabled;
+            return this;
+        }
+
+        /**
+         * Determines whether the runtime supports virtual threads
+         * @return {@code true} if {@link #virtualThreads(boolean)} takes effect
+         */
+        public static boolean isVirtualThreadSupported() {
+            return VirtualThreads.isSupported();
+        }
+
+        /**
+         * Sets the batching thresholds
+         * @param batching batching thresholds, or {@code null} to post
+         *                 each event immediately (default)
+         * @return this {@code Builder}
+         * @see LogglyClient#LogglyClient(String, BatchOptions)
+         */
+        public Builder batching(BatchOptions batching) {
+            this.batching = batching;
+            return this;
+        }
+
+        /**
+         * Enables gzip compression of bulk requests
+         * @param level compression level (0 to 9)
+         * @param minBytes minimum size (in bytes) of a parcel to be compressed
+         * @return this {@code Builder}
+         * @see LogglyClient#setCompression(int, int)
+         */
+        public Builder compression(int level, int minBytes) {
+            checkCompression(level, minBytes);
+            this.compressionLevel = level;
+            this.compressionMinBytes = minBytes;
+            return this;
+        }
+
+        /**
+         * Sets the retry policy
+         * @param policy retry policy
+         * @return this {@code Builder}
+         * @see LogglyClient#setRetryPolicy(RetryPolicy)
+         */
+        public Builder retryPolicy(RetryPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("policy cannot be null");
+            }
+            this.retryPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the tags to use for Loggly messages
+         * @param tags CSV or list of tags
+         * @return this {@code Builder}
+         * @see LogglyClient#setTags(String...)
+         */
+        public Builder tags(String... tags) {
+            this.tags = tags;
+            return this;
+        }
+
+        /**
+         * Sets the rate limit and adaptive sampling of events logged
+         * one at a time
+         * @param rateLimit rate limit settings, or {@code null} for no limit
+         * @return this {@code Builder}
+         */
+        public Builder rateLimit(RateLimit rateLimit) {
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        /**
+         * Sets a hook that receives the client's metrics periodically
+         * @param exporter destination of the metrics
+         * @param periodMillis time in milliseconds between exports
+         * @return this {@code Builder}
+         * @see LogglyClient#getMetrics()
+         */
+        public Builder metricsExporter(MetricsExporter exporter, long periodMillis) {
+            if (exporter == null) {
+                throw new IllegalArgumentException("exporter cannot be null");
+            }
+            if (periodMillis <= 0) {
+                throw new IllegalArgumentException("periodMillis must be positive");
+            }
+            this.metricsExporter = exporter;
+            this.metricsPeriodMillis = periodMillis;
+            return this;
+        }
+
+        /**
+         * Registers a JVM shutdown hook that closes the client, sending
+         * the buffered events within a deadline, so that the last events
+         * of a process are not lost and its shutdown is not stalled
+         * @param timeoutMillis max time in milliseconds to send the
+         *                      buffered events
+         * @return this {@code Builder}
+         * @see LogglyClient#close(long)
+         */
+        public Builder closeOnShutdown(long timeoutMillis) {
+            this.shutdownTimeoutMillis = checkTimeout(timeoutMillis);
+            return this;
+        }
+
+        /**
+         * Runs the sender loops in turns, and the asynchronous retries,
+         * on a scheduler shared by the shards of a {@link LogglyRouter}
+         * @param scheduler shared scheduler, which the client does not shut down
+         * @return this {@code Builder}
+         */
+        Builder sharedSender(ScheduledExecutorService scheduler) {
+            this.sharedScheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Creates a client with the settings of this builder
+         * @return the client
+         */
+        public LogglyClient build() {
+            return new LogglyClient(this);
+        }
+
+        /**
+         * Creates the transport, which is the default one unless another
+         * was set. Its asynchronous requests run on virtual threads, or
+         * on a pool of daemon threads that are only started when needed.
+         * @return the transport
+         */
+        Transport createTransport() {
+            if (transport != null) {
+                return transport;
+            }
+            ExecutorService executor = virtualThreads ? VirtualThreads.newPerTaskExecutor("loggly-http-") : null;
+            if (executor == null) {
+                int threads = maxInFlightRequests > 0 ? maxInFlightRequests : DEFAULT_MAX_REQUESTS;
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), daemonThreads("loggly-http"));
+                pool.allowCoreThreadTimeOut(true);
+                executor = pool;
+            }
+            return new UrlConnectionTransport(endpoint, (int) Math.min(connectTimeoutMillis, Integer.MAX_VALUE),
+                    (int) Math.min(readTimeoutMillis, Integer.MAX_VALUE), executor);
+        }
+
+        private static long checkTimeout(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("timeout cannot be negative");
+            }
+            return millis;
+        }
+    }
+
+    /**
+     * Gets the metrics of this client, which are updated live
+     * @return the metrics
+     */
+    public LogglyMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the tags to use for Loggly messages. The list of
+     * strings are converted into a single CSV (trailing/leading
+     * spaces stripped from each entry).
+     * @param tags CSV or list of tags
+     * @throws IllegalArgumentException a tag is invalid
+     * @see TagSet#of(String...)
+     */
+    public void setTags(String... tags) {
+        this.tags = TagSet.of(tags);
+    }
+
+    /**
+     * Enables gzip compression of bulk requests. Parcels smaller than
+     * {@code minBytes} are sent uncompressed, since the gzip framing
+     * would outweigh the savings.
+     * @param level compression level from {@link Deflater#BEST_SPEED}
+     *              (1) to {@link Deflater#BEST_COMPRESSION} (9), or
+     *              {@link Deflater#NO_COMPRESSION} (0) to disable
+     * @param minBytes minimum size (in bytes) of a parcel to be compressed
+     */
+    public void setCompression(int level, int minBytes) {
+        checkCompression(level, minBytes);
+        this.compressionMinBytes = minBytes;
+        this.compressionLevel = level;
+    }
+
+    static void checkCompression(int level, int minBytes) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level must be between 0 and 9");
+        }
+        if (minBytes < 0) {
+            throw new IllegalArgumentException("minBytes cannot be negative");
+        }
+    }
+
+    /**
+     * Sets the policy for retrying requests that fail with an I/O error,
+     * HTTP 429 or HTTP 5xx, and for the circuit breaker that stops
+     * sending requests after repeated failures. Changing the policy
+     * resets the circuit breaker. The policy is copied, so later changes
+     * to it have no effect unless it is set again.
+     * @param policy retry policy
+     */
+    public void setRetryPolicy(RetryPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy cannot be null");
+        }
+        policy = new RetryPolicy(policy);
+        this.breaker = new CircuitBreaker(policy.getFailureThreshold(), policy.getOpenMillis());
+        this.retryPolicy = policy;
+    }
+
+    /**
+     * Sends all events buffered in batching mode without waiting for
+     * their batches to fill or linger, in parallel bulk requests, and
+     * waits until they are sent. Events that are still pending when the
+     * time runs out are sent later. The high-priority lane, if any, is
+     * flushed first. Does nothing if batching is disabled.
+     * @param timeoutMillis max time to wait in milliseconds
+     * @return the events sent, failed, and still pending when the time
+     * ran out or the thread was interrupted
+     */
+    public FlushResult flush(long timeoutMillis) {
+        if (dispatcher == null || closed.get()) return FlushResult.EMPTY;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+        FlushResult result = FlushResult.EMPTY;
+        try {
+            if (urgentDispatcher != null) {
+                result = urgentDispatcher.flush(timeoutMillis);
+            }
+            return result.plus(dispatcher.flush(remainingMillis(deadline)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return result.plus(new FlushResult(0, 0, depth()));
+        }
+    }
+
+    /**
+     * Closes this client, giving the buffered events up to 5 seconds
+     * to be sent
+     * @see #close(long)
+     */
+    @Override
+    public void close() {
+        close(DEFAULT_CLOSE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Closes this client: stops accepting events, sends the buffered
+     * ones in parallel bulk requests until the deadline, and stops the
+     * background threads. Events that are not sent by the deadline are
+     * abandoned, except those in a disk spool, which are kept for the
+     * next client. Closing a closed client does nothing.
+     * @param timeoutMillis max time in milliseconds to send the buffered events
+     * @return the events sent, failed, and abandoned
+     */
+    public FlushResult close(long timeoutMillis) {
+        if (!beginClose()) {
+            return FlushResult.EMPTY;
+        }
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+        FlushResult result = FlushResult.EMPTY;
+        if (dispatcher != null) {
+            try {
+                if (urgentDispatcher != null) {
+                    result = urgentDispatcher.close(timeoutMillis);
+                }
+                result = result.plus(dispatcher.close(remainingMillis(deadline)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result = result.plus(new FlushResult(0, 0, depth()));
+            }
+        }
+        endClose();
+        return result;
+    }
+
+    /**
+     * Stops accepting events, as the first step of a close
+     * @return {@code true} if the client was open
+     */
+    boolean beginClose() {
+        if (!closed.compareAndSet(false, true)) {
+            return false;
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops the background threads, as the last step of a close
+     */
+    void endClose() {
+        if (exportExecutor != null) {
+            exportExecutor.shutdown();
+        }
+        synchronized (this) {
+            if (retryExecutor != null) {
+                retryExecutor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Gets the dispatchers of batching mode, the high-priority lane first
+     * @return the dispatchers, which are none if batching is disabled
+     */
+    List<BulkDispatcher> lanes() {
+        List<BulkDispatcher> lanes = new ArrayList<BulkDispatcher>(2);
+        if (urgentDispatcher != null) {
+            lanes.add(urgentDispatcher);
+        }
+        if (dispatcher != null) {
+            lanes.add(dispatcher);
+        }
+        return lanes;
+    }
+
+    /**
+     * Posts a log message to Loggly. In batching mode, the message
+     * is only buffered, to be posted later in a bulk request.
+     * @param message message to be logged
+     * @return {@code true} if successful (or buffered in batching
+     * mode); {@code false} otherwise
+     */
+    public boolean log(String message) {
+        return log(message, (TagSet) null);
+    }
+
+    /**
+     * Posts a log message to Loggly with its own tags, instead of those
+     * set with {@link #setTags}. In batching mode, the message is only
+     * buffered, and is batched with other events of the same tags.
+     * @param message message to be logged
+     * @param tags CSV or list of tags
+     * @return {@code true} if successful (or buffered in batching
+     * mode); {@code false} otherwise
+     * @throws IllegalArgumentException a tag is invalid
+     */
+    public boolean log(String message, String... tags) {
+        return log(message, TagSet.of(tags));
+    }
+
+    /**
+     * Posts a log message to Loggly with its own tags, instead of those
+     * set with {@link #setTags}. In batching mode, the message is only
+     * buffered, and is batched with other events of the same tags.
+     * @param message message to be logged
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return {@code true} if successful (or buffered in batching
+     * mode); {@code false} otherwise
+     */
+    public boolean log(String message, TagSet tags) {
+        return log(message, tags, Priority.NORMAL);
+    }
+
+    /**
+     * Posts a log message to Loggly with a priority, which decides
+     * whether it is throttled or sampled under a {@link RateLimit}, and
+     * whether it is buffered in the high-priority lane of the
+     * {@link BatchOptions#highPriorityLane batching options}
+     * @param message message to be logged
+     * @param priority priority of the message
+     * @return {@code true} if successful (or buffered in batching
+     * mode, or discarded by sampling or as a repeat); {@code false}
+     * otherwise
+     */
+    public boolean log(String message, Priority priority) {
+        return log(message, null, priority);
+    }
+
+    /**
+     * Posts a log message to Loggly with its own tags and a priority
+     * @param message message to be logged
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param priority priority of the message, or {@code null} for
+     *                 {@link Priority#NORMAL}
+     * @return {@code true} if successful (or buffered in batching
+     * mode, or discarded by sampling or as a repeat); {@code false}
+     * otherwise
+     * @see #log(String, TagSet)
+     * @see #log(String, Priority)
+     */
+    public boolean log(String message, TagSet tags, Priority priority) {
+        if (message == null) return false;
+        if (dispatcher != null && lane(priority).isRepeat(message, tags)) return true;
+        if (!acquire(message, priority)) return false;
+        if (dispatcher != null) return offer(message, tags, priority);
+
+        final int bytes = EventEncoder.utf8Length(message);
+        metrics.eventsEnqueued.increment();
+        metrics.bytesEnqueued.add(bytes);
+        boolean ok;
+        try {
+            ok = execute(TransportRequest.single(token, header(tags), message), metrics.logLatency, 1, bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        } catch (Exception e) {
+            // already recorded in the metrics by execute()
+            ok = false;
+        }
+        return ok;
+    }
+
+    /**
+     * Takes the tokens of an event from the rate limit buckets.
+     * High-priority events always get their tokens, possibly delaying
+     * later events.
+     * @param event {@code String} or {@link LogglyEvent}
+     * @param priority priority of the event, or {@code null} for normal
+     * @return {@code true} if the event may be logged; {@code false}
+     * if it was throttled
+     */
+    private boolean acquire(Object event, Priority priority) {
+        if (eventBucket == null && byteBucket == null) {
+            return true;
+        }
+        final boolean force = priority == Priority.HIGH;
+        if ((eventBucket == null || eventBucket.tryAcquire(1, force))
+                && (byteBucket == null || byteBucket.tryAcquire(
+                        EventEncoder.encodedLength(event, BulkRequestBody.MAX_EVENT_BYTES), force))) {
+            return true;
+        }
+        metrics.eventsThrottled.increment();
+        return false;
+    }
+
+    /**
+     * Buffers an event in batching mode, unless adaptive sampling
+     * discards it. A sampled event is buffered along with its sample rate.
+     * @param event event to be buffered
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param priority priority of the event, or {@code null} for normal
+     * @return {@code true} if buffered, spilled, or discarded by
+     * sampling; {@code false} if dropped by the overflow policy or
+     * the client is closed
+     */
+    private boolean offer(Object event, TagSet tags, Priority priority) {
+        if (closed.get()) {
+            return false;
+        }
+        if (rateLimit != null && rateLimit.isAdaptiveSampling()) {
+            int rate = rateLimit.sampleRate(priority != null ? priority : Priority.NORMAL, dispatcher.fill());
+            if (rate > 1) {
+                if (SAMPLING_RANDOM.get().nextInt(rate) != 0) {
+                    metrics.eventsSampledOut.increment();
+                    return true;
+                }
+                event = new SampledEvent(event, rate);
+            }
+        }
+        if (lane(priority).offer(event, tags, priority)) {
+            metrics.eventsEnqueued.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the dispatcher that buffers the events of a priority
+     * @param priority priority of the event, or {@code null} for normal
+     * @return the high-priority lane for high-priority events, if
+     * enabled; the main dispatcher otherwise
+     */
+    private BulkDispatcher lane(Priority priority) {
+        return priority == Priority.HIGH && urgentDispatcher != null ? urgentDispatcher : dispatcher;
+    }
+
+    /**
+     * Gets the number of events buffered by all lanes
+     * @return the number of buffered events
+     */
+    private int depth() {
+        return dispatcher.depth() + (urgentDispatcher != null ? urgentDispatcher.depth() : 0);
+    }
+
+    /**
+     * Gets the time left until a deadline
+     * @param deadline {@link System#nanoTime()} of the deadline
+     * @return the remaining milliseconds, or 0 if the deadline passed
+     */
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    /**
+     * Gets the value of the tags header of a request
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return the CSV of tags, or {@code null} to omit the header
+     */
+    private String header(TagSet tags) {
+        return (tags != null ? tags : this.tags).header();
+    }
+
+    /**
+     * Posts a structured event to Loggly as a JSON object, serialized
+     * straight into the request. In batching mode, the event is only
+     * buffered, so it must not be modified afterwards.
+     * @param event event to be logged
+     * @return {@code true} if successful (or buffered in batching
+     * mode); {@code false} otherwise
+     */
+    public boolean logEvent(LogglyEvent event) {
+        return logEvent(event, null);
+    }
+
+    /**
+     * Posts a structured event to Loggly as a JSON object, with its own
+     * tags instead of those set with {@link #setTags}
+     * @param event event to be logged
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return {@code true} if successful (or buffered in batching
+     * mode); {@code false} otherwise
+     * @see #logEvent(LogglyEvent)
+     */
+    public boolean logEvent(LogglyEvent event, TagSet tags) {
+        return logEvent(event, tags, Priority.NORMAL);
+    }
+
+    /**
+     * Posts a structured event to Loggly as a JSON object, with its own
+     * tags and a priority
+     * @param event event to be logged
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param priority priority of the event, or {@code null} for
+     *                 {@link Priority#NORMAL}
+     * @return {@code true} if successful (or buffered in batching
+     * mode, or discarded by sampling); {@code false} otherwise
+     * @see #logEvent(LogglyEvent, TagSet)
+     * @see #log(String, TagSet, Priority)
+     */
+    public boolean logEvent(LogglyEvent event, TagSet tags, Priority priority) {
+        if (event == null) return false;
+        if (!acquire(event, priority)) return false;
+        if (dispatcher != null) return offer(event, tags, priority);
+        return postBulk(Collections.singletonList(event), tags);
+    }
+
+    /**
+     * Posts a log message asynchronously to Loggly
+     * @param message message to be logged
+     * @param callback callback to be invoked on completion of the post
+     */
+    public void log(String message, final Callback callback) {
+        if (message == null) return;
+        enqueue(message, null, completion(callback));
+    }
+
+    /**
+     * Posts a log message asynchronously to Loggly, bypassing the
+     * batching buffer. The future completes once Loggly acknowledges
+     * the event, or fails with a {@link LogglyException} if Loggly
+     * rejects it (after any retries of the {@link RetryPolicy}), or with
+     * an {@link IOException} if it cannot be reached.
+     * <p>
+     * The calling thread never blocks: requests beyond the max number
+     * in flight wait in the transport's queue. Requires Android 7.0
+     * (API level 24) or later.
+     * @param message message to be logged
+     * @return the future response
+     */
+    public CompletableFuture<LogglyResponse> logAsync(String message) {
+        return logAsync(message, null);
+    }
+
+    /**
+     * Posts a log message asynchronously to Loggly with its own tags,
+     * instead of those set with {@link #setTags}
+     * @param message message to be logged
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return the future response
+     * @see #logAsync(String)
+     */
+    public CompletableFuture<LogglyResponse> logAsync(String message, TagSet tags) {
+        CompletableFuture<LogglyResponse> future = new CompletableFuture<LogglyResponse>();
+        if (message == null) {
+            future.completeExceptionally(new IllegalArgumentException("message cannot be null"));
+        } else {
+            enqueue(message, tags, completion(future));
+        }
+        return future;
+    }
+
+    /**
+     * Posts several log messages asynchronously in bulk to Loggly. A
+     * bulk upload that is split into several requests completes once
+     * all of them do, and fails if any of them fails.
+     * @param messages messages to be logged
+     * @return the future response
+     * @see #logAsync(String)
+     */
+    public CompletableFuture<LogglyResponse> logBulkAsync(Collection<String> messages) {
+        return logBulkAsync(messages, null);
+    }
+
+    /**
+     * Posts several log messages asynchronously in bulk to Loggly with
+     * their own tags, instead of those set with {@link #setTags}
+     * @param messages messages to be logged
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return the future response
+     * @see #logBulkAsync(Collection)
+     */
+    public CompletableFuture<LogglyResponse> logBulkAsync(Collection<String> messages, TagSet tags) {
+        CompletableFuture<LogglyResponse> future = new CompletableFuture<LogglyResponse>();
+        if (messages == null) {
+            future.completeExceptionally(new IllegalArgumentException("messages cannot be null"));
+        } else {
+            enqueueBulk(messages, tags, null, completion(future));
+        }
+        return future;
+    }
+
+    /**
+     * Receives the outcome of an asynchronous request
+     */
+    private interface Completion {
+        /**
+         * Called when Loggly acknowledged the request
+         * @param response response from Loggly
+         */
+        void succeeded(LogglyResponse response);
+
+        /**
+         * Called when the request failed for good
+         * @param error cause of the failure
+         */
+        void failed(Throwable error);
+    }
+
+    private Completion completion(final CompletableFuture<LogglyResponse> future) {
+        return dispatched(new Completion() {
+            @Override
+            public void succeeded(LogglyResponse response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                future.completeExceptionally(error);
+            }
+        });
+    }
+
+    private Completion completion(final Callback callback) {
+        return dispatched(new Completion() {
+            @Override
+            public void succeeded(LogglyResponse response) {
+                callback.success();
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                callback.failure(error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Runs a completion on the callback executor, if any. A completion
+     * rejected by the executor (e.g., after it was shut down) runs on
+     * the calling thread.
+     * @param completion completion to be run
+     * @return the dispatching completion
+     */
+    private Completion dispatched(final Completion completion) {
+        final Executor executor = callbackExecutor;
+        if (executor == null) {
+            return completion;
+        }
+        return new Completion() {
+            @Override
+            public void succeeded(final LogglyResponse response) {
+                run(new Runnable() {
+                    @Override
+                    public void run() {
+                        completion.succeeded(response);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(final Throwable error) {
+                run(new Runnable() {
+                    @Override
+                    public void run() {
+                        completion.failed(error);
+                    }
+                });
+            }
+
+            private void run(Runnable task) {
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    task.run();
+                }
+            }
+        };
+    }
+
+    /**
+     * Sends a single event asynchronously
+     * @param message message to be logged
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param completion receiver of the outcome
+     */
+    private void enqueue(String message, TagSet tags, Completion completion) {
+        final int bytes = EventEncoder.utf8Length(message);
+        metrics.eventsEnqueued.increment();
+        metrics.bytesEnqueued.add(bytes);
+        new AsyncCall(TransportRequest.single(token, header(tags), message), metrics.logLatency, 1, bytes,
+                completion).send();
+    }
+
+    /**
+     * Posts events in bulk asynchronously, as a dispatcher with adaptive
+     * concurrency does. Each request holds an in-flight slot until it
+     * completes, including its retries.
+     * @param messages events to be logged, each a {@code String} or a
+     *                 {@link LogglyEvent}
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param slots in-flight slots of the requests, or {@code null} if unlimited
+     * @param callback receiver of the outcome, called from a transport
+     *                 or retry thread
+     */
+    void postBulkAsync(Collection<?> messages, TagSet tags, Semaphore slots, final Callback callback) {
+        enqueueBulk(messages, tags, slots, new Completion() {
+            @Override
+            public void succeeded(LogglyResponse response) {
+                callback.success();
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                callback.failure(error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Sends events in bulk asynchronously, in as many requests as needed
+     * @param messages events to be logged, each a {@code String} or a
+     *                 {@link LogglyEvent}
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param slots in-flight slots of the requests, or {@code null} if unlimited
+     * @param completion receiver of the outcome
+     */
+    private void enqueueBulk(Collection<?> messages, TagSet tags, Semaphore slots, final Completion completion) {
+        List<BulkRequestBody> bodies = BulkRequestBody.split(messages, compressionLevel, compressionMinBytes);
+        if (bodies.isEmpty()) {
+            completion.failed(new IllegalArgumentException("messages cannot be empty"));
+            return;
+        }
+
+        Completion part = completion;
+        if (bodies.size() > 1) {
+            final AtomicInteger remaining = new AtomicInteger(bodies.size());
+            final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+            part = new Completion() {
+                @Override
+                public void succeeded(LogglyResponse response) {
+                    if (remaining.decrementAndGet() == 0) {
+                        finish(response);
+                    }
+                }
+
+                @Override
+                public void failed(Throwable error) {
+                    firstError.compareAndSet(null, error);
+                    if (remaining.decrementAndGet() == 0) {
+                        finish(null);
+                    }
+                }
+
+                private void finish(LogglyResponse response) {
+                    Throwable error = firstError.get();
+                    if (error != null) {
+                        completion.failed(error);
+                    } else {
+                        completion.succeeded(response);
+                    }
+                }
+            };
+        }
+
+        final String header = header(tags);
+        for (BulkRequestBody body : bodies) {
+            metrics.eventsEnqueued.add(body.eventCount());
+            metrics.bytesEnqueued.add(body.encodedLength());
+        }
+        for (BulkRequestBody body : bodies) {
+            Completion done = part;
+            if (slots != null) {
+                try {
+                    slots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    metrics.eventsFailed.add(body.eventCount());
+                    part.failed(e);
+                    continue;
+                }
+                done = released(part, slots);
+            }
+            new AsyncCall(TransportRequest.bulk(token, header, body), metrics.logBulkLatency,
+                    body.eventCount(), body.encodedLength(), done).send();
+        }
+    }
+
+    /**
+     * Frees an in-flight slot when a request completes
+     * @param completion receiver of the outcome
+     * @param slots slots that the request holds one of
+     * @return the releasing completion
+     */
+    private static Completion released(final Completion completion, final Semaphore slots) {
+        return new Completion() {
+            @Override
+            public void succeeded(LogglyResponse response) {
+                slots.release();
+                completion.succeeded(response);
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                slots.release();
+                completion.failed(error);
+            }
+        };
+    }
+
+    /**
+     * Asynchronous request, which is retried from the retry executor
+     * according to the {@link RetryPolicy}, and succeeds only if Loggly
+     * answers with HTTP 2xx and an "ok" response
+     */
+    private final class AsyncCall implements Transport.Callback {
+        private final LatencyHistogram latency;
+        private final int events;
+        private final long bytes;
+        private final Completion completion;
+        private final RetryPolicy policy = retryPolicy;
+        private final CircuitBreaker breaker = LogglyClient.this.breaker;
+        private final TransportRequest request;
+        private int attempt;
+        private long start;
+
+        AsyncCall(TransportRequest request, LatencyHistogram latency, int events, long bytes, Completion completion) {
+            this.request = request;
+            this.latency = latency;
+            this.events = events;
+            this.bytes = bytes;
+            this.completion = completion;
+        }
+
+        /**
+         * Sends the next attempt of the request
+         */
+        void send() {
+            if (++attempt > 1) {
+                metrics.eventsRetried.add(events);
+                metrics.bytesRetried.add(bytes);
+            }
+            if (!breaker.allowRequest()) {
+                metrics.eventsFailed.add(events);
+                completion.failed(new LogglyException(0, "circuit breaker is open"));
+                return;
+            }
+            metrics.inFlightRequests.incrementAndGet();
+            start = System.nanoTime();
+            try {
+                transport.enqueue(request, this);
+            } catch (RuntimeException e) {
+                // never sent, so the breaker learns nothing from it
+                end();
+                breaker.cancel();
+                metrics.eventsFailed.add(events);
+                completion.failed(e);
+            }
+        }
+
+        @Override
+        public void onResponse(TransportResponse response) {
+            end();
+            final int code = response.getCode();
+            metrics.recordStatus(code);
+            if (response.isSuccessful() || !isRetryable(code)) {
+                breaker.onSuccess();
+                LogglyResponse body = response.getBody();
+                if (isAccepted(response)) {
+                    completed(true, events, bytes);
+                    completion.succeeded(body);
+                } else {
+                    completed(false, events, bytes);
+                    completion.failed(response.isSuccessful()
+                            ? new LogglyException(code, "unexpected response: " + (body != null ? body.getText() : null))
+                            : new LogglyException(code, "HTTP " + code + " " + response.getMessage()));
+                }
+                return;
+            }
+            breaker.onFailure();
+            retryOrFail(retryAfterMillis(response), new LogglyException(code, "HTTP " + code + " " + response.getMessage()));
+        }
+
+        @Override
+        public void onFailure(IOException error) {
+            end();
+            metrics.requestErrors.increment();
+            breaker.onFailure();
+            retryOrFail(0, error);
+        }
+
+        private void end() {
+            latency.record(System.nanoTime() - start);
+            metrics.inFlightRequests.decrementAndGet();
+        }
+
+        private void retryOrFail(long retryAfterMillis, Throwable error) {
+            if (attempt >= policy.getMaxAttempts()) {
+                metrics.eventsFailed.add(events);
+                completion.failed(error);
+                return;
+            }
+            long delay = Math.max(policy.backoffMillis(attempt, random),
+                    Math.min(retryAfterMillis, policy.getMaxBackoffMillis()));
+            try {
+                retryExecutor().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        send();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the client (or its router) was closed
+                metrics.eventsFailed.add(events);
+                completion.failed(error);
+            }
+        }
+    }
+
+    /**
+     * Gets the executor of asynchronous retries, creating it if needed
+     * @return the executor
+     */
+    private synchronized ScheduledExecutorService retryExecutor() {
+        if (sharedScheduler != null) {
+            return sharedScheduler;
+        }
+        if (retryExecutor == null) {
+            retryExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreads("loggly-retry"));
+        }
+        return retryExecutor;
+    }
+
+    /**
+     * Posts several log messages in bulk to Loggly
+     * @param messages messages to be logged
+     * @return {@code true} if successful; {@code false} otherwise
+     */
+    public boolean logBulk(String... messages) {
+        if (messages == null) return false;
+        return logBulk(Arrays.asList(messages));
+    }
+
+    /**
+     * Posts several log messages in bulk to Loggly. The messages are
+     * streamed to the network as the request is sent, so the collection
+     * must not be modified until this returns. Messages that exceed
+     * Loggly's bulk size limit are split into several requests, which
+     * are sent in parallel, and oversized events are truncated.
+     * @param messages messages to be logged
+     * @return {@code true} if successful; {@code false} otherwise
+     */
+    public boolean logBulk(Collection<String> messages) {
+        if (messages == null) return false;
+        return postBulk(messages, null);
+    }
+
+    /**
+     * Posts several structured events in bulk to Loggly, each as a
+     * JSON object serialized straight into the request
+     * @param events events to be logged
+     * @return {@code true} if successful; {@code false} otherwise
+     */
+    public boolean logEvents(LogglyEvent... events) {
+        if (events == null) return false;
+        return postBulk(Arrays.asList(events), null);
+    }
+
+    /**
+     * Posts several structured events in bulk to Loggly, each as a
+     * JSON object serialized straight into the request
+     * @param events events to be logged
+     * @return {@code true} if successful; {@code false} otherwise
+     */
+    public boolean logEvents(Collection<LogglyEvent> events) {
+        if (events == null) return false;
+        return postBulk(events, null);
+    }
+
+    /**
+     * Posts events in bulk to Loggly, splitting them into several
+     * requests if needed
+     * @param messages events to be logged, each a {@code String} or a
+     *                 {@link LogglyEvent}
+     * @param tags tag set, or {@code null} for the client's tags
+     * @return {@code true} if successful; {@code false} otherwise
+     */
+    boolean postBulk(Collection<?> messages, TagSet tags) {
+        return postBulk(messages, tags, inFlight);
+    }
+
+    /**
+     * Posts events in bulk to Loggly, splitting them into several
+     * requests if needed
+     * @param messages events to be logged, each a {@code String} or a
+     *                 {@link LogglyEvent}
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param slots in-flight slots of the requests, or {@code null} if unlimited
+     * @return {@code true} if successful; {@code false} otherwise
+     */
+    boolean postBulk(Collection<?> messages, TagSet tags, Semaphore slots) {
+        List<BulkRequestBody> bodies = BulkRequestBody.split(messages, compressionLevel, compressionMinBytes);
+        if (bodies.isEmpty()) return false;
+        for (BulkRequestBody body : bodies) {
+            metrics.eventsEnqueued.add(body.eventCount());
+            metrics.bytesEnqueued.add(body.encodedLength());
+        }
+
+        boolean ok;
+        try {
+            if (bodies.size() == 1) {
+                BulkRequestBody body = bodies.get(0);
+                ok = execute(TransportRequest.bulk(token, header(tags), body), 1, metrics.logBulkLatency,
+                        body.eventCount(), body.encodedLength(), slots);
+            } else {
+                // the bodies are sent in parallel, and those that fail
+                // transiently are retried together after each backoff
+                int[] outcomes = sendAll(bodies, Collections.nCopies(bodies.size(), tags), NO_DEADLINE,
+                        new AtomicLong(), new AtomicLong(), slots);
+                ok = true;
+                for (int outcome : outcomes) {
+                    ok &= outcome == SENT;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        } catch (Exception e) {
+            // already recorded in the metrics by execute()
+            ok = false;
+        }
+        return ok;
+    }
+
+    /**
+     * Posts events that are already encoded for Loggly's bulk endpoint,
+     * such as those read from a {@link DiskSpool}
+     * @param encoded escaped UTF-8 events, each terminated by a new-line
+     * @param count number of events
+     * @param tags tag set, or {@code null} for the client's tags
+     * @param slots in-flight slots of the request, or {@code null} if unlimited
+     * @return {@code true} if successful; {@code false} otherwise
+     */
+    boolean logBulk(ByteBuffer encoded, int count, TagSet tags, Semaphore slots) {
+        if (!encoded.hasRemaining()) return false;
+
+        BulkRequestBody body = new BulkRequestBody(encoded, count, compressionLevel, compressionMinBytes);
+        boolean ok;
+        try {
+            ok = execute(TransportRequest.bulk(token, header(tags), body), 1, metrics.logBulkLatency,
+                    count, body.encodedLength(), slots);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ok = false;
+        } catch (Exception e) {
+            // already recorded in the metrics by execute()
+            ok = false;
+        }
+        return ok;
+    }
+
+    /**
+     * Sends a request and waits for its response, retrying it
+     * according to the retry policy
+     * @param request request to be sent
+     * @param latency histogram of the request's REST method
+     * @param events number of events in the request
+     * @param bytes encoded size of the events
+     * @return {@code true} if Loggly accepted the request; {@code false} otherwise
+     * @throws IOException the request could not be sent
+     * @throws InterruptedException the thread was interrupted while backing off
+     */
+    private boolean execute(TransportRequest request, LatencyHistogram latency, int events, long bytes)
+            throws IOException, InterruptedException {
+        return execute(request, 1, latency, events, bytes, inFlight);
+    }
+
+    /**
+     * Sends a request and waits for its response, retrying it
+     * according to the retry policy
+     * @param request request to be sent
+     * @param attempt number of the first attempt made here, which is
+     *                greater than 1 if {@code request} has already failed
+     *                (the request is then backed off first)
+     * @param latency histogram of the request's REST method
+     * @param events number of events in the request
+     * @param bytes encoded size of the events
+     * @param slots in-flight slots of the request, or {@code null} if unlimited
+     * @return {@code true} if Loggly accepted the request; {@code false} otherwise
+     * @throws IOException the request could not be sent
+     * @throws InterruptedException the thread was interrupted while backing off
+     */
+    private boolean execute(TransportRequest request, int attempt, LatencyHistogram latency, int events, long bytes,
+                            Semaphore slots) throws IOException, InterruptedException {
+        final RetryPolicy policy = retryPolicy;
+        final CircuitBreaker breaker = this.breaker;
+        long retryAfterMillis = 0;
+
+        for (; ; attempt++) {
+            if (attempt > 1) {
+                long delay = Math.max(policy.backoffMillis(attempt - 1, random),
+                        Math.min(retryAfterMillis, policy.getMaxBackoffMillis()));
+                Thread.sleep(delay);
+                metrics.eventsRetried.add(events);
+                metrics.bytesRetried.add(bytes);
+            }
+
+            try {
+                TransportResponse response = send(request, latency, slots, breaker);
+                if (response == null) {
+                    // the circuit is open
+                    metrics.eventsFailed.add(events);
+                    return false;
+                }
+                if (response.isSuccessful() || !isRetryable(response.getCode())) {
+                    // the endpoint is healthy even if it rejected this request
+                    breaker.onSuccess();
+                    return completed(isAccepted(response), events, bytes);
+                }
+                breaker.onFailure();
+                if (attempt >= policy.getMaxAttempts()) {
+                    return completed(false, events, bytes);
+                }
+                retryAfterMillis = retryAfterMillis(response);
+            } catch (IOException e) {
+                breaker.onFailure();
+                if (attempt >= policy.getMaxAttempts()) {
+                    metrics.eventsFailed.add(events);
+                    throw e;
+                }
+                retryAfterMillis = 0;
+            } catch (RuntimeException e) {
+                // a broken transport, which is not retried
+                metrics.requestErrors.increment();
+                metrics.eventsFailed.add(events);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a request in the metrics
+     * @param ok whether Loggly accepted the request
+     * @param events number of events in the request
+     * @param bytes encoded size of the events
+     * @return {@code ok}
+     */
+    private boolean completed(boolean ok, int events, long bytes) {
+        if (ok) {
+            metrics.eventsSent.add(events);
+            metrics.bytesSent.add(bytes);
+        } else {
+            metrics.eventsFailed.add(events);
+        }
+        return ok;
+    }
+
+    /**
+     * Sends a request once, after waiting for a free in-flight slot, if
+     * the circuit breaker allows it. The caller reports the response or
+     * the {@code IOException} to the breaker; a request that is not sent
+     * for any other reason releases its trial.
+     * @param request request to be sent
+     * @param latency histogram of the request's REST method
+     * @param slots in-flight slots of the request, or {@code null} if unlimited
+     * @param breaker circuit breaker of the request
+     * @return the response, or {@code null} if the circuit is open
+     * @throws IOException the request could not be sent
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    private TransportResponse send(TransportRequest request, LatencyHistogram latency, Semaphore slots,
+                                   CircuitBreaker breaker) throws IOException, InterruptedException {
+        // the slot comes first, so that no trial is held while waiting for it
+        final long start = beginRequest(slots);
+        if (!breaker.allowRequest()) {
+            cancelRequest(slots);
+            return null;
+        }
+        boolean answered = false;
+        try {
+            TransportResponse response = transport.execute(request);
+            answered = true;
+            metrics.recordStatus(response.getCode());
+            return response;
+        } catch (IOException e) {
+            answered = true;
+            metrics.requestErrors.increment();
+            throw e;
+        } finally {
+            endRequest(latency, start, slots);
+            if (!answered) {
+                breaker.cancel();
+            }
+        }
+    }
+
+    /**
+     * Waits for a free in-flight slot before a request is sent
+     * @param slots in-flight slots of the request, or {@code null} if unlimited
+     * @return the start time of the request (from {@link System#nanoTime()})
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    private long beginRequest(Semaphore slots) throws InterruptedException {
+        if (slots != null) {
+            slots.acquire();
+        }
+        metrics.inFlightRequests.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Frees the in-flight slot of a request that was not sent
+     * @param slots in-flight slots of the request, or {@code null} if unlimited
+     */
+    private void cancelRequest(Semaphore slots) {
+        metrics.inFlightRequests.decrementAndGet();
+        if (slots != null) {
+            slots.release();
+        }
+    }
+
+    /**
+     * Frees the in-flight slot of a completed request
+     * @param latency histogram of the request's REST method
+     * @param start start time returned from {@link #beginRequest}
+     * @param slots in-flight slots of the request, or {@code null} if unlimited
+     */
+    private void endRequest(LatencyHistogram latency, long start, Semaphore slots) {
+        latency.record(System.nanoTime() - start);
+        metrics.inFlightRequests.decrementAndGet();
+        if (slots != null) {
+            slots.release();
+        }
+    }
+
+    /**
+     * Splits events into the bodies of bulk requests with the current
+     * compression settings
+     * @param messages events to be sent, each a {@code String} or a
+     *                 {@link LogglyEvent}
+     * @return the bodies
+     */
+    List<BulkRequestBody> bulkBodies(Collection<?> messages) {
+        return BulkRequestBody.split(messages, compressionLevel, compressionMinBytes);
+    }
+
+    /**
+     * Creates the body of a bulk request from already encoded events
+     * @param encoded escaped UTF-8 events, each terminated by a new-line
+     * @param count number of events
+     * @return the body
+     */
+    BulkRequestBody bulkBody(ByteBuffer encoded, int count) {
+        return new BulkRequestBody(encoded, count, compressionLevel, compressionMinBytes);
+    }
+
+    /**
+     * Sends bulk requests in parallel, as when the buffer is drained,
+     * and waits for them until a deadline. Requests that fail
+     * transiently are sent again in parallel after the backoff (or the
+     * longest Retry-After of their responses), while time remains. Requests that could not get an in-flight slot or an
+     * answer by the deadline are left pending.
+     * @param bodies bodies of the requests
+     * @param tagSets tag set of each request, or {@code null} for the
+     *                client's tags
+     * @param deadline {@link System#nanoTime()} by which to give up, or
+     *                 {@link #NO_DEADLINE} to wait for all requests
+     * @param sent incremented by the events of each accepted request
+     * @param failed incremented by the events of each failed request
+     * @param slots in-flight slots of the requests, or {@code null} if unlimited
+     * @return the outcome of each request: {@link #SENT},
+     * {@link #FAILED} or {@link #PENDING}
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    int[] sendAll(List<BulkRequestBody> bodies, List<TagSet> tagSets, long deadline,
+                  final AtomicLong sent, final AtomicLong failed, final Semaphore slots)
+            throws InterruptedException {
+        final int n = bodies.size();
+        final AtomicIntegerArray outcomes = new AtomicIntegerArray(n);
+        // delay requested by each response, written before its count-down
+        final long[] retryAfter = new long[n];
+        final List<TransportRequest> requests = new ArrayList<TransportRequest>(n);
+        List<Integer> todo = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++) {
+            requests.add(TransportRequest.bulk(token, header(tagSets.get(i)), bodies.get(i)));
+            todo.add(i);
+        }
+
+        final RetryPolicy policy = retryPolicy;
+        final CircuitBreaker breaker = this.breaker;
+        long retryAfterMillis = 0;
+        for (int attempt = 1; !todo.isEmpty(); attempt++) {
+            if (attempt > 1) {
+                long delay = TimeUnit.MILLISECONDS.toNanos(Math.max(policy.backoffMillis(attempt - 1, random),
+                        Math.min(retryAfterMillis, policy.getMaxBackoffMillis())));
+                if (remaining(deadline) <= delay) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+
+            final CountDownLatch done = new CountDownLatch(todo.size());
+            for (final int index : todo) {
+                final BulkRequestBody body = bodies.get(index);
+                if (attempt > 1) {
+                    metrics.eventsRetried.add(body.eventCount());
+                    metrics.bytesRetried.add(body.encodedLength());
+                }
+                // the slot comes first, so that no trial is held while waiting for it
+                if (slots != null && !slots.tryAcquire(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                    outcomes.set(index, PENDING);
+                    done.countDown();
+                    continue;
+                }
+                metrics.inFlightRequests.incrementAndGet();
+                if (!breaker.allowRequest()) {
+                    cancelRequest(slots);
+                    metrics.eventsFailed.add(body.eventCount());
+                    failed.addAndGet(body.eventCount());
+                    outcomes.set(index, FAILED);
+                    done.countDown();
+                    continue;
+                }
+                final long start = System.nanoTime();
+                final Transport.Callback callback = new Transport.Callback() {
+                    @Override
+                    public void onResponse(TransportResponse response) {
+                        endRequest(metrics.logBulkLatency, start, slots);
+                        metrics.recordStatus(response.getCode());
+                        if (response.isSuccessful() || !isRetryable(response.getCode())) {
+                            breaker.onSuccess();
+                            boolean ok = completed(isAccepted(response), body.eventCount(), body.encodedLength());
+                            (ok ? sent : failed).addAndGet(body.eventCount());
+                            outcomes.set(index, ok ? SENT : FAILED);
+                        } else {
+                            breaker.onFailure();
+                            retryAfter[index] = retryAfterMillis(response);
+                            outcomes.set(index, RETRY);
+                        }
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(IOException error) {
+                        endRequest(metrics.logBulkLatency, start, slots);
+                        metrics.requestErrors.increment();
+                        breaker.onFailure();
+                        retryAfter[index] = 0;
+                        outcomes.set(index, RETRY);
+                        done.countDown();
+                    }
+                };
+                try {
+                    transport.enqueue(requests.get(index), callback);
+                } catch (RuntimeException e) {
+                    // never sent, so the breaker learns nothing from it
+                    cancelRequest(slots);
+                    breaker.cancel();
+                    metrics.eventsFailed.add(body.eventCount());
+                    failed.addAndGet(body.eventCount());
+                    outcomes.set(index, FAILED);
+                    done.countDown();
+                }
+            }
+            if (!done.await(remaining(deadline), TimeUnit.NANOSECONDS)) {
+                break;
+            }
+
+            // the next round waits at least as long as any response asked
+            List<Integer> retries = new ArrayList<Integer>();
+            retryAfterMillis = 0;
+            for (int index : todo) {
+                if (outcomes.get(index) != RETRY) {
+                    continue;
+                }
+                if (attempt < policy.getMaxAttempts()) {
+                    retries.add(index);
+                    retryAfterMillis = Math.max(retryAfterMillis, retryAfter[index]);
+                } else {
+                    int events = bodies.get(index).eventCount();
+                    metrics.eventsFailed.add(events);
+                    failed.addAndGet(events);
+                    outcomes.set(index, FAILED);
+                }
+            }
+            todo = retries;
+        }
+
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            int outcome = outcomes.get(i);
+            result[i] = outcome == RETRY ? PENDING : outcome;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the time left until a deadline
+     * @param deadline {@link System#nanoTime()} of the deadline, or {@link #NO_DEADLINE}
+     * @return the time in nanoseconds (at least 0)
+     */
+    private static long remaining(long deadline) {
+        return deadline == NO_DEADLINE ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * Determines whether a request that failed with an HTTP status
+     * is worth retrying
+     * @param code HTTP status code
+     * @return {@code true} for HTTP 429 (too many requests) and 5xx
+     */
+    private static boolean isRetryable(int code) {
+        return code == 429 || code >= 500;
+    }
+
+    /**
+     * Determines whether Loggly accepted a request, which takes both a
+     * 2xx status and a {"response":"ok"} body. Every send path uses
+     * this, so that a request counts as sent only if acknowledged.
+     * @param response HTTP response
+     * @return {@code true} if accepted
+     */
+    private static boolean isAccepted(TransportResponse response) {
+        LogglyResponse body = response.getBody();
+        return response.isSuccessful() && body != null && body.isOk();
+    }
+
+    /**
+     * Gets the delay requested by the server in a Retry-After header
+     * @param response HTTP response
+     * @return the delay in milliseconds, or 0 if none
+     */
+    private static long retryAfterMillis(TransportResponse response) {
+        String value = response.getRetryAfter();
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                // an HTTP date, which is not worth parsing here
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Posts several log messages in bulk to Loggly asynchronously
+     * @param messages messages to be logged
+     * @param callback callback to be invoked on completion of the post
+     */
+    public void logBulk(Collection<String> messages, final Callback callback) {
+        if (messages == null) return;
+        if (BulkRequestBody.countEvents(messages) == 0) return;
+        enqueueBulk(messages, null, null, completion(callback));
+    }
+}
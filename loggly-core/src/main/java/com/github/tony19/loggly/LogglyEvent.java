@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A structured log event, sent to Loggly as a JSON object.
+ * <p>
+ * Fields are kept in typed arrays and serialized by the client straight
+ * into the UTF-8 bytes of the request, without building a JSON string,
+ * a map or a DOM, and without reflection.
+ * <pre>
+ * loggly.log(new LogglyEvent()
+ *         .put("level", "INFO")
+ *         .put("user", userId)
+ *         .put("latencyMs", 12.5)
+ *         .put("cached", true));
+ * </pre>
+ * An event must not be modified once it has been logged, since it may
+ * be serialized later by a background thread. Keys are written in the
+ * order they were put, and are not de-duplicated.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class LogglyEvent {
+    static final byte STRING = 0;
+    static final byte LONG = 1;
+    static final byte DOUBLE = 2;
+    static final byte BOOLEAN = 3;
+    static final byte NULL = 4;
+    static final byte OBJECT = 5;
+
+    private String[] keys;
+    private byte[] types;
+    private long[] numbers;
+    private Object[] objects;
+    private int size;
+
+    /** Cached JSON length in bytes, or -1 if not yet measured */
+    int encodedLength = -1;
+
+    /**
+     * Creates an empty event
+     */
+    public LogglyEvent() {
+        this(8);
+    }
+
+    /**
+     * Creates an empty event with room for some fields
+     * @param expectedFields number of fields expected to be put
+     */
+    public LogglyEvent(int expectedFields) {
+        if (expectedFields < 0) {
+            throw new IllegalArgumentException("expectedFields cannot be negative");
+        }
+        keys = new String[expectedFields];
+        types = new byte[expectedFields];
+        numbers = new long[expectedFields];
+        objects = new Object[expectedFields];
+    }
+
+    /**
+     * Adds a string field
+     * @param key field name
+     * @param value field value, or {@code null} for a JSON null
+     * @return this {@code LogglyEvent}
+     */
+    public LogglyEvent put(String key, String value) {
+        return add(key, value == null ? NULL : STRING, 0, value);
+    }
+
+    /**
+     * Adds an integer field
+     * @param key field name
+     * @param value field value
+     * @return this {@code LogglyEvent}
+     */
+    public LogglyEvent put(String key, long value) {
+        return add(key, LONG, value, null);
+    }
+
+    /**
+     * Adds a floating-point field. NaN and infinite values, which JSON
+     * cannot represent, are written as null.
+     * @param key field name
+     * @param value field value
+     * @return this {@code LogglyEvent}
+     */
+    public LogglyEvent put(String key, double value) {
+        return add(key, DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    /**
+     * Adds a boolean field
+     * @param key field name
+     * @param value field value
+     * @return this {@code LogglyEvent}
+     */
+    public LogglyEvent put(String key, boolean value) {
+        return add(key, BOOLEAN, value ? 1 : 0, null);
+    }
+
+    /**
+     * Adds a nested object field
+     * @param key field name
+     * @param value nested event (which must not contain this event),
+     *              or {@code null} for a JSON null
+     * @return this {@code LogglyEvent}
+     */
+    public LogglyEvent put(String key, LogglyEvent value) {
+        if (value == this) {
+            throw new IllegalArgumentException("event cannot contain itself");
+        }
+        return add(key, value == null ? NULL : OBJECT, 0, value);
+    }
+
+    /**
+     * Adds a null field
+     * @param key field name
+     * @return this {@code LogglyEvent}
+     */
+    public LogglyEvent putNull(String key) {
+        return add(key, NULL, 0, null);
+    }
+
+    /**
+     * Gets the number of fields
+     * @return the field count
+     */
+    public int size() {
+        return size;
+    }
+
+    private LogglyEvent add(String key, byte type, long number, Object object) {
+        if (key == null) {
+            throw new IllegalArgumentException("key cannot be null");
+        }
+        if (size == keys.length) {
+            int capacity = Math.max(8, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        keys[size] = key;
+        types[size] = type;
+        numbers[size] = number;
+        objects[size] = object;
+        size++;
+        encodedLength = -1;
+        return this;
+    }
+
+    String key(int i) {
+        return keys[i];
+    }
+
+    byte type(int i) {
+        return types[i];
+    }
+
+    long number(int i) {
+        return numbers[i];
+    }
+
+    Object object(int i) {
+        return objects[i];
+    }
+
+    /**
+     * Gets the JSON representation of this event
+     * @return the JSON object
+     */
+    @Override
+    public String toString() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventEncoder encoder = new EventEncoder(out);
+        try {
+            encoder.writeJson(this);
+            encoder.close();
+            return out.toString("UTF-8");
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream, and UTF-8 is always supported
+            throw new AssertionError(e);
+        }
+    }
+}
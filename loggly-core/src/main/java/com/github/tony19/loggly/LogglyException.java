@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.IOException;
+
+/**
+ * Failure of a request that Loggly rejected or did not acknowledge,
+ * or that was refused by the open circuit breaker
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public class LogglyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    /**
+     * Creates an exception
+     * @param statusCode HTTP status code of the response, or 0 if
+     *                   there was none
+     * @param message details about the failure
+     */
+    public LogglyException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Gets the HTTP status code of the response
+     * @return the status code, or 0 if there was no response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
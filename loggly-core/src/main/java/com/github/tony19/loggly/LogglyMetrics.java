@@ -0,0 +1,341 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live metrics of a {@link LogglyClient}: event and byte counters,
+ * HTTP status counts, request latencies, and the current depth of the
+ * buffer and number of requests in flight.
+ * <p>
+ * Counters are striped across cache lines, so updating them from
+ * logging threads is cheap, and reading them never blocks logging.
+ * All values are cumulative since the client was created.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class LogglyMetrics {
+    private static final int MAX_STATUS = 600;
+
+    final StripedCounter eventsEnqueued = new StripedCounter();
+    final StripedCounter bytesEnqueued = new StripedCounter();
+    final StripedCounter eventsSent = new StripedCounter();
+    final StripedCounter bytesSent = new StripedCounter();
+    final StripedCounter eventsDropped = new StripedCounter();
+    private final StripedCounter[] eventsDroppedBy = new StripedCounter[OverflowPolicy.values().length];
+    final StripedCounter eventsSpilled = new StripedCounter();
+    final StripedCounter eventsThrottled = new StripedCounter();
+    final StripedCounter eventsSampledOut = new StripedCounter();
+    final StripedCounter eventsSuppressed = new StripedCounter();
+    final StripedCounter eventsFailed = new StripedCounter();
+    final StripedCounter eventsRetried = new StripedCounter();
+    final StripedCounter bytesRetried = new StripedCounter();
+    final StripedCounter requestErrors = new StripedCounter();
+    final StripedCounter spoolErrors = new StripedCounter();
+    final StripedCounter exportErrors = new StripedCounter();
+    final LatencyHistogram logLatency = new LatencyHistogram();
+    final LatencyHistogram logBulkLatency = new LatencyHistogram();
+    final LatencyHistogram blockLatency = new LatencyHistogram();
+    final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+    private volatile BulkDispatcher dispatcher;
+    private volatile BulkDispatcher urgentDispatcher;
+
+    LogglyMetrics() {
+        for (int i = 0; i < eventsDroppedBy.length; i++) {
+            eventsDroppedBy[i] = new StripedCounter();
+        }
+    }
+
+    /**
+     * Records events dropped because the buffer was full
+     * @param policy overflow policy that dropped the events
+     * @param count number of events dropped
+     */
+    void recordDropped(OverflowPolicy policy, int count) {
+        eventsDropped.add(count);
+        eventsDroppedBy[policy.ordinal()].add(count);
+    }
+
+    /**
+     * Sets the dispatchers whose buffer depths are reported
+     * @param dispatcher dispatcher of the client, or {@code null}
+     * @param urgentDispatcher dispatcher of the high-priority lane, or {@code null}
+     */
+    void setDispatchers(BulkDispatcher dispatcher, BulkDispatcher urgentDispatcher) {
+        this.dispatcher = dispatcher;
+        this.urgentDispatcher = urgentDispatcher;
+    }
+
+    /**
+     * Records the status of an HTTP response
+     * @param code HTTP status code
+     */
+    void recordStatus(int code) {
+        if (code >= 0 && code < MAX_STATUS) {
+            statusCounts.incrementAndGet(code);
+        }
+    }
+
+    /**
+     * Gets the number of events accepted by the client to be sent
+     * @return the event count
+     */
+    public long getEventsEnqueued() {
+        return eventsEnqueued.sum();
+    }
+
+    /**
+     * Gets the size of the events accepted by the client to be sent.
+     * In batching mode, events are measured by the sender thread, so
+     * this may lag behind {@link #getEventsEnqueued()}.
+     * @return the number of encoded bytes
+     */
+    public long getBytesEnqueued() {
+        return bytesEnqueued.sum();
+    }
+
+    /**
+     * Gets the number of events accepted by Loggly
+     * @return the event count
+     */
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    /**
+     * Gets the size of the events accepted by Loggly
+     * @return the number of encoded (uncompressed) bytes
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Gets the number of events dropped because the buffer was full
+     * @return the event count
+     * @see BatchOptions#overflowPolicy(OverflowPolicy)
+     */
+    public long getEventsDropped() {
+        return eventsDropped.sum();
+    }
+
+    /**
+     * Gets the number of events dropped by an overflow policy: the new
+     * events it rejected, or the buffered events it evicted to make room
+     * @param policy overflow policy
+     * @return the event count
+     */
+    public long getEventsDropped(OverflowPolicy policy) {
+        return eventsDroppedBy[policy.ordinal()].sum();
+    }
+
+    /**
+     * Gets the number of events written to the overflow spool because
+     * the buffer was full
+     * @return the event count
+     * @see OverflowPolicy#SPILL_TO_DISK
+     */
+    public long getEventsSpilled() {
+        return eventsSpilled.sum();
+    }
+
+    /**
+     * Gets the number of events rejected by the rate limit
+     * @return the event count
+     * @see RateLimit
+     */
+    public long getEventsThrottled() {
+        return eventsThrottled.sum();
+    }
+
+    /**
+     * Gets the number of events discarded by adaptive sampling
+     * @return the event count
+     * @see RateLimit#adaptiveSampling(double, int)
+     */
+    public long getEventsSampledOut() {
+        return eventsSampledOut.sum();
+    }
+
+    /**
+     * Gets the number of repeated messages that were only counted
+     * @return the event count
+     * @see BatchOptions#suppressRepeats(long, int)
+     */
+    public long getEventsSuppressed() {
+        return eventsSuppressed.sum();
+    }
+
+    /**
+     * Gets the number of events whose request failed after all retries
+     * (or was refused by the open circuit breaker), or that could not
+     * be written to a disk spool. Events in a disk spool are counted on
+     * each failure, and are tried again later.
+     * @return the event count
+     */
+    public long getEventsFailed() {
+        return eventsFailed.sum();
+    }
+
+    /**
+     * Gets the number of events sent again after a failed attempt
+     * @return the event count, counted once per retry
+     */
+    public long getEventsRetried() {
+        return eventsRetried.sum();
+    }
+
+    /**
+     * Gets the size of the events sent again after a failed attempt
+     * @return the number of encoded bytes, counted once per retry
+     */
+    public long getBytesRetried() {
+        return bytesRetried.sum();
+    }
+
+    /**
+     * Gets the number of attempts that failed with an I/O error
+     * (including timeouts) or an exception of the transport, rather
+     * than an HTTP status
+     * @return the attempt count
+     */
+    public long getRequestErrors() {
+        return requestErrors.sum();
+    }
+
+    /**
+     * Gets the number of disk spool operations that failed: events
+     * that could not be written, and sent segment files that could not
+     * be deleted
+     * @return the operation count
+     * @see BatchOptions#spoolDirectory(java.io.File)
+     */
+    public long getSpoolErrors() {
+        return spoolErrors.sum();
+    }
+
+    /**
+     * Gets the number of periodic exports that failed with an exception
+     * @return the export count
+     */
+    public long getExportErrors() {
+        return exportErrors.sum();
+    }
+
+    /**
+     * Gets the number of responses with an HTTP status
+     * @param code HTTP status code
+     * @return the response count
+     */
+    public long getStatusCount(int code) {
+        return code >= 0 && code < MAX_STATUS ? statusCounts.get(code) : 0;
+    }
+
+    /**
+     * Gets the number of responses of each HTTP status received so far
+     * @return the response counts, keyed by status code
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (int i = 0; i < MAX_STATUS; i++) {
+            long n = statusCounts.get(i);
+            if (n > 0) {
+                counts.put(i, n);
+            }
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Gets the latencies of single-event requests (to Loggly's
+     * {@code inputs} endpoint)
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLogLatency() {
+        return logLatency;
+    }
+
+    /**
+     * Gets the latencies of bulk requests (to Loggly's {@code bulk}
+     * endpoint)
+     * @return the latency histogram
+     */
+    public LatencyHistogram getLogBulkLatency() {
+        return logBulkLatency;
+    }
+
+    /**
+     * Gets the times that logging threads waited for room in a full
+     * buffer, whether or not room was found in time
+     * @return the latency histogram
+     * @see OverflowPolicy#BLOCK
+     */
+    public LatencyHistogram getBlockLatency() {
+        return blockLatency;
+    }
+
+    /**
+     * Gets the approximate number of events waiting in the buffer to
+     * be sent (batching mode only)
+     * @return the event count
+     */
+    public int getBufferedEvents() {
+        BulkDispatcher d = dispatcher;
+        BulkDispatcher u = urgentDispatcher;
+        return (d != null ? d.depth() : 0) + (u != null ? u.depth() : 0);
+    }
+
+    /**
+     * Gets the batch size currently chosen by adaptive batching
+     * @return the batch size in bytes, or 0 if batches are fixed
+     * @see BatchOptions#adaptive(long)
+     */
+    public int getAdaptiveBatchBytes() {
+        AdaptiveLimit limit = adaptiveLimit();
+        return limit != null ? limit.getBatchBytes() : 0;
+    }
+
+    /**
+     * Gets the number of concurrent bulk requests currently allowed by
+     * adaptive batching
+     * @return the request count, or 0 if batches are fixed
+     * @see BatchOptions#adaptive(long)
+     */
+    public int getAdaptiveConcurrency() {
+        AdaptiveLimit limit = adaptiveLimit();
+        return limit != null ? limit.getConcurrency() : 0;
+    }
+
+    private AdaptiveLimit adaptiveLimit() {
+        BulkDispatcher d = dispatcher;
+        return d != null ? d.adaptiveLimit() : null;
+    }
+
+    /**
+     * Gets the number of requests currently being sent
+     * @return the request count
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+}
@@ -24,7 +24,7 @@ import java.io.Serializable;
  *
  * @author tony19@gmail.com
  */
-class LogglyResponse implements Serializable {
+public class LogglyResponse implements Serializable {
 
     /** Response value for success */
     public static final String SUCCESS_VALUE = "ok";
@@ -49,6 +49,34 @@ class LogglyResponse implements Serializable {
         this.response = text;
     }
 
+    /**
+     * Parses a response body, such as {@code {"response":"ok"}}, without
+     * a JSON library
+     * @param json text of the body, or {@code null}
+     * @return the response, or {@code null} if the body has no
+     * "response" string
+     */
+    static LogglyResponse parse(String json) {
+        if (json == null) return null;
+        final String key = "\"response\"";
+        int i = json.indexOf(key);
+        if (i < 0) return null;
+        i = skipSpaces(json, i + key.length());
+        if (i >= json.length() || json.charAt(i) != ':') return null;
+        i = skipSpaces(json, i + 1);
+        if (i >= json.length() || json.charAt(i) != '"') return null;
+        int end = json.indexOf('"', i + 1);
+        if (end < 0) return null;
+        return new LogglyResponse(json.substring(i + 1, end));
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
     /**
      * Gets the text value of the response
      * @return the response as a string
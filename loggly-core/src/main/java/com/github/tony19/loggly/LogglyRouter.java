@@ -0,0 +1,498 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+
+/**
+ * Routes the events of many Loggly tokens (e.g., one per tenant) and
+ * endpoints (e.g., regional proxies) over one set of threads and
+ * connections, instead of a {@link LogglyClient} with its own stack
+ * per token.
+ * <p>
+ * Each (endpoint, token) pair is a shard: a client that is created
+ * when first used, with its own buffer, batches, retry state and
+ * {@link LogglyMetrics}. The sender loops of all shards run in turns on
+ * a few shared sender threads, and their requests go through one
+ * transport per endpoint, whose connections are kept alive in the JDK's
+ * pool and whose asynchronous requests share one pool of threads.
+ * <p>
+ * A shard posts its batches asynchronously, with at most
+ * {@link Builder#maxInFlightRequestsPerShard(int)} requests in flight,
+ * and stops draining its buffer while they are all pending. So a slow
+ * or failing endpoint or token only fills the buffer of its own shards,
+ * whose {@link OverflowPolicy} applies, and never holds a sender thread
+ * while waiting for Loggly. A flush or close drains all shards in
+ * parallel, within one deadline, though each drain holds a sender
+ * thread until its requests are done.
+ * <pre>
+ * LogglyRouter router = new LogglyRouter.Builder()
+ *         .batching(new BatchOptions().maxLingerMillis(1000))
+ *         .build();
+ * router.shard(tenant.getLogglyToken()).log(message);
+ * </pre>
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class LogglyRouter implements Closeable {
+    private final String endpoint;
+    private final int maxInFlightRequestsPerShard;
+    private final long connectTimeoutMillis;
+    private final long readTimeoutMillis;
+    private final BatchOptions batching;
+    private final int compressionLevel;
+    private final int compressionMinBytes;
+    private final RetryPolicy retryPolicy;
+    private final String[] tags;
+    /** Runs the sender loops and the retries of all shards */
+    private final ScheduledThreadPoolExecutor scheduler;
+    /** Runs the asynchronous requests of all transports */
+    private final ThreadPoolExecutor requestExecutor;
+    /** Transports by endpoint */
+    private final ConcurrentMap<String, Transport> transports = new ConcurrentHashMap<String, Transport>();
+    /** Shards by endpoint, then by token */
+    private final ConcurrentMap<String, ConcurrentMap<String, LogglyClient>> shards =
+            new ConcurrentHashMap<String, ConcurrentMap<String, LogglyClient>>();
+    /** Closes the router when the JVM shuts down, or {@code null} if disabled */
+    private final Thread shutdownHook;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private LogglyRouter(Builder builder) {
+        this.endpoint = builder.endpoint;
+        this.maxInFlightRequestsPerShard = builder.maxInFlightRequestsPerShard;
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.readTimeoutMillis = builder.readTimeoutMillis;
+        this.batching = builder.batching != null ? new BatchOptions(builder.batching) : null;
+        this.compressionLevel = builder.compressionLevel;
+        this.compressionMinBytes = builder.compressionMinBytes;
+        this.retryPolicy = new RetryPolicy(builder.retryPolicy);
+        this.tags = builder.tags != null ? builder.tags.clone() : null;
+        this.scheduler = new ScheduledThreadPoolExecutor(builder.senderThreads,
+                LogglyClient.daemonThreads("loggly-sender"));
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.requestExecutor = new ThreadPoolExecutor(builder.maxConnections, builder.maxConnections,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), LogglyClient.daemonThreads("loggly-http"));
+        requestExecutor.allowCoreThreadTimeOut(true);
+        this.shutdownHook = builder.shutdownTimeoutMillis >= 0 ? addShutdownHook(builder.shutdownTimeoutMillis) : null;
+    }
+
+    /**
+     * Gets the shard of a token at the default endpoint, creating it
+     * if needed
+     * @param token Loggly customer token
+     * @return the client of the shard
+     * @throws IllegalStateException the router is closed
+     */
+    public LogglyClient shard(String token) {
+        return shard(token, endpoint);
+    }
+
+    /**
+     * Gets the shard of a token at an endpoint, creating it if needed
+     * @param token Loggly customer token
+     * @param endpoint base URL of Loggly's HTTP API, or of a proxy
+     * @return the client of the shard
+     * @throws IllegalStateException the router is closed
+     */
+    public LogglyClient shard(String token, String endpoint) {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("token cannot be empty");
+        }
+        if (endpoint == null || endpoint.isEmpty()) {
+            throw new IllegalArgumentException("endpoint cannot be empty");
+        }
+        if (closed.get()) {
+            throw new IllegalStateException("router is closed");
+        }
+        ConcurrentMap<String, LogglyClient> byToken = shards.get(endpoint);
+        if (byToken != null) {
+            LogglyClient shard = byToken.get(token);
+            if (shard != null) {
+                return shard;
+            }
+        }
+        return createShard(token, endpoint);
+    }
+
+    /**
+     * Creates the shard of a token at an endpoint, unless another
+     * thread just did
+     * @param token Loggly customer token
+     * @param endpoint base URL of the API
+     * @return the client of the shard
+     */
+    private synchronized LogglyClient createShard(String token, String endpoint) {
+        if (closed.get()) {
+            throw new IllegalStateException("router is closed");
+        }
+        ConcurrentMap<String, LogglyClient> byToken = shards.get(endpoint);
+        if (byToken == null) {
+            byToken = new ConcurrentHashMap<String, LogglyClient>();
+            shards.put(endpoint, byToken);
+        }
+        LogglyClient shard = byToken.get(token);
+        if (shard == null) {
+            shard = new LogglyClient(shardBuilder(token, endpoint), transport(endpoint));
+            byToken.put(token, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * Creates the settings of a shard
+     * @param token Loggly customer token
+     * @param endpoint base URL of the API
+     * @return the builder of the shard's client
+     */
+    private LogglyClient.Builder shardBuilder(String token, String endpoint) {
+        return new LogglyClient.Builder(token)
+                .endpoint(endpoint)
+                .maxInFlightRequests(maxInFlightRequestsPerShard)
+                .batching(batching)
+                .compression(compressionLevel, compressionMinBytes)
+                .retryPolicy(retryPolicy)
+                .tags(tags)
+                .sharedSender(scheduler);
+    }
+
+    /**
+     * Gets the transport of an endpoint, creating it if needed
+     * @param endpoint base URL of the API
+     * @return the transport
+     */
+    private Transport transport(String endpoint) {
+        Transport transport = transports.get(endpoint);
+        if (transport == null) {
+            transport = new UrlConnectionTransport(endpoint.endsWith("/") ? endpoint : endpoint + "/",
+                    (int) Math.min(connectTimeoutMillis, Integer.MAX_VALUE),
+                    (int) Math.min(readTimeoutMillis, Integer.MAX_VALUE), requestExecutor);
+            transports.put(endpoint, transport);
+        }
+        return transport;
+    }
+
+    /**
+     * Gets the shards created so far
+     * @return the clients of the shards
+     */
+    public List<LogglyClient> getShards() {
+        List<LogglyClient> all = new ArrayList<LogglyClient>();
+        for (ConcurrentMap<String, LogglyClient> byToken : shards.values()) {
+            all.addAll(byToken.values());
+        }
+        return all;
+    }
+
+    /**
+     * Sends the events buffered by all shards without waiting for their
+     * batches to fill or linger, with the shards draining in parallel,
+     * and waits until they are sent. Events that are still pending when
+     * the time runs out are sent later.
+     * @param timeoutMillis max time to wait in milliseconds
+     * @return the events of all shards that were sent, failed, and still
+     * pending when the time ran out or the thread was interrupted
+     */
+    public FlushResult flush(long timeoutMillis) {
+        if (closed.get()) return FlushResult.EMPTY;
+        return drain(getShards(), timeoutMillis, false);
+    }
+
+    /**
+     * Closes the router, giving the buffered events up to 5 seconds
+     * to be sent
+     * @see #close(long)
+     */
+    @Override
+    public void close() {
+        close(LogglyClient.DEFAULT_CLOSE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Closes all shards: stops accepting events, sends the buffered ones
+     * with the shards draining in parallel until the deadline, and stops
+     * the shared threads. Events that are not sent by the deadline are
+     * abandoned. Closing a closed router does nothing.
+     * @param timeoutMillis max time in milliseconds to send the buffered events
+     * @return the events of all shards that were sent, failed, and abandoned
+     */
+    public FlushResult close(long timeoutMillis) {
+        synchronized (this) {
+            if (!closed.compareAndSet(false, true)) {
+                return FlushResult.EMPTY;
+            }
+        }
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        }
+
+        final List<LogglyClient> open = new ArrayList<LogglyClient>();
+        for (LogglyClient shard : getShards()) {
+            if (shard.beginClose()) {
+                open.add(shard);
+            }
+        }
+        final FlushResult result = drain(open, timeoutMillis, true);
+        for (LogglyClient shard : open) {
+            shard.endClose();
+        }
+        scheduler.shutdown();
+        requestExecutor.shutdown();
+        return result;
+    }
+
+    /**
+     * Asks every lane of the shards to drain at once, then waits for
+     * all of them until one deadline
+     * @param clients shards to be drained
+     * @param timeoutMillis max time to wait in milliseconds
+     * @param close whether to stop the sender loops afterwards
+     * @return the sum of the results of the drains
+     */
+    private static FlushResult drain(List<LogglyClient> clients, long timeoutMillis, boolean close) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMillis));
+        final List<BulkDispatcher> lanes = new ArrayList<BulkDispatcher>();
+        final List<BulkDispatcher.FlushRequest> requests = new ArrayList<BulkDispatcher.FlushRequest>();
+        for (LogglyClient client : clients) {
+            for (BulkDispatcher lane : client.lanes()) {
+                lanes.add(lane);
+                requests.add(lane.requestDrain(deadline, close));
+            }
+        }
+
+        FlushResult result = FlushResult.EMPTY;
+        for (int i = 0; i < lanes.size(); i++) {
+            try {
+                result = result.plus(lanes.get(i).awaitDrain(requests.get(i)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < lanes.size(); j++) {
+                    result = result.plus(new FlushResult(0, 0, lanes.get(j).depth()));
+                }
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers a JVM shutdown hook that closes this router
+     * @param timeoutMillis max time in milliseconds to send the buffered events
+     * @return the hook
+     */
+    private Thread addShutdownHook(final long timeoutMillis) {
+        Thread hook = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                close(timeoutMillis);
+            }
+        }, "loggly-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        return hook;
+    }
+
+    /**
+     * Builder of a {@link LogglyRouter}, whose settings apply to every shard
+     *
+     * @since 1.1.0
+     */
+    public static final class Builder {
+        private String endpoint = LogglyClient.API_URL;
+        private int senderThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+        private int maxConnections = LogglyClient.DEFAULT_MAX_REQUESTS;
+        private int maxInFlightRequestsPerShard = 4;
+        private long connectTimeoutMillis = 10000;
+        private long readTimeoutMillis = 10000;
+        private BatchOptions batching;
+        private int compressionLevel = Deflater.NO_COMPRESSION;
+        private int compressionMinBytes;
+        private RetryPolicy retryPolicy = new RetryPolicy();
+        private String[] tags = new String[0];
+        private long shutdownTimeoutMillis = -1;
+
+        /**
+         * Sets the default endpoint of the shards
+         * @param url base URL (default: {@code https://logs-01.loggly.com/})
+         * @return this {@code Builder}
+         * @see LogglyRouter#shard(String, String)
+         */
+        public Builder endpoint(String url) {
+            if (url == null || url.isEmpty()) {
+                throw new IllegalArgumentException("url cannot be empty");
+            }
+            this.endpoint = url;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that run the sender loops of all
+         * shards, and their retries
+         * @param threads thread count (default: half the processors, at least 2)
+         * @return this {@code Builder}
+         */
+        public Builder senderThreads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads must be positive");
+            }
+            this.senderThreads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads that send the requests of all
+         * shards, which is also the max number of connections in use
+         * @param maxConnections thread count (default: 64)
+         * @return this {@code Builder}
+         */
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("maxConnections must be positive");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Limits the number of requests that each shard has in flight
+         * at once, which keeps a slow shard from taking all connections
+         * @param maxInFlightRequests max number of concurrent requests (default: 4)
+         * @return this {@code Builder}
+         * @see LogglyClient.Builder#maxInFlightRequests(int)
+         */
+        public Builder maxInFlightRequestsPerShard(int maxInFlightRequests) {
+            if (maxInFlightRequests <= 0) {
+                throw new IllegalArgumentException("maxInFlightRequests must be positive");
+            }
+            this.maxInFlightRequestsPerShard = maxInFlightRequests;
+            return this;
+        }
+
+        /**
+         * Sets the connect timeout of the requests
+         * @param millis timeout in milliseconds (0 for none; default 10000)
+         * @return this {@code Builder}
+         */
+        public Builder connectTimeoutMillis(long millis) {
+            this.connectTimeoutMillis = checkTimeout(millis);
+            return this;
+        }
+
+        /**
+         * Sets the read timeout of the requests
+         * @param millis timeout in milliseconds (0 for none; default 10000)
+         * @return this {@code Builder}
+         */
+        public Builder readTimeoutMillis(long millis) {
+            this.readTimeoutMillis = checkTimeout(millis);
+            return this;
+        }
+
+        /**
+         * Sets the batching thresholds of each shard. Shards cannot
+         * spool to disk.
+         * @param batching batching thresholds, or {@code null} to post
+         *                 each event immediately (default)
+         * @return this {@code Builder}
+         */
+        public Builder batching(BatchOptions batching) {
+            if (batching != null && batching.getSpoolDirectory() != null) {
+                throw new IllegalArgumentException("shards cannot spool to disk");
+            }
+            this.batching = batching;
+            return this;
+        }
+
+        /**
+         * Enables gzip compression of bulk requests
+         * @param level compression level (0 to 9)
+         * @param minBytes minimum size (in bytes) of a parcel to be compressed
+         * @return this {@code Builder}
+         * @see LogglyClient#setCompression(int, int)
+         */
+        public Builder compression(int level, int minBytes) {
+            LogglyClient.checkCompression(level, minBytes);
+            this.compressionLevel = level;
+            this.compressionMinBytes = minBytes;
+            return this;
+        }
+
+        /**
+         * Sets the retry policy of each shard
+         * @param policy retry policy
+         * @return this {@code Builder}
+         * @see LogglyClient#setRetryPolicy(RetryPolicy)
+         */
+        public Builder retryPolicy(RetryPolicy policy) {
+            if (policy == null) {
+                throw new IllegalArgumentException("policy cannot be null");
+            }
+            this.retryPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the tags of each shard
+         * @param tags CSV or list of tags
+         * @return this {@code Builder}
+         * @see LogglyClient#setTags(String...)
+         */
+        public Builder tags(String... tags) {
+            this.tags = tags;
+            return this;
+        }
+
+        /**
+         * Registers a JVM shutdown hook that closes the router
+         * @param timeoutMillis max time in milliseconds to send the
+         *                      buffered events
+         * @return this {@code Builder}
+         * @see LogglyRouter#close(long)
+         */
+        public Builder closeOnShutdown(long timeoutMillis) {
+            this.shutdownTimeoutMillis = checkTimeout(timeoutMillis);
+            return this;
+        }
+
+        /**
+         * Creates a router with the settings of this builder
+         * @return the router
+         */
+        public LogglyRouter build() {
+            return new LogglyRouter(this);
+        }
+
+        private static long checkTimeout(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("timeout cannot be negative");
+            }
+            return millis;
+        }
+    }
+}
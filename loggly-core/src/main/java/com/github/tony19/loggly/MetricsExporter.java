@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+/**
+ * Receives the metrics of a {@link LogglyClient} periodically, to feed
+ * them into a monitoring system
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ * @see LogglyClient.Builder#metricsExporter(MetricsExporter, long)
+ */
+public interface MetricsExporter {
+    /**
+     * Exports the current metrics. This is called from a background
+     * thread of the client, and should not block for long.
+     * @param metrics metrics of the client
+     */
+    void export(LogglyMetrics metrics);
+}
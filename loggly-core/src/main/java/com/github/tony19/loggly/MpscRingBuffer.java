@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free multi-producer/single-consumer queue backed by
+ * a preallocated ring of slots (after Dmitry Vyukov's bounded queue).
+ * <p>
+ * Each slot carries a sequence number that tells producers and the
+ * consumer whose turn it is to use the slot, so a producer only needs
+ * a single CAS on the tail to claim a slot, and neither side allocates
+ * or blocks.
+ * <p>
+ * Each slot can also carry a tag along with its element, which saves
+ * wrapping the two in an object.
+ * <p>
+ * Producers may also {@link #evict()} the head element to make room
+ * for theirs, so the head is claimed with a CAS as well; the consumer
+ * wins it uncontended unless the queue is full.
+ *
+ * @param <E> type of elements
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class MpscRingBuffer<E> {
+    private final int mask;
+    private final Object[] elements;
+    private final Object[] tags;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Read position, advanced by the consumer and by evicting producers */
+    private final AtomicLong head = new AtomicLong();
+
+    /** Tag of the element returned by the last poll, only used by the consumer thread */
+    private Object polledTag;
+
+    /**
+     * Creates a ring buffer
+     * @param capacity minimum number of slots, rounded up to the
+     *                 next power of two
+     */
+    MpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        if (size <= 0) {
+            throw new IllegalArgumentException("capacity too large");
+        }
+        this.mask = size - 1;
+        this.elements = new Object[size];
+        this.tags = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element to the tail of the queue. Safe to call from
+     * any number of threads.
+     * @param e element to be added
+     * @return {@code true} if added; {@code false} if the queue is full
+     */
+    boolean offer(E e) {
+        return offer(e, null);
+    }
+
+    /**
+     * Adds an element and its tag to the tail of the queue. Safe to
+     * call from any number of threads.
+     * @param e element to be added
+     * @param tag tag of the element, returned by {@link #polledTag()}
+     *            once the element is polled (may be {@code null})
+     * @return {@code true} if added; {@code false} if the queue is full
+     */
+    boolean offer(E e, Object tag) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+
+        long pos = tail.get();
+        int index;
+        for (;;) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // slot still holds an element from the previous lap
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+
+        elements[index] = e;
+        tags[index] = tag;
+        // publishes the element and its tag to the consumer
+        sequences.set(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Removes the element at the head of the queue. Must only be
+     * called from the single consumer thread.
+     * @return the head element, or {@code null} if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long pos = claimHead();
+        if (pos < 0) {
+            return null;
+        }
+
+        int index = (int) pos & mask;
+        E e = (E) elements[index];
+        polledTag = tags[index];
+        release(index, pos);
+        return e;
+    }
+
+    /**
+     * Removes the element at the head of the queue, discarding its tag.
+     * Safe to call from any thread, so producers can make room for
+     * their own elements in a full queue.
+     * @return the head element, or {@code null} if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    E evict() {
+        long pos = claimHead();
+        if (pos < 0) {
+            return null;
+        }
+
+        int index = (int) pos & mask;
+        E e = (E) elements[index];
+        release(index, pos);
+        return e;
+    }
+
+    /**
+     * Claims the slot at the head of the queue
+     * @return the position of the slot, or -1 if the queue is empty
+     */
+    private long claimHead() {
+        long pos = head.get();
+        for (;;) {
+            long diff = sequences.get((int) pos & mask) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    return pos;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return -1;
+            } else {
+                // another thread took the slot first
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Empties a claimed slot and hands it back to producers for the next lap
+     * @param index index of the slot
+     * @param pos position of the slot
+     */
+    private void release(int index, long pos) {
+        elements[index] = null;
+        tags[index] = null;
+        sequences.lazySet(index, pos + mask + 1);
+    }
+
+    /**
+     * Gets the tag of the element returned by the last call to
+     * {@link #poll()}. Must only be called from the consumer thread.
+     * @return the tag, or {@code null} if none
+     */
+    Object polledTag() {
+        return polledTag;
+    }
+
+    /**
+     * Determines whether the queue is empty
+     * @return {@code true} if no element is ready to be polled
+     */
+    boolean isEmpty() {
+        long pos = head.get();
+        return sequences.get((int) pos & mask) != pos + 1;
+    }
+
+    /**
+     * Gets an estimate of the number of queued elements
+     * @return the element count
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    /**
+     * Gets the number of slots in the ring
+     * @return the capacity
+     */
+    int capacity() {
+        return mask + 1;
+    }
+}
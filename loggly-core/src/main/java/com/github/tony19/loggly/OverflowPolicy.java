@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+/**
+ * What the batching mode of {@link LogglyClient} does with an event
+ * logged while its buffer is full, e.g., while Loggly is slow or down.
+ * Each policy counts the events it drops in
+ * {@link LogglyMetrics#getEventsDropped(OverflowPolicy)}.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ * @see BatchOptions#overflowPolicy(OverflowPolicy)
+ */
+public enum OverflowPolicy {
+    /**
+     * The logging thread waits for room in the buffer, up to
+     * {@link BatchOptions#blockTimeoutMillis(long)}, and the event is
+     * dropped if the time runs out
+     */
+    BLOCK,
+    /** The new event is dropped (the default) */
+    DROP_NEWEST,
+    /** The oldest buffered event is dropped to make room for the new one */
+    DROP_OLDEST,
+    /**
+     * The new event is appended to an overflow spool in the
+     * {@link BatchOptions#spoolDirectory(java.io.File) spool directory}, and is
+     * sent once the buffer drains, after the events buffered in memory
+     */
+    SPILL_TO_DISK,
+    /**
+     * Room is kept for more important events: {@link Priority#LOW}
+     * events are dropped once the buffer is half full, and
+     * {@link Priority#NORMAL} events once it is 90% full. A
+     * {@link Priority#HIGH} event logged while the buffer is full
+     * drops the oldest buffered event to make room.
+     */
+    DROP_BY_PRIORITY
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+/**
+ * Priority of a log event, which decides how it is treated under
+ * backpressure: lower-priority events are sampled first as the buffer
+ * fills, and high-priority events are never sampled or throttled.
+ * High-priority events can also be sent through a lane of their own,
+ * see {@link BatchOptions#highPriorityLane(long)}.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public enum Priority {
+    /** Events that can be sampled as soon as the buffer starts to fill (e.g., debug) */
+    LOW,
+    /** Regular events, sampled only when the buffer is nearly full */
+    NORMAL,
+    /** Events that are never sampled or throttled (e.g., errors) */
+    HIGH
+}
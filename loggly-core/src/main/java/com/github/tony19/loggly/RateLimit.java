@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+/**
+ * Settings for limiting the rate of events sent to Loggly, to protect
+ * the uplink and the Loggly volume quota from log storms.
+ * <p>
+ * Token buckets cap the events and bytes per second; events beyond
+ * the rate are dropped, except {@link Priority#HIGH} events, which are
+ * always let through (and count against the rate).
+ * <p>
+ * In batching mode, adaptive sampling also lowers the share of events
+ * that are kept as the buffer fills: {@link Priority#LOW} events are
+ * sampled from the configured fill level, and {@link Priority#NORMAL}
+ * events from halfway between that level and a full buffer. Each kept
+ * event carries a {@code sampleRate} field (1 in N kept), so that counts
+ * can be reconstructed in Loggly.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class RateLimit {
+    private double eventsPerSecond;
+    private double eventBurst;
+    private double bytesPerSecond;
+    private double byteBurst;
+    private double samplingStartFill = -1;
+    private int maxSampleRate;
+
+    /**
+     * Limits the number of events per second
+     * @param eventsPerSecond sustained rate
+     * @param burst number of events allowed at once after a quiet period
+     * @return this {@code RateLimit}
+     */
+    public RateLimit eventsPerSecond(double eventsPerSecond, int burst) {
+        if (eventsPerSecond <= 0) {
+            throw new IllegalArgumentException("eventsPerSecond must be positive");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive");
+        }
+        this.eventsPerSecond = eventsPerSecond;
+        this.eventBurst = burst;
+        return this;
+    }
+
+    /**
+     * Limits the number of encoded bytes per second
+     * @param bytesPerSecond sustained rate
+     * @param burst number of bytes allowed at once after a quiet period
+     * @return this {@code RateLimit}
+     */
+    public RateLimit bytesPerSecond(long bytesPerSecond, long burst) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive");
+        }
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst must be positive");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.byteBurst = burst;
+        return this;
+    }
+
+    /**
+     * Enables adaptive sampling (batching mode only)
+     * @param startFill fill level of the buffer (0.0 to 1.0) at which
+     *                  low-priority events start being sampled
+     * @param maxSampleRate sample rate of low-priority events when the
+     *                      buffer is full (keeps 1 in {@code maxSampleRate})
+     * @return this {@code RateLimit}
+     */
+    public RateLimit adaptiveSampling(double startFill, int maxSampleRate) {
+        if (startFill < 0 || startFill >= 1) {
+            throw new IllegalArgumentException("startFill must be at least 0 and less than 1");
+        }
+        if (maxSampleRate < 1) {
+            throw new IllegalArgumentException("maxSampleRate must be positive");
+        }
+        this.samplingStartFill = startFill;
+        this.maxSampleRate = maxSampleRate;
+        return this;
+    }
+
+    /**
+     * Gets the sustained rate of events
+     * @return the events per second, or 0 if unlimited
+     */
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    /**
+     * Gets the sustained rate of bytes
+     * @return the bytes per second, or 0 if unlimited
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Determines whether adaptive sampling is enabled
+     * @return {@code true} if enabled
+     */
+    public boolean isAdaptiveSampling() {
+        return samplingStartFill >= 0;
+    }
+
+    TokenBucket createEventBucket() {
+        return eventsPerSecond > 0 ? new TokenBucket(eventsPerSecond, eventBurst) : null;
+    }
+
+    TokenBucket createByteBucket() {
+        return bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond, byteBurst) : null;
+    }
+
+    /**
+     * Calculates the sample rate of an event. The rate grows
+     * geometrically from 1 at the start level to the max rate when
+     * the buffer is full.
+     * @param priority priority of the event
+     * @param fill fill level of the buffer (0.0 to 1.0)
+     * @return the sample rate N, to keep 1 in N events
+     */
+    int sampleRate(Priority priority, double fill) {
+        if (!isAdaptiveSampling() || priority == Priority.HIGH || fill <= samplingStartFill) {
+            return 1;
+        }
+        double level = Math.min(1, (fill - samplingStartFill) / (1 - samplingStartFill));
+        if (priority == Priority.NORMAL) {
+            level = 2 * level - 1;
+            if (level <= 0) {
+                return 1;
+            }
+        }
+        return (int) Math.max(1, Math.min(maxSampleRate, Math.round(Math.pow(maxSampleRate, level))));
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Suppresses repeated messages, such as the same error logged thousands
+ * of times per second while a dependency is down.
+ * <p>
+ * The first occurrence of a message starts a window, in which its
+ * repeats are only counted. When the window ends, a summary event with
+ * the message, the number of repeats and the times of the first and
+ * last occurrence is handed to a {@link Sink}. Messages are matched by
+ * a 64-bit hash, optionally of a template where each run of digits is
+ * a placeholder, and then compared to rule out collisions.
+ * <p>
+ * Entries live in a bounded table split into stripes, each with its
+ * own lock, so that threads logging different messages rarely contend.
+ * When the probed slots of a stripe are all taken, the oldest window
+ * ends early.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class RepeatFilter {
+    /** Number of slots probed for a message */
+    private static final int PROBES = 4;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Destination of the summary events
+     */
+    interface Sink {
+        /**
+         * Receives the summary of a window with repeats, on the thread
+         * that ended the window. Called with no stripe locked, so it may
+         * block without holding up the threads logging other messages.
+         * @param summary summary event
+         * @param tags tags of the repeated message, or {@code null}
+         *             for the client's tags
+         */
+        void emit(LogglyEvent summary, TagSet tags);
+    }
+
+    /**
+     * A message being tracked, and its repeats in the current window
+     */
+    private static final class Entry {
+        final long hash;
+        final String message;
+        final TagSet tags;
+        final long firstMillis;
+        /** Time (from {@link System#nanoTime()}) when the window ends */
+        final long windowEnd;
+        long lastMillis;
+        int repeats;
+
+        Entry(long hash, String message, TagSet tags, long windowEnd) {
+            this.hash = hash;
+            this.message = message;
+            this.tags = tags;
+            this.firstMillis = System.currentTimeMillis();
+            this.lastMillis = firstMillis;
+            this.windowEnd = windowEnd;
+        }
+    }
+
+    /** Slots of each stripe, each array also being the lock of its stripe */
+    private final Entry[][] stripes;
+    private final int stripeMask;
+    private final int slotMask;
+    private final int probes;
+    private final long windowNanos;
+    private final boolean normalize;
+    private final Sink sink;
+
+    /**
+     * Creates a filter
+     * @param windowMillis length of the window in milliseconds
+     * @param maxEntries max number of tracked messages (rounded up to
+     *                   fill the stripes)
+     * @param normalize {@code true} to ignore the digits in messages
+     * @param sink destination of the summary events
+     */
+    RepeatFilter(long windowMillis, int maxEntries, boolean normalize, Sink sink) {
+        int stripeCount = 1;
+        while (stripeCount < Runtime.getRuntime().availableProcessors() * 2 && stripeCount < 64
+                && stripeCount * 2 <= maxEntries) {
+            stripeCount <<= 1;
+        }
+        int slots = 1;
+        while (slots * stripeCount < maxEntries) {
+            slots <<= 1;
+        }
+
+        this.stripes = new Entry[stripeCount][slots];
+        this.stripeMask = stripeCount - 1;
+        this.slotMask = slots - 1;
+        this.probes = Math.min(PROBES, slots);
+        this.windowNanos = windowMillis * 1000000L;
+        this.normalize = normalize;
+        this.sink = sink;
+    }
+
+    /**
+     * Checks a message against the current windows. A repeat is
+     * counted; any other message starts a new window.
+     * @param message message to be logged
+     * @param tags tags of the message, or {@code null} for the client's tags
+     * @return {@code true} if the message is a repeat, and should not
+     * be logged; {@code false} otherwise
+     */
+    boolean isRepeat(String message, TagSet tags) {
+        final long hash = hash(message, tags);
+        final Entry[] slots = stripes[(int) (hash ^ (hash >>> 32)) & stripeMask];
+        final int base = (int) (hash >>> 40);
+        final long now = System.nanoTime();
+
+        final Entry ended;
+        synchronized (slots) {
+            int victim = -1;
+            for (int i = 0; i < probes; i++) {
+                int index = (base + i) & slotMask;
+                Entry e = slots[index];
+                if (e == null) {
+                    if (victim < 0 || slots[victim] != null) {
+                        victim = index;
+                    }
+                    continue;
+                }
+                if (e.hash == hash && matches(e, message, tags)) {
+                    if (now - e.windowEnd < 0) {
+                        e.repeats++;
+                        e.lastMillis = System.currentTimeMillis();
+                        return true;
+                    }
+                    victim = index;
+                    break;
+                }
+                if (victim < 0 || (slots[victim] != null && e.windowEnd - slots[victim].windowEnd < 0)) {
+                    victim = index;
+                }
+            }
+
+            ended = slots[victim];
+            slots[victim] = new Entry(hash, message, tags, now + windowNanos);
+        }
+        end(ended);
+        return false;
+    }
+
+    /**
+     * Ends the windows that are over, emitting their summaries
+     */
+    void expire() {
+        final long now = System.nanoTime();
+        final List<Entry> ended = new ArrayList<Entry>();
+        for (Entry[] slots : stripes) {
+            synchronized (slots) {
+                for (int i = 0; i < slots.length; i++) {
+                    Entry e = slots[i];
+                    if (e != null && now - e.windowEnd >= 0) {
+                        ended.add(e);
+                        slots[i] = null;
+                    }
+                }
+            }
+            emitAll(ended);
+        }
+    }
+
+    /**
+     * Ends all windows, emitting their summaries, such as before the
+     * client shuts down
+     */
+    void endAll() {
+        final List<Entry> ended = new ArrayList<Entry>();
+        for (Entry[] slots : stripes) {
+            synchronized (slots) {
+                for (int i = 0; i < slots.length; i++) {
+                    if (slots[i] != null) {
+                        ended.add(slots[i]);
+                        slots[i] = null;
+                    }
+                }
+            }
+            emitAll(ended);
+        }
+    }
+
+    /**
+     * Emits the summaries of windows removed from a stripe, once its
+     * lock is released
+     * @param ended entries of the windows, cleared afterwards
+     */
+    private void emitAll(List<Entry> ended) {
+        for (Entry e : ended) {
+            end(e);
+        }
+        ended.clear();
+    }
+
+    /**
+     * Emits the summary of a window if it had any repeats
+     * @param e entry of the window, or {@code null}
+     */
+    private void end(Entry e) {
+        if (e != null && e.repeats > 0) {
+            sink.emit(new LogglyEvent(4)
+                    .put("message", e.message)
+                    .put("repeats", e.repeats)
+                    .put("firstSeen", e.firstMillis)
+                    .put("lastSeen", e.lastMillis), e.tags);
+        }
+    }
+
+    private boolean matches(Entry e, String message, TagSet tags) {
+        if (e.tags == null ? tags != null : !e.tags.equals(tags)) {
+            return false;
+        }
+        return normalize ? sameTemplate(e.message, message) : e.message.equals(message);
+    }
+
+    /**
+     * Hashes a message (or its template) and its tags with FNV-1a,
+     * followed by a final mix so that all bits are usable as indexes
+     * @param message message to be hashed
+     * @param tags tags of the message, or {@code null}
+     * @return the hash
+     */
+    private long hash(String message, TagSet tags) {
+        long h = FNV_OFFSET;
+        final int len = message.length();
+        for (int i = 0; i < len; i++) {
+            char c = message.charAt(i);
+            if (normalize && isDigit(c)) {
+                while (i + 1 < len && isDigit(message.charAt(i + 1))) {
+                    i++;
+                }
+                c = '#';
+            }
+            h = (h ^ c) * FNV_PRIME;
+        }
+        if (tags != null) {
+            h = (h ^ tags.hashCode()) * FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Compares two messages with each run of digits as a placeholder,
+     * without building their templates
+     * @param a first message
+     * @param b second message
+     * @return {@code true} if both have the same template
+     */
+    static boolean sameTemplate(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char c = a.charAt(i);
+            char d = b.charAt(j);
+            if (isDigit(c) && isDigit(d)) {
+                while (i < a.length() && isDigit(a.charAt(i))) {
+                    i++;
+                }
+                while (j < b.length() && isDigit(b.charAt(j))) {
+                    j++;
+                }
+                continue;
+            }
+            if (c != d) {
+                return false;
+            }
+            i++;
+            j++;
+        }
+        return i == a.length() && j == b.length();
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.Random;
+
+/**
+ * Settings for retrying failed requests to Loggly. Requests that fail
+ * with an I/O error (including timeouts), HTTP 429 or HTTP 5xx are
+ * retried after an exponentially growing, randomized delay. After
+ * repeated failures, a circuit breaker stops all requests for a while,
+ * so that an outage fails fast instead of tying up threads and sockets.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class RetryPolicy {
+    private int maxAttempts = 3;
+    private long initialBackoffMillis = 100;
+    private long maxBackoffMillis = 10000;
+    private double jitter = 0.5;
+    private int failureThreshold = 5;
+    private long openMillis = 30000;
+
+    /**
+     * Creates a policy with the default settings
+     */
+    public RetryPolicy() {
+    }
+
+    /**
+     * Creates a copy of a policy, which later changes to the policy
+     * do not affect
+     * @param policy policy to be copied
+     */
+    RetryPolicy(RetryPolicy policy) {
+        this.maxAttempts = policy.maxAttempts;
+        this.initialBackoffMillis = policy.initialBackoffMillis;
+        this.maxBackoffMillis = policy.maxBackoffMillis;
+        this.jitter = policy.jitter;
+        this.failureThreshold = policy.failureThreshold;
+        this.openMillis = policy.openMillis;
+    }
+
+    /**
+     * Sets the max number of attempts for each request
+     * @param maxAttempts number of attempts, including the first one
+     *                    (1 disables retries)
+     * @return this {@code RetryPolicy}
+     */
+    public RetryPolicy maxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * Sets the delay before the first retry, which doubles on each
+     * subsequent retry
+     * @param initialBackoffMillis initial delay in milliseconds
+     * @return this {@code RetryPolicy}
+     */
+    public RetryPolicy initialBackoffMillis(long initialBackoffMillis) {
+        if (initialBackoffMillis < 0) {
+            throw new IllegalArgumentException("initialBackoffMillis cannot be negative");
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+        return this;
+    }
+
+    /**
+     * Sets the longest delay between retries
+     * @param maxBackoffMillis max delay in milliseconds
+     * @return this {@code RetryPolicy}
+     */
+    public RetryPolicy maxBackoffMillis(long maxBackoffMillis) {
+        if (maxBackoffMillis < 0) {
+            throw new IllegalArgumentException("maxBackoffMillis cannot be negative");
+        }
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    /**
+     * Sets the random portion of each delay, which spreads out the
+     * retries of many clients after an outage
+     * @param jitter fraction of the delay (0.0 to 1.0) that is randomized
+     * @return this {@code RetryPolicy}
+     */
+    public RetryPolicy jitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1");
+        }
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * Sets when the circuit breaker opens, and for how long
+     * @param failureThreshold number of consecutive failed attempts
+     *                         that opens the circuit
+     * @param openMillis time in milliseconds that requests are refused
+     *                   before a single trial request is let through
+     * @return this {@code RetryPolicy}
+     */
+    public RetryPolicy circuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failureThreshold must be positive");
+        }
+        if (openMillis < 0) {
+            throw new IllegalArgumentException("openMillis cannot be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        return this;
+    }
+
+    /**
+     * Gets the max number of attempts for each request
+     * @return the number of attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Gets the delay before the first retry
+     * @return the delay in milliseconds
+     */
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * Gets the longest delay between retries
+     * @return the delay in milliseconds
+     */
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * Gets the random portion of each delay
+     * @return the fraction of the delay that is randomized
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * Gets the number of consecutive failed attempts that opens the circuit
+     * @return the failure threshold
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * Gets the time that requests are refused once the circuit opens
+     * @return the time in milliseconds
+     */
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    /**
+     * Calculates the delay before a retry
+     * @param retry number of the retry (1 for the first retry)
+     * @param random source of the jitter
+     * @return the delay in milliseconds
+     */
+    long backoffMillis(int retry, Random random) {
+        long delay = initialBackoffMillis;
+        for (int i = 1; i < retry && delay < maxBackoffMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxBackoffMillis);
+        return delay - (long) (delay * jitter * random.nextDouble());
+    }
+}
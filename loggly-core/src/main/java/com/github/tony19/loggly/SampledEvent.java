@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+/**
+ * An event kept by adaptive sampling, along with its sample rate,
+ * which {@link EventEncoder} writes into the event
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class SampledEvent {
+    /** Name of the field that holds the sample rate */
+    static final String FIELD = "sampleRate";
+
+    /** {@code String} or {@link LogglyEvent} */
+    final Object event;
+
+    /** Sample rate N, where 1 in N events was kept */
+    final int rate;
+
+    SampledEvent(Object event, int rate) {
+        this.event = event;
+        this.rate = rate;
+    }
+}
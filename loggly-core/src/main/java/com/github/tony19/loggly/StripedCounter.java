@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that spreads its updates over several cells, each on its own
+ * cache line, so that threads incrementing it at the same time rarely
+ * contend. Reading the sum never blocks writers.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class StripedCounter {
+    /** Longs per cell, so that cells are 64 bytes apart */
+    private static final int PADDING = 8;
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() && n < 64) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /**
+     * Adds to the counter
+     * @param delta amount to be added
+     */
+    void add(long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.getAndAdd(stripe * PADDING, delta);
+    }
+
+    /**
+     * Adds one to the counter
+     */
+    void increment() {
+        add(1);
+    }
+
+    /**
+     * Gets the current value of the counter. Updates made while the
+     * cells are being summed may or may not be included.
+     * @return the sum of all cells
+     */
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable set of Loggly tags, validated once and held with its
+ * precomputed {@code X-LOGGLY-TAG} header, so that logging with tags
+ * does not re-split or rebuild the CSV on every call.
+ * <p>
+ * Tag sets are interned: {@link #of(String...)} returns the same
+ * instance for the same input, which makes them cheap to compare and
+ * lets batched events be grouped by tag set. Create a tag set once
+ * and reuse it where possible.
+ * <p>
+ * Loggly tags may only contain letters, digits, '.', '-' and '_', must
+ * start with a letter or digit, and are at most {@value #MAX_TAG_LENGTH}
+ * characters long.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class TagSet {
+    /** Longest tag accepted by Loggly */
+    static final int MAX_TAG_LENGTH = 64;
+
+    /** Most tag sets kept interned, so that dynamic tags cannot exhaust memory */
+    private static final int MAX_INTERNED = 1024;
+
+    private static final ConcurrentMap<String, TagSet> INTERNED = new ConcurrentHashMap<String, TagSet>();
+
+    /** The tag set without any tags */
+    public static final TagSet EMPTY = new TagSet(null);
+
+    private final String header;
+
+    private TagSet(String header) {
+        this.header = header;
+    }
+
+    /**
+     * Gets the tag set of a list of tags, each of which can also be a CSV.
+     * Leading and trailing spaces of each tag are ignored, as are empty tags.
+     * @param tags CSV or list of tags
+     * @return the interned tag set
+     * @throws IllegalArgumentException a tag is invalid
+     */
+    public static TagSet of(String... tags) {
+        if (tags == null || tags.length == 0) {
+            return EMPTY;
+        }
+        if (tags.length == 1) {
+            // the common case is looked up without parsing
+            if (tags[0] == null) {
+                return EMPTY;
+            }
+            TagSet set = INTERNED.get(tags[0]);
+            return set != null ? set : intern(tags[0], parse(tags));
+        }
+        String csv = parse(tags);
+        if (csv == null) {
+            return EMPTY;
+        }
+        TagSet set = INTERNED.get(csv);
+        return set != null ? set : intern(csv, csv);
+    }
+
+    /**
+     * Interns a tag set under its CSV and under the input it was parsed from
+     * @param key input of {@link #of(String...)}
+     * @param csv normalized CSV, or {@code null} if there are no tags
+     * @return the interned tag set
+     */
+    private static TagSet intern(String key, String csv) {
+        TagSet set = csv == null ? EMPTY : INTERNED.get(csv);
+        if (set == null) {
+            set = new TagSet(csv);
+        }
+        if (INTERNED.size() < MAX_INTERNED) {
+            if (csv != null) {
+                TagSet existing = INTERNED.putIfAbsent(csv, set);
+                if (existing != null) {
+                    set = existing;
+                }
+            }
+            if (!key.equals(csv)) {
+                INTERNED.putIfAbsent(key, set);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Parses and validates tags into a normalized CSV
+     * @param tags CSV or list of tags
+     * @return the CSV, or {@code null} if there are no tags
+     * @throws IllegalArgumentException a tag is invalid
+     */
+    private static String parse(String... tags) {
+        StringBuilder builder = new StringBuilder();
+        for (String s : tags) {
+            if (s == null) {
+                continue;
+            }
+            for (String t : s.split(",")) {
+                t = t.trim();
+                if (!t.isEmpty()) {
+                    validate(t);
+                    if (builder.length() > 0) {
+                        builder.append(',');
+                    }
+                    builder.append(t);
+                }
+            }
+        }
+        return builder.length() > 0 ? builder.toString() : null;
+    }
+
+    private static void validate(String tag) {
+        if (tag.length() > MAX_TAG_LENGTH) {
+            throw new IllegalArgumentException("tag longer than " + MAX_TAG_LENGTH + " characters: " + tag);
+        }
+        for (int i = 0; i < tag.length(); i++) {
+            char c = tag.charAt(i);
+            boolean alnum = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+            if (!alnum && (i == 0 || (c != '.' && c != '-' && c != '_'))) {
+                throw new IllegalArgumentException("invalid tag: " + tag);
+            }
+        }
+    }
+
+    /**
+     * Gets the value of the {@code X-LOGGLY-TAG} header
+     * @return the CSV of tags, or {@code null} if there are none (the
+     * header must then be omitted, since Loggly rejects an empty one)
+     */
+    String header() {
+        return header;
+    }
+
+    /**
+     * Determines whether this tag set has no tags
+     * @return {@code true} if empty
+     */
+    public boolean isEmpty() {
+        return header == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TagSet)) return false;
+        String other = ((TagSet) o).header;
+        return header == null ? other == null : header.equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return header != null ? header.hashCode() : 0;
+    }
+
+    /**
+     * Gets the tags as a CSV
+     * @return the CSV of tags, or an empty string if there are none
+     */
+    @Override
+    public String toString() {
+        return header != null ? header : "";
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as the generic cell rate
+ * algorithm: instead of a token count that is refilled over time, it
+ * keeps the time at which the bucket will be full again, so acquiring
+ * tokens is a single CAS on that time.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class TokenBucket {
+    private final double nanosPerToken;
+    private final long burstNanos;
+
+    /** Time (from {@link System#nanoTime()}) when the bucket is full again */
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    /**
+     * Creates a full bucket
+     * @param tokensPerSecond rate at which tokens are added
+     * @param burst max number of tokens held
+     */
+    TokenBucket(double tokensPerSecond, double burst) {
+        this.nanosPerToken = 1e9 / tokensPerSecond;
+        this.burstNanos = (long) (burst * nanosPerToken);
+    }
+
+    /**
+     * Takes tokens from the bucket. A request for more tokens than the
+     * burst size is granted only when the bucket is full.
+     * @param tokens number of tokens
+     * @param force {@code true} to take the tokens even if the bucket
+     *              has too few, which delays later requests instead
+     * @return {@code true} if the tokens were taken
+     */
+    boolean tryAcquire(long tokens, boolean force) {
+        final long cost = (long) (tokens * nanosPerToken);
+        for (;;) {
+            long now = System.nanoTime();
+            long t = fullAt.get();
+            boolean full = t - now <= 0;
+            long next = (full ? now : t) + cost;
+            if (!force && !full && next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(t, next)) {
+                return true;
+            }
+        }
+    }
+}
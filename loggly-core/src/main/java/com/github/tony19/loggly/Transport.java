@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.IOException;
+
+/**
+ * Sends requests to Loggly's HTTP API. The default transport uses
+ * {@link java.net.HttpURLConnection}, which needs no dependencies;
+ * others (e.g., one based on OkHttp) can be set with
+ * {@link LogglyClient.Builder#transport(Transport)}.
+ * <p>
+ * A transport only moves bytes: retries, the circuit breaker, the limit
+ * on requests in flight and the metrics are handled by the client.
+ * Implementations must be thread-safe.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public interface Transport {
+
+    /**
+     * Sends a request and waits for its response
+     * @param request request to be sent
+     * @return the response, whatever its HTTP status
+     * @throws IOException the request could not be sent, or no
+     * response was received
+     */
+    TransportResponse execute(TransportRequest request) throws IOException;
+
+    /**
+     * Sends a request without blocking the calling thread
+     * @param request request to be sent
+     * @param callback receiver of the response or failure, which is
+     *                 called exactly once, from any thread
+     */
+    void enqueue(TransportRequest request, Callback callback);
+
+    /**
+     * Receives the outcome of a request sent with
+     * {@link #enqueue(TransportRequest, Callback)}
+     */
+    interface Callback {
+        /**
+         * Called when a response was received, whatever its HTTP status
+         * @param response response from Loggly
+         */
+        void onResponse(TransportResponse response);
+
+        /**
+         * Called when the request could not be sent, or no response
+         * was received
+         * @param error cause of the failure
+         */
+        void onFailure(IOException error);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Request to Loggly's HTTP API, which is either a single event for the
+ * {@code inputs} endpoint or several events for the {@code bulk}
+ * endpoint. A request can be sent again, such as when it is retried.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class TransportRequest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TEXT_PLAIN = "text/plain; charset=utf-8";
+
+    private final String token;
+    private final String tags;
+    /** Text of a single event, or {@code null} for bulk events */
+    private final String message;
+    /** Bulk events, or {@code null} for a single event */
+    private final BulkRequestBody body;
+
+    private TransportRequest(String token, String tags, String message, BulkRequestBody body) {
+        this.token = token;
+        this.tags = tags;
+        this.message = message;
+        this.body = body;
+    }
+
+    /**
+     * Creates a request for a single event
+     * @param token Loggly customer token
+     * @param tags CSV of tags, or {@code null} for none
+     * @param message text of the event
+     * @return the request
+     */
+    static TransportRequest single(String token, String tags, String message) {
+        return new TransportRequest(token, tags, message, null);
+    }
+
+    /**
+     * Creates a request for bulk events
+     * @param token Loggly customer token
+     * @param tags CSV of tags, or {@code null} for none
+     * @param body encoder of the events
+     * @return the request
+     */
+    static TransportRequest bulk(String token, String tags, BulkRequestBody body) {
+        return new TransportRequest(token, tags, null, body);
+    }
+
+    /**
+     * Determines whether this request is for the bulk endpoint
+     * @return {@code true} for bulk events; {@code false} for a single event
+     */
+    public boolean isBulk() {
+        return body != null;
+    }
+
+    /**
+     * Gets the Loggly customer token
+     * @return the token
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Gets the path of the endpoint, relative to the base URL of the API
+     * @return {@code bulk/<token>} or {@code inputs/<token>}
+     */
+    public String getPath() {
+        return (body != null ? "bulk/" : "inputs/") + token;
+    }
+
+    /**
+     * Gets the value of the {@code X-LOGGLY-TAG} header
+     * @return the CSV of tags, or {@code null} to omit the header
+     */
+    public String getTags() {
+        return tags;
+    }
+
+    /**
+     * Gets the value of the {@code Content-Type} header
+     * @return the media type of the body
+     */
+    public String getContentType() {
+        return TEXT_PLAIN;
+    }
+
+    /**
+     * Gets the value of the {@code Content-Encoding} header
+     * @return "gzip" if the body is compressed; {@code null} otherwise
+     */
+    public String getContentEncoding() {
+        return body != null ? body.contentEncoding() : null;
+    }
+
+    /**
+     * Gets the text of a single event
+     * @return the text, or {@code null} for bulk events
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the size of the body as sent
+     * @return the number of bytes, or -1 if unknown until the body is
+     * written (chunked encoding)
+     */
+    public long getContentLength() {
+        return body != null ? body.contentLength() : EventEncoder.utf8Length(message);
+    }
+
+    /**
+     * Writes the body. Bulk events are encoded (and compressed) straight
+     * into the stream, without building the body in memory first.
+     * @param out destination of the body, which is left open
+     * @throws IOException the stream could not be written
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (body != null) {
+            body.writeTo(out);
+        } else {
+            out.write(message.getBytes(UTF_8));
+        }
+    }
+
+    /**
+     * Gets the number of events in the request
+     * @return the event count
+     */
+    int eventCount() {
+        return body != null ? body.eventCount() : 1;
+    }
+}
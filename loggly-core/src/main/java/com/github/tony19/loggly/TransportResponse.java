@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+/**
+ * Response from Loggly's HTTP API, as received by a {@link Transport}
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class TransportResponse {
+    private final int code;
+    private final String message;
+    private final LogglyResponse body;
+    private final String retryAfter;
+
+    /**
+     * Creates a response
+     * @param code HTTP status code
+     * @param message HTTP status message, or {@code null}
+     * @param body parsed body, or {@code null} if there is none
+     * @param retryAfter value of the {@code Retry-After} header, or {@code null}
+     */
+    public TransportResponse(int code, String message, LogglyResponse body, String retryAfter) {
+        this.code = code;
+        this.message = message;
+        this.body = body;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Gets the HTTP status code
+     * @return the status code
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Gets the HTTP status message
+     * @return the message, or {@code null}
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the parsed body
+     * @return the body, or {@code null} if there is none
+     */
+    public LogglyResponse getBody() {
+        return body;
+    }
+
+    /**
+     * Gets the value of the {@code Retry-After} header
+     * @return the header value, or {@code null}
+     */
+    public String getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Determines whether the HTTP status is 2xx
+     * @return {@code true} if successful
+     */
+    public boolean isSuccessful() {
+        return code >= 200 && code < 300;
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Default {@link Transport}, based on {@link HttpURLConnection}, which
+ * needs no dependencies and no reflection, and keeps connections alive
+ * in the JDK's (or Android's) own pool. Asynchronous requests run on an
+ * executor.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+final class UrlConnectionTransport implements Transport {
+    private final String endpoint;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final Executor executor;
+
+    /**
+     * Creates a transport
+     * @param endpoint base URL of the API, ending with a slash
+     * @param connectTimeoutMillis connect timeout in milliseconds (0 for none)
+     * @param readTimeoutMillis read timeout in milliseconds (0 for none)
+     * @param executor executor of asynchronous requests
+     */
+    UrlConnectionTransport(String endpoint, int connectTimeoutMillis, int readTimeoutMillis, Executor executor) {
+        this.endpoint = endpoint;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.executor = executor;
+    }
+
+    @Override
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(endpoint + request.getPath()).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setUseCaches(false);
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setRequestProperty("Content-Type", request.getContentType());
+        if (request.getTags() != null) {
+            connection.setRequestProperty("X-LOGGLY-TAG", request.getTags());
+        }
+        if (request.getContentEncoding() != null) {
+            connection.setRequestProperty("Content-Encoding", request.getContentEncoding());
+        }
+        final long length = request.getContentLength();
+        if (length >= 0 && length <= Integer.MAX_VALUE) {
+            // the int overload, since the long one needs Android API level 19
+            connection.setFixedLengthStreamingMode((int) length);
+        } else {
+            connection.setChunkedStreamingMode(0);
+        }
+
+        try {
+            final OutputStream out = connection.getOutputStream();
+            try {
+                request.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            final int code = connection.getResponseCode();
+            final String body = readFully(code < 400 ? connection.getInputStream() : connection.getErrorStream());
+            return new TransportResponse(code, connection.getResponseMessage(),
+                    code < 300 ? LogglyResponse.parse(body) : null,
+                    connection.getHeaderField("Retry-After"));
+        } catch (IOException e) {
+            // the connection is in an unknown state, so don't reuse it
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads a response body to its end, which lets the connection be
+     * reused for another request
+     * @param in body stream, or {@code null} if there is no body
+     * @return the body as UTF-8 text, or {@code null}
+     * @throws IOException the stream could not be read
+     */
+    private static String readFully(InputStream in) throws IOException {
+        if (in == null) return null;
+        try {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+            final byte[] buffer = new byte[512];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+            }
+            return body.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void enqueue(final TransportRequest request, final Callback callback) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final TransportResponse response;
+                    try {
+                        response = execute(request);
+                    } catch (IOException e) {
+                        callback.onFailure(e);
+                        return;
+                    }
+                    callback.onResponse(response);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            callback.onFailure(new IOException("request rejected: " + e.getMessage()));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.AdaptiveLimit}
+ * @author tony19@gmail.com
+ */
+public class AdaptiveLimitTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void startsWithSmallestBatchesOneAtATime() {
+        AdaptiveLimit limit = new AdaptiveLimit(100, 1000, 17000, 8);
+        assertThat(limit.getBatchBytes(), is(1000));
+        assertThat(limit.getConcurrency(), is(1));
+    }
+
+    @Test
+    public void growsAdditivelyWhileHealthy() {
+        AdaptiveLimit limit = new AdaptiveLimit(100, 1000, 17000, 8);
+        limit.onResponse(FAST, true);
+        assertThat(limit.getBatchBytes(), is(2000));
+        assertThat(limit.getConcurrency(), is(2));
+        limit.onResponse(FAST, true);
+        assertThat(limit.getBatchBytes(), is(3000));
+        assertThat(limit.getConcurrency(), is(2));
+
+        for (int i = 0; i < 100; i++) {
+            limit.onResponse(FAST, true);
+        }
+        assertThat(limit.getBatchBytes(), is(17000));
+        assertThat(limit.getConcurrency(), is(8));
+    }
+
+    @Test
+    public void halvesOnFailure() {
+        AdaptiveLimit limit = grown();
+        limit.onResponse(FAST, false);
+        assertThat(limit.getBatchBytes(), is(8500));
+        assertThat(limit.getConcurrency(), is(4));
+    }
+
+    @Test
+    public void halvesWhenSlowerThanTarget() {
+        AdaptiveLimit limit = grown();
+        limit.onResponse(SLOW, true);
+        assertThat(limit.getBatchBytes(), is(8500));
+        assertThat(limit.getConcurrency(), is(4));
+    }
+
+    @Test
+    public void holdsOffFurtherDecreasesForOneRoundTrip() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 1000, 17000, 8);
+        for (int i = 0; i < 100; i++) {
+            limit.onResponse(0, true);
+        }
+        limit.onResponse(0, false);
+        limit.onResponse(0, false);
+        assertThat(limit.getConcurrency(), is(4));
+
+        Thread.sleep(10);
+        limit.onResponse(0, false);
+        assertThat(limit.getConcurrency(), is(2));
+    }
+
+    @Test
+    public void neverShrinksBelowMinimum() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 1000, 17000, 8);
+        for (int i = 0; i < 5; i++) {
+            limit.onResponse(0, false);
+            Thread.sleep(2);
+        }
+        assertThat(limit.getBatchBytes(), is(1000));
+        assertThat(limit.getConcurrency(), is(1));
+    }
+
+    private static AdaptiveLimit grown() {
+        AdaptiveLimit limit = new AdaptiveLimit(100, 1000, 17000, 8);
+        for (int i = 0; i < 100; i++) {
+            limit.onResponse(FAST, true);
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.BulkRequestBody}
+ * @author tony19@gmail.com
+ */
+public class BulkRequestBodyTest {
+
+    @Test
+    public void contentLengthMatchesUtf8Bytes() throws Exception {
+        BulkRequestBody body = new BulkRequestBody(
+                Arrays.asList("caf\u00e9", null, "", "\u20ac \uD83D\uDE00"),
+                Deflater.NO_COMPRESSION, 0);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        body.writeTo(buffer);
+        assertThat(body.contentLength(), is((long) buffer.size()));
+        assertThat(body.encodedLength(), is((long) buffer.size()));
+        assertThat(buffer.toString("UTF-8"), is("caf\u00e9\n\u20ac \uD83D\uDE00\n"));
+        assertThat(body.contentEncoding(), is(nullValue()));
+    }
+
+    @Test
+    public void compressedBodyIsChunkedGzip() throws Exception {
+        BulkRequestBody body = new BulkRequestBody(Arrays.asList("E 1", "E\n2"), Deflater.BEST_SPEED, 0);
+        assertThat(body.contentEncoding(), is("gzip"));
+        assertThat(body.contentLength(), is(-1L));
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        body.writeTo(buffer);
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != -1; ) {
+            unzipped.write(b);
+        }
+        assertThat(unzipped.toString("UTF-8"), is("E 1\nE\r2\n"));
+    }
+
+    @Test
+    public void smallBodyIsNotCompressed() {
+        BulkRequestBody body = new BulkRequestBody(Arrays.asList("E 1"), Deflater.BEST_SPEED, 5);
+        assertThat(body.contentEncoding(), is(nullValue()));
+        assertThat(body.contentLength(), is(4L));
+    }
+
+    @Test
+    public void splitKeepsBodiesUnderMaxBytes() throws Exception {
+        List<BulkRequestBody> bodies = BulkRequestBody.split(
+                Arrays.asList("E 1", "E 2", null, "E 3", "E 4", "E 5"), 8, 100, Deflater.NO_COMPRESSION, 0);
+
+        assertThat(bodies.size(), is(3));
+        assertThat(read(bodies.get(0)), is("E 1\nE 2\n"));
+        assertThat(read(bodies.get(1)), is("E 3\nE 4\n"));
+        assertThat(read(bodies.get(2)), is("E 5\n"));
+    }
+
+    @Test
+    public void splitTruncatesOversizedEvents() throws Exception {
+        List<BulkRequestBody> bodies = BulkRequestBody.split(
+                Arrays.asList("short", "much too long", "caf\u00e9"), 100, 4, Deflater.NO_COMPRESSION, 0);
+
+        assertThat(bodies.size(), is(1));
+        assertThat(read(bodies.get(0)), is("shor\nmuch\ncaf\n"));
+        assertThat(bodies.get(0).contentLength(), is(14L));
+    }
+
+    @Test
+    public void splitOfEmptyEventsIsEmpty() {
+        assertThat(BulkRequestBody.split(Arrays.asList("", null), Deflater.NO_COMPRESSION, 0).isEmpty(), is(true));
+    }
+
+    private static String read(BulkRequestBody body) throws Exception {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        body.writeTo(buffer);
+        return buffer.toString("UTF-8");
+    }
+}
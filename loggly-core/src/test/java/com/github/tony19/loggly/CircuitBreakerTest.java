@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.CircuitBreaker} and the
+ * backoff of {@link com.github.tony19.loggly.RetryPolicy}
+ * @author tony19@gmail.com
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void circuitOpensAtFailureThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        breaker.onFailure();
+        breaker.onFailure();
+        assertThat(breaker.allowRequest(), is(true));
+        breaker.onFailure();
+        assertThat(breaker.isOpen(), is(true));
+        assertThat(breaker.allowRequest(), is(false));
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+        breaker.onFailure();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertThat(breaker.isOpen(), is(false));
+    }
+
+    @Test
+    public void halfOpenCircuitAllowsSingleTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 10);
+        breaker.onFailure();
+        Thread.sleep(20);
+
+        assertThat(breaker.allowRequest(), is(true));
+        assertThat(breaker.allowRequest(), is(false));
+
+        // failed trial opens the circuit again
+        breaker.onFailure();
+        assertThat(breaker.allowRequest(), is(false));
+        Thread.sleep(20);
+
+        assertThat(breaker.allowRequest(), is(true));
+        breaker.onSuccess();
+        assertThat(breaker.isOpen(), is(false));
+        assertThat(breaker.allowRequest(), is(true));
+    }
+
+    @Test
+    public void cancelledTrialAllowsAnotherTrial() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 10);
+        breaker.onFailure();
+        Thread.sleep(20);
+
+        assertThat(breaker.allowRequest(), is(true));
+        assertThat(breaker.allowRequest(), is(false));
+        breaker.cancel();
+        assertThat(breaker.isOpen(), is(true));
+        assertThat(breaker.allowRequest(), is(true));
+        breaker.onSuccess();
+        assertThat(breaker.isOpen(), is(false));
+    }
+
+    @Test
+    public void cancelDoesNothingWhileClosed() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60000);
+        breaker.onFailure();
+        assertThat(breaker.allowRequest(), is(true));
+        breaker.cancel();
+        breaker.onFailure();
+        assertThat(breaker.isOpen(), is(true));
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyUpToMax() {
+        RetryPolicy policy = new RetryPolicy().initialBackoffMillis(100).maxBackoffMillis(1000).jitter(0);
+        Random random = new Random(1);
+        assertThat(policy.backoffMillis(1, random), is(100L));
+        assertThat(policy.backoffMillis(2, random), is(200L));
+        assertThat(policy.backoffMillis(4, random), is(800L));
+        assertThat(policy.backoffMillis(5, random), is(1000L));
+        assertThat(policy.backoffMillis(50, random), is(1000L));
+    }
+
+    @Test
+    public void jitterShortensBackoff() {
+        RetryPolicy policy = new RetryPolicy().initialBackoffMillis(1000).jitter(0.5);
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.backoffMillis(1, random);
+            assertThat(delay >= 500 && delay <= 1000, is(true));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.DiskSpool}
+ * @author tony19@gmail.com
+ */
+public class DiskSpoolTest {
+
+    private static final int SEGMENT_BYTES = DiskSpool.MIN_SEGMENT_BYTES;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = folder.newFolder("spool");
+    }
+
+    @Test
+    public void peekReturnsEncodedEventsUntilCommitted() throws IOException {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES);
+        assertThat(spool.peek(10, 1000), is(nullValue()));
+
+        spool.append("E 1");
+        spool.append("multi-line\nE 2");
+        spool.append("");
+        assertThat(spool.pendingBytes(), is(19L));
+
+        DiskSpool.Batch batch = spool.peek(10, 1000);
+        assertThat(batch.count(), is(2));
+        assertThat(read(batch), is("E 1\nmulti-line\rE 2\n"));
+        assertThat(read(spool.peek(10, 1000)), is("E 1\nmulti-line\rE 2\n"));
+
+        spool.commit(batch);
+        assertThat(spool.pendingBytes(), is(0L));
+        assertThat(spool.peek(10, 1000), is(nullValue()));
+    }
+
+    @Test
+    public void peekStopsAtMaxEventsAndMaxBytes() throws IOException {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES);
+        for (String s : Arrays.asList("E 1", "E 2", "E 3", "E 4")) {
+            spool.append(s);
+        }
+
+        assertThat(read(spool.peek(3, 1000)), is("E 1\nE 2\nE 3\n"));
+        assertThat(read(spool.peek(10, 9)), is("E 1\nE 2\n"));
+        assertThat(read(spool.peek(10, 1)), is("E 1\n"));
+    }
+
+    @Test
+    public void destroyDeletesSegmentsAndDirectory() throws IOException {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES);
+        spool.append("E 1");
+        spool.commit(spool.peek(10, 1000));
+
+        spool.destroy();
+        assertThat(dir.exists(), is(false));
+    }
+
+    @Test
+    public void pendingEventsAreRecoveredOnReopen() throws IOException {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES);
+        spool.append("E 1");
+        spool.append("E 2");
+        spool.append("E 3");
+        spool.commit(spool.peek(1, 1000));
+
+        // no close, as if the process had crashed
+        DiskSpool recovered = new DiskSpool(dir, SEGMENT_BYTES);
+        assertThat(recovered.pendingBytes(), is(8L));
+        assertThat(read(recovered.peek(10, 1000)), is("E 2\nE 3\n"));
+
+        recovered.append("E 4");
+        recovered.commit(recovered.peek(2, 1000));
+        assertThat(read(recovered.peek(10, 1000)), is("E 4\n"));
+    }
+
+    @Test
+    public void fullSegmentsRollOverAndAreDeletedWhenDrained() throws IOException {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES);
+        char[] chars = new char[BulkRequestBody.MAX_EVENT_BYTES - 1];
+        Arrays.fill(chars, 'x');
+        String event = new String(chars);
+
+        spool.append(event);
+        spool.append(event);
+        spool.append("last");
+        assertThat(dir.list().length, is(2));
+
+        // a batch never spans segments
+        DiskSpool.Batch first = spool.peek(10, Integer.MAX_VALUE);
+        assertThat(first.count(), is(1));
+        spool.commit(first);
+        assertThat(dir.list().length, is(1));
+        assertThat(spool.peek(10, Integer.MAX_VALUE).count(), is(2));
+    }
+
+    @Test
+    public void peekAfterReadsFollowingBatchesAcrossSegments() throws IOException {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES);
+        char[] chars = new char[BulkRequestBody.MAX_EVENT_BYTES - 1];
+        Arrays.fill(chars, 'x');
+        String event = new String(chars);
+
+        spool.append(event);
+        spool.append(event);
+        spool.append("E 1");
+        spool.append("E 2");
+
+        DiskSpool.Batch first = spool.peek(10, Integer.MAX_VALUE);
+        DiskSpool.Batch second = spool.peekAfter(first, 1, Integer.MAX_VALUE);
+        DiskSpool.Batch third = spool.peekAfter(second, 10, Integer.MAX_VALUE);
+        assertThat(first.count(), is(1));
+        assertThat(second.count(), is(1));
+        assertThat(read(third), is("E 1\nE 2\n"));
+        assertThat(spool.peekAfter(third, 10, Integer.MAX_VALUE), is(nullValue()));
+
+        spool.commit(first);
+        assertThat(dir.list().length, is(1));
+        spool.commit(second);
+        spool.commit(third);
+        assertThat(spool.pendingBytes(), is(0L));
+    }
+
+    @Test
+    public void oversizedEventIsTruncated() throws IOException {
+        DiskSpool spool = new DiskSpool(dir, SEGMENT_BYTES);
+        char[] chars = new char[BulkRequestBody.MAX_EVENT_BYTES + 10];
+        Arrays.fill(chars, 'x');
+        spool.append(new String(chars));
+
+        assertThat(spool.peek(10, Integer.MAX_VALUE).events().remaining(), is(BulkRequestBody.MAX_EVENT_BYTES + 1));
+    }
+
+    private static String read(DiskSpool.Batch batch) {
+        ByteBuffer events = batch.events();
+        byte[] bytes = new byte[events.remaining()];
+        events.get(bytes);
+        return new String(bytes, Charset.forName("UTF-8"));
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.EventEncoder} against the
+ * original regex-based encoding of bulk events
+ * @author tony19@gmail.com
+ */
+public class EventEncoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final List<String> EVENTS = Arrays.asList(
+            "hello world",
+            "multi-line\nevent\r\nhere\n",
+            "\n\r\n\r",
+            "caf\u00e9 \u20ac \u4e2d\u6587",
+            "emoji \uD83D\uDE00 pair",
+            "lone \uD83D high and \uDE00 low surrogates",
+            "trailing high \uD800",
+            "{ \"message\": \"json\\nescaped\", \"n\": 1 }",
+            "\u007f\u0080\u07ff\u0800\uffff");
+
+    @Test
+    public void encodingMatchesRegexReplacement() throws Exception {
+        assertArrayEquals(legacyEncode(EVENTS), encode(EVENTS));
+    }
+
+    @Test
+    public void encodingMatchesAcrossBufferBoundaries() throws Exception {
+        Random random = new Random(42);
+        List<String> events = new ArrayList<String>();
+        for (int n = 0; n < 50; n++) {
+            StringBuilder b = new StringBuilder();
+            int len = random.nextInt(3 * EventEncoder.BUFFER_SIZE);
+            for (int i = 0; i < len; i++) {
+                String source = EVENTS.get(random.nextInt(EVENTS.size()));
+                b.append(source.charAt(random.nextInt(source.length())));
+            }
+            events.add(b.toString());
+        }
+        assertArrayEquals(legacyEncode(events), encode(events));
+    }
+
+    @Test
+    public void nullAndEmptyEventsAreSkipped() throws Exception {
+        assertThat(new String(encode(Arrays.asList(null, "", "a")), UTF_8), is("a\n"));
+    }
+
+    @Test
+    public void utf8LengthMatchesEncodedLength() {
+        for (String s : EVENTS) {
+            assertThat(s, EventEncoder.utf8Length(s), is(s.getBytes(UTF_8).length));
+        }
+    }
+
+    @Test
+    public void sampleRateIsWrittenIntoEvents() throws Exception {
+        assertThat(encodeSampled("plain", 10), is("plain sampleRate=10\n"));
+        assertThat(encodeSampled("{\"a\":1}", 10), is("{\"sampleRate\":10,\"a\":1}\n"));
+        assertThat(encodeSampled("{ }", 10), is("{\"sampleRate\":10 }\n"));
+        assertThat(encodeSampled(new LogglyEvent().put("a", 1), 4), is("{\"sampleRate\":4,\"a\":1}\n"));
+        assertThat(encodeSampled(new LogglyEvent(), 4), is("{\"sampleRate\":4}\n"));
+    }
+
+    @Test
+    public void sampleRateIsAppendedToTextInBraces() throws Exception {
+        assertThat(encodeSampled("{job 42} finished", 10), is("{job 42} finished sampleRate=10\n"));
+        assertThat(encodeSampled("{job 42}", 10), is("{job 42} sampleRate=10\n"));
+        assertThat(encodeSampled("{ \"a\":1}", 10), is("{\"sampleRate\":10, \"a\":1}\n"));
+    }
+
+    @Test
+    public void sampledLengthMatchesEncodedLength() throws Exception {
+        Object[] events = {"plain", "{\"a\":\"\u00e9\"}", "{}", "{job 42}", new LogglyEvent().put("a", "b")};
+        for (Object event : events) {
+            SampledEvent sampled = new SampledEvent(event, 25);
+            for (int max : new int[] {Integer.MAX_VALUE, 20, 10}) {
+                String encoded = encodeSampled(event, 25, max);
+                assertThat(encoded, EventEncoder.encodedLength(sampled, max) + 1, is(encoded.getBytes(UTF_8).length));
+            }
+        }
+    }
+
+    private static String encodeSampled(Object event, int rate) throws Exception {
+        return encodeSampled(event, rate, Integer.MAX_VALUE);
+    }
+
+    private static String encodeSampled(Object event, int rate, int maxBytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventEncoder encoder = new EventEncoder(out);
+        encoder.writeEvent(new SampledEvent(event, rate), maxBytes);
+        encoder.close();
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private static byte[] encode(List<String> events) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventEncoder encoder = new EventEncoder(out);
+        for (String s : events) {
+            encoder.writeEvent(s);
+        }
+        encoder.close();
+        return out.toByteArray();
+    }
+
+    /** The encoding that the client used before {@link EventEncoder} */
+    private static byte[] legacyEncode(List<String> events) {
+        StringBuilder b = new StringBuilder();
+        for (String s : events) {
+            if (s == null || s.isEmpty()) {
+                continue;
+            }
+            b.append(s.replaceAll("[\r\n]", "\r")).append('\n');
+        }
+        return b.toString().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.LatencyHistogram} and
+ * {@link com.github.tony19.loggly.StripedCounter}
+ * @author tony19@gmail.com
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreWithinThreePercent() {
+        for (long v = 1; v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.bucket(v));
+            assertThat(v + " -> " + highest, highest >= v && highest - v <= v / 32, is(true));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        for (int i = 0; i < 1000; i++) {
+            long highest = LatencyHistogram.highestValue(i);
+            assertThat(LatencyHistogram.bucket(highest), is(i));
+            assertThat(LatencyHistogram.bucket(highest + 1), is(i + 1));
+        }
+    }
+
+    @Test
+    public void percentilesOfRecordedLatencies() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        assertThat(h.getCount(), is(1000L));
+        assertThat(h.getMaxMicros(), is(1000L));
+        assertThat(h.getMeanMicros(), is(500.5));
+        assertThat(Math.abs(h.getPercentileMicros(50) - 500) <= 500 / 32, is(true));
+        assertThat(Math.abs(h.getPercentileMicros(99) - 990) <= 990 / 32, is(true));
+        assertThat(h.getPercentileMicros(100), is(1000L));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertThat(h.getPercentileMicros(99.9), is(0L));
+        assertThat(h.getMeanMicros(), is(0.0));
+    }
+
+    @Test
+    public void stripedCounterSumsAllThreads() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertThat(counter.sum(), is(80000L));
+    }
+}
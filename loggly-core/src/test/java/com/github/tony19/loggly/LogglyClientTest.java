@@ -0,0 +1,1107 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertThat;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+
+/**
+ * Tests {@link com.github.tony19.loggly.LogglyClient}
+ * @author tony19@gmail.com
+ */
+public class LogglyClientTest {
+
+    private static final String TOKEN = "1e29e92a-b099-49c5-a260-4c56a71f7c89";
+    private static final String NO_TAGS = null;
+    private static final TransportResponse OK = new TransportResponse(200, "OK", LogglyResponse.OK, null);
+
+    private FakeTransport transport;
+    private LogglyClient loggly;
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setup() {
+        transport = new FakeTransport();
+        loggly = new LogglyClient(TOKEN, transport);
+    }
+
+    @Test
+    public void constructorRejectsNull() {
+        exception.expect(IllegalArgumentException.class);
+        new LogglyClient(null);
+    }
+
+    @Test
+    public void logRejectsNull() {
+        assertThat(loggly.log(null), is(false));
+        assertThat(transport.calls(), is(0));
+    }
+
+    @Test
+    public void logBulkRejectsNull() {
+        assertThat(loggly.logBulk((String[])null), is(false));
+        assertThat(transport.calls(), is(0));
+    }
+
+    @Test
+    public void logBulkVarargsRejectsNull() {
+        assertThat(loggly.logBulk(null, ""), is(false));
+        assertThat(transport.calls(), is(0));
+    }
+
+    @Test
+    public void logCallsLogRestApi() {
+        final String event = "hello world\nthis is a\nmulti-line event";
+        assertThat(loggly.log(event), is(true));
+        assertThat(transport.singles, hasItem(NO_TAGS + "|" + event));
+        assertThat(transport.tokens, hasItem(TOKEN));
+    }
+
+    @Test
+    public void logBulkCallsBulkRestApi() {
+        final boolean ok = loggly.logBulk("E 1", "E 2", "E 3");
+        assertThat(ok, is(true));
+        verifyBulk(NO_TAGS, "E 1\nE 2\nE 3\n");
+    }
+
+    @Test
+    public void logBulkPreservesNewLineAsCarriageReturn() {
+        final boolean ok = loggly.logBulk("multi-line\nevent here", "event 2");
+        assertThat(ok, is(true));
+        verifyBulk(NO_TAGS, "multi-line\revent here\nevent 2\n");
+    }
+
+    @Test
+    public void singleTagIsSentToLoggly() {
+        loggly.setTags("foo");
+        loggly.logBulk("event");
+        verifyBulk("foo", "event\n");
+    }
+
+    @Test
+    public void singleCsvTagIsSentToLoggly() {
+        loggly.setTags("foo,bar");
+        loggly.logBulk("event");
+        verifyBulk("foo,bar", "event\n");
+    }
+
+    @Test
+    public void multipleTagsAreSentToLoggly() {
+        loggly.setTags("foo", "bar");
+        loggly.logBulk("event");
+        verifyBulk("foo,bar", "event\n");
+    }
+
+    @Test
+    public void mixOfSingleTagAndMultipleTagsAreSentToLoggly() {
+        loggly.setTags("foo", "bar", "baz,abc", "w,x  ,y  ,z,  ");
+        loggly.logBulk("event");
+        verifyBulk("foo,bar,baz,abc,w,x,y,z", "event\n");
+    }
+
+    @Test
+    public void emptyTagsResultInNoTags() {
+        loggly.setTags("", "  ", " ,", ",  ,  ,,  ");
+        loggly.logBulk("event");
+        verifyBulk(NO_TAGS, "event\n");
+    }
+
+    @Test
+    public void perCallTagsOverrideClientTags() {
+        loggly.setTags("foo");
+        loggly.log("event", "bar", "baz");
+        assertThat(transport.singles, hasItem("bar,baz|event"));
+    }
+
+    @Test
+    public void batchesArePartitionedByTagSet() throws InterruptedException {
+        final LogglyClient client = new LogglyClient(TOKEN, transport,
+                new BatchOptions().maxEvents(100).maxLingerMillis(50));
+        client.setTags("default");
+        TagSet web = TagSet.of("web");
+        client.log("E 1", web);
+        client.log("E 2");
+        client.log("E 3", TagSet.of("api"));
+        client.log("E 4", web);
+        client.log("E 5");
+        awaitBulk("web", "E 1\nE 4\n");
+        awaitBulk("default", "E 2\nE 5\n");
+        awaitBulk("api", "E 3\n");
+        assertThat(transport.bulks.size(), is(3));
+    }
+
+    @Test
+    public void spooledBatchesArePartitionedByTagSet() throws Exception {
+        final File dir = folder.newFolder();
+        final LogglyClient client = new LogglyClient(TOKEN, transport,
+                new BatchOptions().maxEvents(2).maxLingerMillis(60000).spoolDirectory(dir));
+        client.log("E 1", "web");
+        client.log("E 2");
+        client.log("E 3", "web");
+        client.log("E 4");
+        awaitBulk("web", "E 1\nE 3\n");
+        awaitBulk(NO_TAGS, "E 2\nE 4\n");
+        assertThat(new File(dir, "tags-web").isDirectory(), is(true));
+    }
+
+    @Test
+    public void batchedLogIsSentInBulkAtMaxEvents() throws InterruptedException {
+        final LogglyClient client = new LogglyClient(TOKEN, transport,
+                new BatchOptions().maxEvents(3).maxLingerMillis(60000));
+        assertThat(client.log("E 1"), is(true));
+        assertThat(client.log("E 2"), is(true));
+        assertThat(client.log("E 3"), is(true));
+        awaitBulk(NO_TAGS, "E 1\nE 2\nE 3\n");
+    }
+
+    @Test
+    public void batchedLogIsSentInBulkAfterLinger() throws InterruptedException {
+        final LogglyClient client = new LogglyClient(TOKEN, transport,
+                new BatchOptions().maxEvents(100).maxLingerMillis(50));
+        assertThat(client.log("E 1"), is(true));
+        awaitBulk(NO_TAGS, "E 1\n");
+    }
+
+    @Test
+    public void batchedLogIsSplitAtMaxBytes() throws InterruptedException {
+        final LogglyClient client = new LogglyClient(TOKEN, transport,
+                new BatchOptions().maxEvents(100).maxBytes(8).maxLingerMillis(60000));
+        client.log("E 1");
+        client.log("E 2");
+        client.log("E 3");
+        awaitBulk(NO_TAGS, "E 1\nE 2\n");
+        assertThat(transport.singles.isEmpty(), is(true));
+    }
+
+    @Test
+    public void spooledLogIsSentInBulk() throws Exception {
+        final LogglyClient client = new LogglyClient(TOKEN, transport,
+                new BatchOptions().maxEvents(2).maxLingerMillis(60000).spoolDirectory(folder.newFolder()));
+        client.log("E 1");
+        client.log("E\n2");
+        awaitBulk(NO_TAGS, "E 1\nE\r2\n");
+    }
+
+    @Test
+    public void compressedBulkIsGzipped() throws Exception {
+        loggly.setCompression(6, 0);
+        assertThat(loggly.logBulk("E 1", "E 2"), is(true));
+
+        assertThat(transport.encodings, hasItem("gzip"));
+        assertThat(transport.bulks, hasItem(NO_TAGS + "|E 1\nE 2\n"));
+    }
+
+    @Test
+    public void bulkBelowCompressionThresholdIsNotGzipped() {
+        loggly.setCompression(6, 1024);
+        assertThat(loggly.logBulk("E 1", "E 2"), is(true));
+        verifyBulk(NO_TAGS, "E 1\nE 2\n");
+    }
+
+    @Test
+    public void compressionRejectsInvalidLevel() {
+        exception.expect(IllegalArgumentException.class);
+        loggly.setCompression(10, 0);
+    }
+
+    @Test
+    public void oversizedBulkIsSplitIntoParallelRequests() {
+        char[] chars = new char[BulkRequestBody.MAX_EVENT_BYTES];
+        Arrays.fill(chars, 'x');
+        final String event = new String(chars);
+
+        assertThat(loggly.logBulk(event, event, event, event, event, event), is(true));
+        assertThat(transport.bulks.size(), is(2));
+        assertThat(transport.encodings, not(hasItem("gzip")));
+        assertThat(transport.bulks.get(0).length(), is("null|".length() + 4 * (event.length() + 1)));
+        assertThat(transport.bulks.get(1).length(), is("null|".length() + 2 * (event.length() + 1)));
+    }
+
+    @Test
+    public void failedSplitRequestsAreRetriedTogetherAndCounted() {
+        loggly.setRetryPolicy(new RetryPolicy().maxAttempts(2).initialBackoffMillis(1));
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) throws IOException {
+                throw new IOException("timeout");
+            }
+        };
+        char[] chars = new char[BulkRequestBody.MAX_EVENT_BYTES];
+        Arrays.fill(chars, 'x');
+        final String event = new String(chars);
+
+        assertThat(loggly.logBulk(event, event, event, event, event, event), is(false));
+        assertThat(transport.enqueued.get(), is(4));
+        assertThat(transport.executed.get(), is(0));
+        assertThat(loggly.getMetrics().getEventsFailed(), is(6L));
+        assertThat(loggly.getMetrics().getEventsRetried(), is(6L));
+    }
+
+    @Test
+    public void transientFailureIsRetried() throws IOException {
+        loggly.setRetryPolicy(new RetryPolicy().initialBackoffMillis(1));
+        respond(error(503), error(429), OK);
+
+        assertThat(loggly.log("event"), is(true));
+        assertThat(transport.executed.get(), is(3));
+    }
+
+    @Test
+    public void retryPolicyIsCopiedWhenSet() {
+        RetryPolicy policy = new RetryPolicy().maxAttempts(1).initialBackoffMillis(1);
+        loggly.setRetryPolicy(policy);
+        policy.maxAttempts(3);
+        respond(error(503), OK);
+
+        assertThat(loggly.log("event"), is(false));
+        assertThat(transport.executed.get(), is(1));
+    }
+
+    @Test
+    public void clientErrorIsNotRetried() throws IOException {
+        loggly.setRetryPolicy(new RetryPolicy().initialBackoffMillis(1));
+        respond(error(403));
+
+        assertThat(loggly.log("event"), is(false));
+        assertThat(transport.executed.get(), is(1));
+    }
+
+    @Test
+    public void ioErrorIsRetriedUntilMaxAttempts() throws IOException {
+        loggly.setRetryPolicy(new RetryPolicy().maxAttempts(2).initialBackoffMillis(1));
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) throws IOException {
+                throw new IOException("timeout");
+            }
+        };
+
+        assertThat(loggly.log("event"), is(false));
+        assertThat(transport.executed.get(), is(2));
+    }
+
+    @Test
+    public void openCircuitRefusesRequests() throws IOException {
+        loggly.setRetryPolicy(new RetryPolicy().maxAttempts(1).circuitBreaker(2, 60000));
+        respond(error(500));
+
+        assertThat(loggly.log("E 1"), is(false));
+        assertThat(loggly.log("E 2"), is(false));
+        assertThat(loggly.log("E 3"), is(false));
+        assertThat(transport.executed.get(), is(2));
+    }
+
+    @Test
+    public void logAsyncCompletesWithResponse() throws Exception {
+        CompletableFuture<LogglyResponse> future = loggly.logAsync("event");
+        assertThat(future.get(1, TimeUnit.SECONDS).isOk(), is(true));
+        assertThat(transport.singles, hasItem(NO_TAGS + "|event"));
+    }
+
+    @Test
+    public void logAsyncFailsOnHttpError() throws Exception {
+        respond(error(403));
+        assertThat(asyncFailure(loggly.logAsync("event")).getStatusCode(), is(403));
+    }
+
+    @Test
+    public void logAsyncFailsOnUnexpectedResponse() throws Exception {
+        respond(new TransportResponse(200, "OK", new LogglyResponse("nope"), null));
+        assertThat(asyncFailure(loggly.logAsync("event")).getMessage(), is("unexpected response: nope"));
+    }
+
+    @Test
+    public void unexpectedResponseFailsOnEveryPath() {
+        respond(new TransportResponse(200, "OK", new LogglyResponse("nope"), null));
+        assertThat(loggly.log("event"), is(false));
+        assertThat(loggly.logBulk("a", "b"), is(false));
+        assertThat(loggly.getMetrics().getEventsSent(), is(0L));
+        assertThat(loggly.getMetrics().getEventsFailed(), is(3L));
+
+        LogglyClient client = new LogglyClient(TOKEN, transport, new BatchOptions().maxLingerMillis(60000));
+        client.log("c");
+        FlushResult result = client.flush(1000);
+        assertThat(result.getEventsSent(), is(0L));
+        assertThat(result.getEventsFailed(), is(1L));
+    }
+
+    @Test
+    public void logAsyncRetriesTransientFailure() throws Exception {
+        loggly.setRetryPolicy(new RetryPolicy().initialBackoffMillis(1));
+        respond(error(503), OK);
+        assertThat(loggly.logAsync("event").get(1, TimeUnit.SECONDS).isOk(), is(true));
+        assertThat(transport.enqueued.get(), is(2));
+    }
+
+    @Test
+    public void logBulkAsyncCompletesWithResponse() throws Exception {
+        CompletableFuture<LogglyResponse> future = loggly.logBulkAsync(Arrays.asList("a", "b"), TagSet.of("x"));
+        assertThat(future.get(1, TimeUnit.SECONDS).isOk(), is(true));
+        verifyBulk("x", "a\nb\n");
+    }
+
+    @Test
+    public void callbackReportsHttpError() {
+        respond(error(500));
+        loggly.setRetryPolicy(new RetryPolicy().maxAttempts(1));
+        CountingCallback callback = new CountingCallback();
+        loggly.log("event", callback);
+        assertThat(callback.failures.get(), is(1));
+        assertThat(callback.successes.get(), is(0));
+    }
+
+    @Test
+    public void callbacksRunOnCallbackExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).callbackExecutor(executor), transport);
+        CountingCallback callback = new CountingCallback();
+        client.log("event", callback);
+        CompletableFuture<LogglyResponse> future = client.logAsync("event");
+
+        assertThat(callback.successes.get() + callback.failures.get(), is(0));
+        assertThat(future.isDone(), is(false));
+        assertThat(tasks.size(), is(2));
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        assertThat(callback.successes.get(), is(1));
+        assertThat(future.isDone(), is(true));
+    }
+
+    @Test
+    public void senderLoopRunsOnSenderExecutor() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN)
+                    .batching(new BatchOptions().maxEvents(1))
+                    .senderExecutor(executor), transport);
+            client.log("event");
+            awaitBulk(NO_TAGS, "event\n");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void virtualThreadsFallBackWhenUnsupported() throws InterruptedException {
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN)
+                .batching(new BatchOptions().maxEvents(1))
+                .virtualThreads(true), transport);
+        client.log("event");
+        awaitBulk(NO_TAGS, "event\n");
+        assertThat(VirtualThreads.newPerTaskExecutor("test-") != null,
+                is(LogglyClient.Builder.isVirtualThreadSupported()));
+    }
+
+    @Test
+    public void logEventsSendsJsonInBulk() {
+        LogglyEvent e1 = new LogglyEvent().put("level", "INFO").put("n", 1);
+        LogglyEvent e2 = new LogglyEvent().put("msg", "a\nb");
+        assertThat(loggly.logEvents(e1, e2), is(true));
+        verifyBulk(NO_TAGS, "{\"level\":\"INFO\",\"n\":1}\n{\"msg\":\"a\\nb\"}\n");
+    }
+
+    @Test
+    public void batchedEventsAreMixedWithStrings() throws InterruptedException {
+        loggly = new LogglyClient(TOKEN, transport, new BatchOptions().maxEvents(2));
+        loggly.log("plain");
+        loggly.logEvent(new LogglyEvent().put("ok", true));
+        awaitBulk(NO_TAGS, "plain\n{\"ok\":true}\n");
+    }
+
+    @Test
+    public void maxInFlightRequestsLimitsConcurrentSends() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) throws IOException {
+                int n = active.incrementAndGet();
+                while (n > maxActive.get()) {
+                    maxActive.compareAndSet(maxActive.get(), n);
+                }
+                sleep(20);
+                active.decrementAndGet();
+                return OK;
+            }
+        };
+        final LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).maxInFlightRequests(2), transport);
+
+        Thread[] threads = new Thread[6];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    client.log("event");
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertThat(transport.executed.get(), is(threads.length));
+        assertThat(maxActive.get() <= 2, is(true));
+    }
+
+    @Test
+    public void metricsCountSentAndFailedEvents() throws IOException {
+        LogglyClient client = loggly;
+        client.setRetryPolicy(new RetryPolicy().maxAttempts(2).initialBackoffMillis(1));
+        assertThat(client.logBulk("E 1", "E 2"), is(true));
+
+        respond(error(503));
+        assertThat(client.log("E\u00e9"), is(false));
+
+        LogglyMetrics metrics = client.getMetrics();
+        assertThat(metrics.getEventsEnqueued(), is(3L));
+        assertThat(metrics.getBytesEnqueued(), is(11L));
+        assertThat(metrics.getEventsSent(), is(2L));
+        assertThat(metrics.getBytesSent(), is(8L));
+        assertThat(metrics.getEventsFailed(), is(1L));
+        assertThat(metrics.getEventsRetried(), is(1L));
+        assertThat(metrics.getBytesRetried(), is(3L));
+        assertThat(metrics.getStatusCount(200), is(1L));
+        assertThat(metrics.getStatusCount(503), is(2L));
+        assertThat(metrics.getLogBulkLatency().getCount(), is(1L));
+        assertThat(metrics.getLogLatency().getCount(), is(2L));
+        assertThat(metrics.getInFlightRequests(), is(0));
+    }
+
+    @Test
+    public void metricsCountTransportExceptions() {
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        assertThat(loggly.log("event"), is(false));
+
+        LogglyMetrics metrics = loggly.getMetrics();
+        assertThat(metrics.getRequestErrors(), is(1L));
+        assertThat(metrics.getEventsFailed(), is(1L));
+        assertThat(metrics.getInFlightRequests(), is(0));
+    }
+
+    @Test
+    public void metricsCountDroppedEvents() {
+        BatchOptions options = new BatchOptions().capacity(1).maxEvents(100).maxLingerMillis(60000);
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (client.log("E " + i)) {
+                accepted++;
+            }
+        }
+
+        LogglyMetrics metrics = client.getMetrics();
+        assertThat(metrics.getEventsEnqueued(), is((long) accepted));
+        assertThat(metrics.getEventsDropped(), is(1000L - accepted));
+        assertThat(metrics.getBufferedEvents() <= accepted, is(true));
+    }
+
+    @Test
+    public void rateLimitThrottlesAllButHighPriority() {
+        RateLimit limit = new RateLimit().eventsPerSecond(0.001, 2);
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).rateLimit(limit), transport);
+        assertThat(client.log("1"), is(true));
+        assertThat(client.log("2"), is(true));
+        assertThat(client.log("3"), is(false));
+        assertThat(client.log("4", Priority.HIGH), is(true));
+        assertThat(client.getMetrics().getEventsThrottled(), is(1L));
+    }
+
+    @Test
+    public void rateLimitCountsBytes() {
+        RateLimit limit = new RateLimit().bytesPerSecond(1, 10);
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).rateLimit(limit), transport);
+        assertThat(client.log("12345"), is(true));
+        assertThat(client.log("123456"), is(false));
+        assertThat(client.log("1234"), is(true));
+    }
+
+    @Test
+    public void fullBufferSamplesLowPriorityEvents() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) throws IOException {
+                sending.countDown();
+                await(release);
+                return OK;
+            }
+        };
+        BatchOptions options = new BatchOptions().capacity(4).maxEvents(1);
+        RateLimit limit = new RateLimit().adaptiveSampling(0.5, 1000);
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).batching(options).rateLimit(limit),
+                transport);
+
+        // block the sender, then fill the buffer
+        client.log("first");
+        assertThat(sending.await(1, TimeUnit.SECONDS), is(true));
+        for (int i = 0; i < 4; i++) {
+            assertThat(client.log("H", Priority.HIGH), is(true));
+        }
+        for (int i = 0; i < 100; i++) {
+            client.log("L", Priority.LOW);
+        }
+        release.countDown();
+
+        LogglyMetrics metrics = client.getMetrics();
+        assertThat(metrics.getEventsSampledOut() > 50, is(true));
+        assertThat(metrics.getEventsSampledOut() + metrics.getEventsDropped(), is(100L));
+    }
+
+    @Test
+    public void overflowDropNewestRejectsNewEvents() throws Exception {
+        LogglyClient client = new LogglyClient(TOKEN, transport, new BatchOptions().capacity(4).maxEvents(1));
+        CountDownLatch release = blockSender(client);
+        for (int i = 0; i < 6; i++) {
+            assertThat(client.log("E " + i), is(i < 4));
+        }
+        release.countDown();
+
+        awaitBulk(NO_TAGS, "E 3\n");
+        assertThat(client.getMetrics().getEventsDropped(OverflowPolicy.DROP_NEWEST), is(2L));
+    }
+
+    @Test
+    public void overflowDropOldestEvictsBufferedEvents() throws Exception {
+        BatchOptions options = new BatchOptions().capacity(4).maxEvents(1).overflowPolicy(OverflowPolicy.DROP_OLDEST);
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        CountDownLatch release = blockSender(client);
+        for (int i = 0; i < 6; i++) {
+            assertThat(client.log("E " + i), is(true));
+        }
+        release.countDown();
+
+        awaitBulk(NO_TAGS, "E 5\n");
+        assertThat(transport.bulks, not(hasItem(NO_TAGS + "|E 1\n")));
+        assertThat(client.getMetrics().getEventsDropped(OverflowPolicy.DROP_OLDEST), is(2L));
+        assertThat(client.getMetrics().getEventsDropped(), is(2L));
+    }
+
+    @Test
+    public void overflowBlockWaitsForRoomUntilTimeout() throws Exception {
+        BatchOptions options = new BatchOptions().capacity(4).maxEvents(1)
+                .overflowPolicy(OverflowPolicy.BLOCK).blockTimeoutMillis(200);
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        CountDownLatch release = blockSender(client);
+        for (int i = 0; i < 4; i++) {
+            assertThat(client.log("E " + i), is(true));
+        }
+        long start = System.nanoTime();
+        assertThat(client.log("late"), is(false));
+        assertThat(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200), is(true));
+        release.countDown();
+        assertThat(client.log("E 4"), is(true));
+
+        awaitBulk(NO_TAGS, "E 4\n");
+        LogglyMetrics metrics = client.getMetrics();
+        assertThat(metrics.getEventsDropped(OverflowPolicy.BLOCK), is(1L));
+        assertThat(metrics.getBlockLatency().getCount() >= 1, is(true));
+    }
+
+    @Test
+    public void overflowByPriorityKeepsRoomForImportantEvents() throws Exception {
+        BatchOptions options = new BatchOptions().capacity(4).maxEvents(1)
+                .overflowPolicy(OverflowPolicy.DROP_BY_PRIORITY);
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        CountDownLatch release = blockSender(client);
+        assertThat(client.log("L 1", Priority.LOW), is(true));
+        assertThat(client.log("L 2", Priority.LOW), is(true));
+        assertThat(client.log("L 3", Priority.LOW), is(false));
+        assertThat(client.log("N 1"), is(true));
+        assertThat(client.log("N 2"), is(true));
+        assertThat(client.log("N 3"), is(false));
+        assertThat(client.log("H 1", Priority.HIGH), is(true));
+        release.countDown();
+
+        awaitBulk(NO_TAGS, "H 1\n");
+        assertThat(transport.bulks, not(hasItem(NO_TAGS + "|L 1\n")));
+        assertThat(client.getMetrics().getEventsDropped(OverflowPolicy.DROP_BY_PRIORITY), is(3L));
+    }
+
+    @Test
+    public void overflowSpillsToDiskAndSendsLater() throws Exception {
+        BatchOptions options = new BatchOptions().capacity(4).maxEvents(1)
+                .spoolDirectory(folder.newFolder()).overflowPolicy(OverflowPolicy.SPILL_TO_DISK);
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        CountDownLatch release = blockSender(client);
+        for (int i = 0; i < 7; i++) {
+            assertThat(client.log("E " + i), is(true));
+        }
+        release.countDown();
+
+        awaitBulk(NO_TAGS, "E 6\n");
+        LogglyMetrics metrics = client.getMetrics();
+        assertThat(metrics.getEventsSpilled(), is(3L));
+        assertThat(metrics.getEventsDropped(), is(0L));
+    }
+
+    @Test
+    public void overflowSpillRequiresSpoolDirectory() {
+        exception.expect(IllegalArgumentException.class);
+        new LogglyClient(TOKEN, transport, new BatchOptions().overflowPolicy(OverflowPolicy.SPILL_TO_DISK));
+    }
+
+    @Test
+    public void repeatedMessagesAreSummarized() throws InterruptedException {
+        BatchOptions options = new BatchOptions().maxLingerMillis(0).suppressRepeats(50, 16);
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        for (int i = 0; i < 10; i++) {
+            assertThat(client.log("boom"), is(true));
+        }
+
+        awaitBulk(NO_TAGS, "boom\n");
+        for (int i = 0; i < 100 && transport.bulks.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(transport.bulks.size(), is(2));
+        assertThat(transport.bulks.get(1).startsWith("null|{\"message\":\"boom\",\"repeats\":9,"), is(true));
+        assertThat(client.getMetrics().getEventsSuppressed(), is(9L));
+    }
+
+    @Test
+    public void flushSendsBufferedEventsAndRepeatSummaries() {
+        BatchOptions options = new BatchOptions().maxLingerMillis(60000).suppressRepeats(60000, 16);
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        client.log("a");
+        client.log("a");
+        client.log("b");
+
+        FlushResult result = client.flush(1000);
+        assertThat(result.isComplete(), is(true));
+        assertThat(result.getEventsSent(), is(3L));
+        assertThat(transport.bulks.size(), is(1));
+        assertThat(transport.bulks.get(0).startsWith("null|a\nb\n{\"message\":\"a\",\"repeats\":1,"), is(true));
+        assertThat(new LogglyClient(TOKEN, transport).flush(0).isComplete(), is(true));
+    }
+
+    @Test
+    public void flushSendsAndAcknowledgesSpooledBatches() throws Exception {
+        BatchOptions options = new BatchOptions().maxEvents(2).maxLingerMillis(60000).spoolDirectory(folder.newFolder());
+        LogglyClient client = new LogglyClient(TOKEN, transport, options);
+        client.log("E 1");
+        client.log("E 2");
+        client.log("E 3");
+
+        assertThat(client.flush(1000).isComplete(), is(true));
+        assertThat(transport.bulks, hasItem(NO_TAGS + "|E 1\nE 2\n"));
+        assertThat(transport.bulks, hasItem(NO_TAGS + "|E 3\n"));
+        assertThat(client.flush(1000).getEventsSent(), is(0L));
+        assertThat(transport.bulks.size(), is(2));
+    }
+
+    @Test
+    public void closeSendsPartitionsInParallel() {
+        final CountDownLatch enqueued = new CountDownLatch(2);
+        transport.sender = new Sender() {
+            @Override
+            public void send(TransportRequest request, final Transport.Callback callback) {
+                enqueued.countDown();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            // completes only once both requests are in flight
+                            enqueued.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        callback.onResponse(OK);
+                    }
+                }).start();
+            }
+        };
+        LogglyClient client = new LogglyClient(TOKEN, transport, new BatchOptions().maxLingerMillis(60000));
+        client.log("a", "x");
+        client.log("b", "y");
+        client.log("c", "x");
+
+        FlushResult result = client.close(2000);
+        assertThat(result.isComplete(), is(true));
+        assertThat(result.getEventsSent(), is(3L));
+        assertThat(transport.bulks, hasItem("x|a\nc\n"));
+        assertThat(transport.bulks, hasItem("y|b\n"));
+    }
+
+    @Test
+    public void closeAbandonsEventsAfterDeadline() {
+        transport.sender = new Sender() {
+            @Override
+            public void send(TransportRequest request, Transport.Callback callback) {
+                // never answered
+            }
+        };
+        LogglyClient client = new LogglyClient(TOKEN, transport, new BatchOptions().maxLingerMillis(60000));
+        client.log("a");
+        client.log("b");
+
+        long start = System.nanoTime();
+        FlushResult result = client.close(100);
+        assertThat(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), is(true));
+        assertThat(result.isComplete(), is(false));
+        assertThat(result.getEventsSent(), is(0L));
+        assertThat(result.getEventsAbandoned(), is(2L));
+    }
+
+    @Test
+    public void closeRetriesWaitForRetryAfter() {
+        LogglyClient client = new LogglyClient(TOKEN, transport, new BatchOptions().maxLingerMillis(60000));
+        client.setRetryPolicy(new RetryPolicy().initialBackoffMillis(1));
+        respond(new TransportResponse(429, "Too Many Requests", null, "1"), OK);
+        client.log("a");
+
+        long start = System.nanoTime();
+        FlushResult result = client.close(5000);
+        assertThat(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1), is(true));
+        assertThat(result.getEventsSent(), is(1L));
+        assertThat(transport.enqueued.get(), is(2));
+    }
+
+    @Test
+    public void closedClientRejectsEvents() {
+        LogglyClient client = new LogglyClient(TOKEN, transport, new BatchOptions());
+        client.close();
+        assertThat(client.log("late"), is(false));
+        assertThat(client.close(1000).getEventsSent(), is(0L));
+        assertThat(client.flush(1000).isComplete(), is(true));
+    }
+
+    @Test
+    public void highPriorityEventsSkipTheBatchingDelay() throws InterruptedException {
+        LogglyClient client = new LogglyClient(TOKEN, transport,
+                new BatchOptions().maxLingerMillis(60000).highPriorityLane(0));
+        client.log("routine");
+        client.log("boom", Priority.HIGH);
+        awaitBulk(NO_TAGS, "boom\n");
+        assertThat(transport.bulks, not(hasItem(NO_TAGS + "|routine\n")));
+        assertThat(client.getMetrics().getBufferedEvents(), is(1));
+
+        FlushResult result = client.flush(1000);
+        assertThat(result.getEventsSent(), is(1L));
+        assertThat(transport.bulks, hasItem(NO_TAGS + "|routine\n"));
+    }
+
+    @Test
+    public void highPriorityLaneHasReservedInFlightSlot() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) throws IOException {
+                if (calls.getAndIncrement() == 0) {
+                    sending.countDown();
+                    await(release);
+                }
+                return OK;
+            }
+        };
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).maxInFlightRequests(1)
+                .batching(new BatchOptions().maxLingerMillis(0).highPriorityLane(0)), transport);
+
+        // the only shared slot is taken by a stuck request
+        client.log("first");
+        assertThat(sending.await(1, TimeUnit.SECONDS), is(true));
+        client.log("boom", Priority.HIGH);
+        awaitBulk(NO_TAGS, "boom\n");
+        release.countDown();
+        assertThat(client.close(1000).isComplete(), is(true));
+    }
+
+    @Test
+    public void adaptiveBatchingGrowsConcurrencyWhileHealthy() throws Exception {
+        final ExecutorService responder = Executors.newCachedThreadPool();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        transport.sender = new Sender() {
+            @Override
+            public void send(TransportRequest request, final Transport.Callback callback) {
+                int n = active.incrementAndGet();
+                while (n > maxActive.get()) {
+                    maxActive.compareAndSet(maxActive.get(), n);
+                }
+                responder.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Thread.sleep(5);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        active.decrementAndGet();
+                        callback.onResponse(OK);
+                    }
+                });
+            }
+        };
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).maxInFlightRequests(4)
+                .batching(new BatchOptions().maxEvents(1).maxLingerMillis(0).adaptive(1000)), transport);
+
+        for (int i = 0; i < 50; i++) {
+            client.log("E " + i);
+        }
+        assertThat(client.flush(5000).isComplete(), is(true));
+        assertThat(transport.bulks.size(), is(50));
+        assertThat(client.getMetrics().getAdaptiveConcurrency(), is(4));
+        assertThat(maxActive.get() <= 4, is(true));
+        responder.shutdown();
+    }
+
+    @Test
+    public void metricsExporterIsCalledPeriodically() throws InterruptedException {
+        final CountDownLatch exported = new CountDownLatch(2);
+        final List<LogglyMetrics> metrics = Collections.synchronizedList(new ArrayList<LogglyMetrics>());
+        MetricsExporter exporter = new MetricsExporter() {
+            @Override
+            public void export(LogglyMetrics m) {
+                metrics.add(m);
+                exported.countDown();
+            }
+        };
+        LogglyClient client = new LogglyClient(new LogglyClient.Builder(TOKEN).metricsExporter(exporter, 10), transport);
+        assertThat(exported.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(metrics.get(0), is(client.getMetrics()));
+    }
+
+    /**
+     * Makes the transport answer with the given responses in turn,
+     * the last one being repeated
+     */
+    private void respond(final TransportResponse... responses) {
+        final AtomicInteger next = new AtomicInteger();
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) {
+                return responses[Math.min(next.getAndIncrement(), responses.length - 1)];
+            }
+        };
+    }
+
+    private static LogglyException asyncFailure(CompletableFuture<LogglyResponse> future) throws Exception {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return (LogglyException) e.getCause();
+        }
+        throw new AssertionError("future did not fail");
+    }
+
+    private static TransportResponse error(int code) {
+        return new TransportResponse(code, "error", null, null);
+    }
+
+    /**
+     * Logs an event and holds its request until the returned latch is
+     * released, so the events logged meanwhile stay in the buffer
+     */
+    private CountDownLatch blockSender(LogglyClient client) throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        transport.responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) throws IOException {
+                sending.countDown();
+                await(release);
+                return OK;
+            }
+        };
+        client.log("first");
+        assertThat(sending.await(1, TimeUnit.SECONDS), is(true));
+        return release;
+    }
+
+    private void verifyBulk(String tags, String events) {
+        assertThat(transport.bulks, hasItem(tags + "|" + events));
+        assertThat(transport.encodings, not(hasItem("gzip")));
+    }
+
+    private void awaitBulk(String tags, String events) throws InterruptedException {
+        final String request = tags + "|" + events;
+        for (int i = 0; i < 100 && !transport.bulks.contains(request); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(transport.bulks, hasItem(request));
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Answers the requests of a {@link FakeTransport}
+     */
+    private interface Responder {
+        TransportResponse respond(TransportRequest request) throws IOException;
+    }
+
+    /**
+     * Answers the asynchronous requests of a {@link FakeTransport}
+     */
+    private interface Sender {
+        void send(TransportRequest request, Transport.Callback callback);
+    }
+
+    /**
+     * Transport that records the requests, as "tags|events", and
+     * answers them with its responder. Asynchronous requests are
+     * answered on the calling thread, unless a sender is set.
+     */
+    private static final class FakeTransport implements Transport {
+        final List<String> tokens = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> singles = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> bulks = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> encodings = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger executed = new AtomicInteger();
+        final AtomicInteger enqueued = new AtomicInteger();
+        volatile Responder responder = new Responder() {
+            @Override
+            public TransportResponse respond(TransportRequest request) {
+                return OK;
+            }
+        };
+        volatile Sender sender;
+
+        @Override
+        public TransportResponse execute(TransportRequest request) throws IOException {
+            executed.incrementAndGet();
+            record(request);
+            return responder.respond(request);
+        }
+
+        @Override
+        public void enqueue(TransportRequest request, Callback callback) {
+            enqueued.incrementAndGet();
+            try {
+                record(request);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            if (sender != null) {
+                sender.send(request, callback);
+                return;
+            }
+            TransportResponse response;
+            try {
+                response = responder.respond(request);
+            } catch (IOException e) {
+                callback.onFailure(e);
+                return;
+            }
+            callback.onResponse(response);
+        }
+
+        int calls() {
+            return executed.get() + enqueued.get();
+        }
+
+        private void record(TransportRequest request) throws IOException {
+            tokens.add(request.getToken());
+            if (!request.isBulk()) {
+                singles.add(request.getTags() + "|" + request.getMessage());
+                return;
+            }
+            // the body streams from the caller's collection, so read it right away
+            encodings.add(request.getContentEncoding());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            request.writeTo(out);
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            if ("gzip".equals(request.getContentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            ByteArrayOutputStream events = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                events.write(buffer, 0, n);
+            }
+            bulks.add(request.getTags() + "|" + events.toString("UTF-8"));
+        }
+    }
+
+    /**
+     * Callback that counts its calls
+     */
+    private static final class CountingCallback implements ILogglyClient.Callback {
+        final AtomicInteger successes = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+
+        @Override
+        public void success() {
+            successes.incrementAndGet();
+        }
+
+        @Override
+        public void failure(String error) {
+            failures.incrementAndGet();
+        }
+    }
+}
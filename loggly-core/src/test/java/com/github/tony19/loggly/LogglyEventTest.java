@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests the JSON serialization of {@link com.github.tony19.loggly.LogglyEvent}
+ * by {@link com.github.tony19.loggly.EventEncoder}, checked with Gson
+ * @author tony19@gmail.com
+ */
+public class LogglyEventTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void fieldsAreSerializedAsJson() {
+        LogglyEvent event = new LogglyEvent()
+                .put("message", "hello world")
+                .put("count", 42)
+                .put("negative", -7)
+                .put("min", Long.MIN_VALUE)
+                .put("ratio", 0.25)
+                .put("whole", 3.0)
+                .put("big", 1.5e300)
+                .put("nan", Double.NaN)
+                .put("ok", true)
+                .put("failed", false)
+                .putNull("nothing")
+                .put("nested", new LogglyEvent().put("a", 1).put("b", "c"));
+
+        JsonObject json = parse(event);
+        assertThat(json.get("message").getAsString(), is("hello world"));
+        assertThat(json.get("count").getAsLong(), is(42L));
+        assertThat(json.get("negative").getAsLong(), is(-7L));
+        assertThat(json.get("min").getAsLong(), is(Long.MIN_VALUE));
+        assertThat(json.get("ratio").getAsDouble(), is(0.25));
+        assertThat(json.get("whole").getAsDouble(), is(3.0));
+        assertThat(json.get("big").getAsDouble(), is(1.5e300));
+        assertThat(json.get("nan").isJsonNull(), is(true));
+        assertThat(json.get("ok").getAsBoolean(), is(true));
+        assertThat(json.get("failed").getAsBoolean(), is(false));
+        assertThat(json.get("nothing").isJsonNull(), is(true));
+        assertThat(json.getAsJsonObject("nested").get("b").getAsString(), is("c"));
+        assertThat(event.toString().startsWith("{\"message\":\"hello world\",\"count\":42,"), is(true));
+    }
+
+    @Test
+    public void stringsAreEscaped() {
+        String text = "quote\" backslash\\ new-line\n tab\t nul\u0000 caf\u00e9 \u4e2d \uD83D\uDE00";
+        LogglyEvent event = new LogglyEvent().put("key \"\n", text);
+
+        String json = event.toString();
+        assertThat(json.indexOf('\n'), is(-1));
+        assertThat(parse(event).get("key \"\n").getAsString(), is(text));
+    }
+
+    @Test
+    public void loneSurrogateIsReplaced() {
+        LogglyEvent event = new LogglyEvent().put("s", "a\uD83Db");
+        assertThat(parse(event).get("s").getAsString(), is("a?b"));
+    }
+
+    @Test
+    public void lengthMatchesEncodedBytes() throws Exception {
+        Random random = new Random(42);
+        String chars = "ab\"\\\n\u0001\u00e9\u4e2d\uD83D\uDE00";
+        for (int n = 0; n < 200; n++) {
+            LogglyEvent event = new LogglyEvent();
+            for (int i = 0; i < n % 12; i++) {
+                StringBuilder b = new StringBuilder();
+                for (int j = random.nextInt(3000); j > 0; j--) {
+                    b.append(chars.charAt(random.nextInt(chars.length())));
+                }
+                event.put("k" + i, b.toString())
+                        .put("n" + i, random.nextLong())
+                        .put("d" + i, random.nextInt(1000) / 8.0);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            EventEncoder encoder = new EventEncoder(out);
+            encoder.writeEvent(event, Integer.MAX_VALUE);
+            encoder.close();
+
+            assertThat(out.size(), is(EventEncoder.encodedLength(event, Integer.MAX_VALUE) + 1));
+            assertThat(new String(out.toByteArray(), UTF_8), is(event.toString() + "\n"));
+        }
+    }
+
+    @Test
+    public void oversizedEventIsTruncatedAsText() throws Exception {
+        LogglyEvent event = new LogglyEvent().put("message", "0123456789");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EventEncoder encoder = new EventEncoder(out);
+        encoder.writeEvent(event, 10);
+        encoder.close();
+
+        assertThat(new String(out.toByteArray(), UTF_8), is("{\"message\"\n"));
+        assertThat(EventEncoder.encodedLength(event, 10), is(10));
+    }
+
+    private static JsonObject parse(LogglyEvent event) {
+        return new JsonParser().parse(event.toString()).getAsJsonObject();
+    }
+}
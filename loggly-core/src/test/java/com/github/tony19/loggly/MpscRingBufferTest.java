@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.MpscRingBuffer}
+ * @author tony19@gmail.com
+ */
+public class MpscRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertThat(new MpscRingBuffer<String>(1).capacity(), is(1));
+        assertThat(new MpscRingBuffer<String>(5).capacity(), is(8));
+        assertThat(new MpscRingBuffer<String>(8).capacity(), is(8));
+    }
+
+    @Test
+    public void pollReturnsElementsInOrder() {
+        MpscRingBuffer<String> ring = new MpscRingBuffer<String>(4);
+        assertThat(ring.poll(), is(nullValue()));
+        ring.offer("a");
+        ring.offer("b");
+        assertThat(ring.size(), is(2));
+        assertThat(ring.poll(), is("a"));
+        assertThat(ring.poll(), is("b"));
+        assertThat(ring.isEmpty(), is(true));
+    }
+
+    @Test
+    public void tagIsPolledWithItsElement() {
+        MpscRingBuffer<String> ring = new MpscRingBuffer<String>(4);
+        ring.offer("a", "x");
+        ring.offer("b");
+        assertThat(ring.poll(), is("a"));
+        assertThat(ring.polledTag(), is((Object) "x"));
+        assertThat(ring.poll(), is("b"));
+        assertThat(ring.polledTag(), is(nullValue()));
+    }
+
+    @Test
+    public void offerFailsWhenFull() {
+        MpscRingBuffer<String> ring = new MpscRingBuffer<String>(2);
+        assertThat(ring.offer("a"), is(true));
+        assertThat(ring.offer("b"), is(true));
+        assertThat(ring.offer("c"), is(false));
+        assertThat(ring.poll(), is("a"));
+        assertThat(ring.offer("c"), is(true));
+        assertThat(ring.poll(), is("b"));
+        assertThat(ring.poll(), is("c"));
+    }
+
+    @Test
+    public void evictRemovesHeadToMakeRoom() {
+        MpscRingBuffer<String> ring = new MpscRingBuffer<String>(2);
+        ring.offer("a", "x");
+        ring.offer("b", "y");
+        assertThat(ring.evict(), is("a"));
+        assertThat(ring.offer("c"), is(true));
+        assertThat(ring.poll(), is("b"));
+        assertThat(ring.polledTag(), is((Object) "y"));
+        assertThat(ring.poll(), is("c"));
+        assertThat(ring.evict(), is(nullValue()));
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 50000;
+        final MpscRingBuffer<Integer> ring = new MpscRingBuffer<Integer>(1024);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!ring.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+
+        final boolean[] seen = new boolean[producers * perProducer];
+        final int[] last = new int[producers];
+        Arrays.fill(last, -1);
+        for (int received = 0; received < seen.length; ) {
+            Integer n = ring.poll();
+            if (n == null) {
+                Thread.yield();
+                continue;
+            }
+            assertThat(seen[n], is(false));
+            seen[n] = true;
+
+            // elements from a single producer must stay in order
+            int producer = n / perProducer;
+            assertThat(n > last[producer], is(true));
+            last[producer] = n;
+            received++;
+        }
+        assertThat(ring.isEmpty(), is(true));
+    }
+}
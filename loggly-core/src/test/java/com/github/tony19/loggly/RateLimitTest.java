@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.TokenBucket} and the adaptive
+ * sampling of {@link com.github.tony19.loggly.RateLimit}
+ * @author tony19@gmail.com
+ */
+public class RateLimitTest {
+
+    @Test
+    public void bucketAllowsBurstThenRejects() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+        assertThat(bucket.tryAcquire(1, false), is(true));
+        assertThat(bucket.tryAcquire(1, false), is(true));
+        assertThat(bucket.tryAcquire(1, false), is(true));
+        assertThat(bucket.tryAcquire(1, false), is(false));
+    }
+
+    @Test
+    public void bucketRefillsOverTime() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        assertThat(bucket.tryAcquire(1, false), is(true));
+        assertThat(bucket.tryAcquire(1, false), is(false));
+        Thread.sleep(20);
+        assertThat(bucket.tryAcquire(1, false), is(true));
+    }
+
+    @Test
+    public void forcedAcquireAlwaysSucceeds() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        assertThat(bucket.tryAcquire(1, false), is(true));
+        assertThat(bucket.tryAcquire(5, true), is(true));
+        assertThat(bucket.tryAcquire(1, false), is(false));
+    }
+
+    @Test
+    public void oversizedAcquireSucceedsWhenFull() {
+        TokenBucket bucket = new TokenBucket(10, 100);
+        assertThat(bucket.tryAcquire(500, false), is(true));
+        assertThat(bucket.tryAcquire(1, false), is(false));
+    }
+
+    @Test
+    public void sampleRateGrowsWithFill() {
+        RateLimit limit = new RateLimit().adaptiveSampling(0.5, 100);
+        assertThat(limit.sampleRate(Priority.LOW, 0.4), is(1));
+        assertThat(limit.sampleRate(Priority.LOW, 0.75), is(10));
+        assertThat(limit.sampleRate(Priority.LOW, 1.0), is(100));
+        assertThat(limit.sampleRate(Priority.NORMAL, 0.75), is(1));
+        assertThat(limit.sampleRate(Priority.NORMAL, 1.0), is(100));
+        assertThat(limit.sampleRate(Priority.HIGH, 1.0), is(1));
+    }
+
+    @Test
+    public void noSamplingUnlessEnabled() {
+        RateLimit limit = new RateLimit().eventsPerSecond(10, 10);
+        assertThat(limit.sampleRate(Priority.LOW, 1.0), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void samplingRejectsFullStartFill() {
+        new RateLimit().adaptiveSampling(1.0, 10);
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.RepeatFilter}
+ * @author tony19@gmail.com
+ */
+public class RepeatFilterTest {
+
+    private final List<String> summaries = new ArrayList<String>();
+
+    private final RepeatFilter.Sink sink = new RepeatFilter.Sink() {
+        @Override
+        public void emit(LogglyEvent summary, TagSet tags) {
+            summaries.add(tags + "|" + summary.toString().replaceAll(",\"firstSeen\".*", ""));
+        }
+    };
+
+    @Test
+    public void repeatsWithinWindowAreSuppressed() {
+        RepeatFilter filter = new RepeatFilter(60000, 16, false, sink);
+        assertThat(filter.isRepeat("boom", null), is(false));
+        assertThat(filter.isRepeat("boom", null), is(true));
+        assertThat(filter.isRepeat("boom", null), is(true));
+        assertThat(filter.isRepeat("other", null), is(false));
+        assertThat(summaries.isEmpty(), is(true));
+    }
+
+    @Test
+    public void summaryIsEmittedWhenWindowEnds() throws InterruptedException {
+        RepeatFilter filter = new RepeatFilter(10, 16, false, sink);
+        filter.isRepeat("boom", null);
+        filter.isRepeat("boom", null);
+        filter.isRepeat("boom", null);
+        filter.isRepeat("once", null);
+        Thread.sleep(20);
+        filter.expire();
+
+        assertThat(summaries.size(), is(1));
+        assertThat(summaries.get(0), is("null|{\"message\":\"boom\",\"repeats\":2"));
+        assertThat(filter.isRepeat("boom", null), is(false));
+    }
+
+    @Test
+    public void summaryIsEmittedWithoutLockingTheStripe() throws Exception {
+        final RepeatFilter[] filter = new RepeatFilter[1];
+        final List<Boolean> repeats = new ArrayList<Boolean>();
+        filter[0] = new RepeatFilter(10, 1, false, new RepeatFilter.Sink() {
+            @Override
+            public void emit(LogglyEvent summary, TagSet tags) {
+                // a sink that blocks on another logging thread
+                Thread t = new Thread() {
+                    @Override
+                    public void run() {
+                        repeats.add(filter[0].isRepeat("other", null));
+                    }
+                };
+                t.start();
+                try {
+                    t.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        filter[0].isRepeat("boom", null);
+        filter[0].isRepeat("boom", null);
+        Thread.sleep(20);
+        filter[0].expire();
+        assertThat(repeats.size(), is(1));
+    }
+
+    @Test
+    public void repeatAfterWindowStartsNewWindow() throws InterruptedException {
+        RepeatFilter filter = new RepeatFilter(10, 16, false, sink);
+        filter.isRepeat("boom", null);
+        filter.isRepeat("boom", null);
+        Thread.sleep(20);
+        assertThat(filter.isRepeat("boom", null), is(false));
+        assertThat(summaries.size(), is(1));
+    }
+
+    @Test
+    public void tagsAreMatched() {
+        RepeatFilter filter = new RepeatFilter(60000, 16, false, sink);
+        filter.isRepeat("boom", TagSet.of("a"));
+        assertThat(filter.isRepeat("boom", TagSet.of("b")), is(false));
+        assertThat(filter.isRepeat("boom", null), is(false));
+        assertThat(filter.isRepeat("boom", TagSet.of("a")), is(true));
+    }
+
+    @Test
+    public void normalizedMessagesIgnoreNumbers() {
+        RepeatFilter filter = new RepeatFilter(60000, 16, true, sink);
+        filter.isRepeat("timeout after 3012 ms on 10.0.0.5:8080", null);
+        assertThat(filter.isRepeat("timeout after 17 ms on 10.0.0.6:80", null), is(true));
+        assertThat(filter.isRepeat("timeout after ms on 10.0.0.6:80", null), is(false));
+    }
+
+    @Test
+    public void sameTemplateComparesDigitRuns() {
+        assertThat(RepeatFilter.sameTemplate("id=1 x", "id=123 x"), is(true));
+        assertThat(RepeatFilter.sameTemplate("id=1", "id=1 "), is(false));
+        assertThat(RepeatFilter.sameTemplate("a1b", "ab"), is(false));
+        assertThat(RepeatFilter.sameTemplate("", ""), is(true));
+    }
+
+    @Test
+    public void fullTableEvictsOldestWindow() {
+        RepeatFilter filter = new RepeatFilter(60000, 1, false, sink);
+        filter.isRepeat("boom", null);
+        filter.isRepeat("boom", null);
+        assertThat(filter.isRepeat("other", null), is(false));
+        assertThat(summaries.size(), is(1));
+        assertThat(filter.isRepeat("boom", null), is(false));
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.TagSet}
+ * @author tony19@gmail.com
+ */
+public class TagSetTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    @Test
+    public void tagsAreNormalizedIntoHeader() {
+        assertThat(TagSet.of("foo", " bar ", "baz,abc", "w,x  ,y  ,z,  ").header(), is("foo,bar,baz,abc,w,x,y,z"));
+        assertThat(TagSet.of("", "foo").header(), is("foo"));
+    }
+
+    @Test
+    public void tagSetsAreInterned() {
+        assertThat(TagSet.of("app,prod"), is(sameInstance(TagSet.of("app,prod"))));
+        assertThat(TagSet.of("app", "prod"), is(sameInstance(TagSet.of("app,prod"))));
+        assertThat(TagSet.of(" app , prod "), is(sameInstance(TagSet.of("app,prod"))));
+    }
+
+    @Test
+    public void emptyTagsHaveNoHeader() {
+        assertThat(TagSet.of("", "  ", " ,", ",  ,  ,,  "), is(sameInstance(TagSet.EMPTY)));
+        assertThat(TagSet.of(), is(sameInstance(TagSet.EMPTY)));
+        assertThat(TagSet.EMPTY.header(), is(nullValue()));
+        assertThat(TagSet.EMPTY.isEmpty(), is(true));
+    }
+
+    @Test
+    public void validTagsAreAccepted() {
+        assertThat(TagSet.of("a", "Z9", "my-app_v1.2").header(), is("a,Z9,my-app_v1.2"));
+    }
+
+    @Test
+    public void tagWithSpaceIsRejected() {
+        exception.expect(IllegalArgumentException.class);
+        TagSet.of("my app");
+    }
+
+    @Test
+    public void tagStartingWithPunctuationIsRejected() {
+        exception.expect(IllegalArgumentException.class);
+        TagSet.of("-app");
+    }
+
+    @Test
+    public void tooLongTagIsRejected() {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i <= TagSet.MAX_TAG_LENGTH; i++) {
+            b.append('a');
+        }
+        exception.expect(IllegalArgumentException.class);
+        TagSet.of(b.toString());
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests {@link com.github.tony19.loggly.UrlConnectionTransport}
+ * @author tony19@gmail.com
+ */
+public class UrlConnectionTransportTest {
+    private static final String TOKEN = "1e29e92a-b099-49c5-a260-4c56a71f7c89";
+
+    private HttpServer server;
+    /** Requests received by the server, as "path|tags|body" (gunzipped) */
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    /** Number of requests to fail with HTTP 503 before accepting them */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    in = new GZIPInputStream(in);
+                }
+                requests.add(exchange.getRequestURI().getPath() + "|"
+                        + exchange.getRequestHeaders().getFirst("X-LOGGLY-TAG") + "|" + read(in));
+
+                byte[] body;
+                if (failures.getAndDecrement() > 0) {
+                    body = "{}".getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Retry-After", "0");
+                    exchange.sendResponseHeaders(503, body.length);
+                } else {
+                    body = "{\"response\" : \"ok\"}".getBytes("UTF-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                }
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+
+    private LogglyClient.Builder builder() {
+        return new LogglyClient.Builder(TOKEN).endpoint("http://127.0.0.1:" + server.getAddress().getPort());
+    }
+
+    @Test
+    public void sendsSingleEventAsText() {
+        LogglyClient client = builder().tags("web").build();
+        assertThat(client.log("caf\u00e9\nmulti-line"), is(true));
+        assertThat(requests.get(0), is("/inputs/" + TOKEN + "|web|caf\u00e9\nmulti-line"));
+    }
+
+    @Test
+    public void sendsCompressedBulkEvents() {
+        LogglyClient client = builder().compression(6, 0).build();
+        assertThat(client.logBulk("E 1", "E\n2"), is(true));
+        assertThat(requests.get(0), is("/bulk/" + TOKEN + "|null|E 1\nE\r2\n"));
+    }
+
+    @Test
+    public void retriesServerErrors() {
+        failures.set(2);
+        LogglyClient client = builder().retryPolicy(new RetryPolicy().initialBackoffMillis(1)).build();
+        assertThat(client.log("event"), is(true));
+        assertThat(requests.size(), is(3));
+        assertThat(client.getMetrics().getStatusCount(503), is(2L));
+    }
+
+    @Test
+    public void sendsAsyncRequestsOnExecutor() throws Exception {
+        LogglyClient client = builder().maxInFlightRequests(2).build();
+        CompletableFuture<LogglyResponse> single = client.logAsync("event");
+        CompletableFuture<LogglyResponse> bulk = client.logBulkAsync(Arrays.asList("a", "b"));
+        assertThat(single.get(1, TimeUnit.SECONDS).isOk(), is(true));
+        assertThat(bulk.get(1, TimeUnit.SECONDS).isOk(), is(true));
+        assertThat(requests.size(), is(2));
+    }
+
+    @Test
+    public void failsWhenServerIsDown() {
+        server.stop(0);
+        LogglyClient client = builder().retryPolicy(new RetryPolicy().maxAttempts(1)).build();
+        assertThat(client.log("event"), is(false));
+        assertThat(client.getMetrics().getEventsFailed(), is(1L));
+    }
+
+    @Test
+    public void parsesResponseWithoutJsonLibrary() {
+        assertThat(LogglyResponse.parse("{\"response\":\"ok\"}").isOk(), is(true));
+        assertThat(LogglyResponse.parse("{ \"response\" :\n \"nope\" }").getText(), is("nope"));
+        assertThat(LogglyResponse.parse("{}"), is(nullValue()));
+        assertThat(LogglyResponse.parse("{\"response\":1}"), is(nullValue()));
+        assertThat(LogglyResponse.parse(null), is(nullValue()));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != -1; ) {
+            out.write(b);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,672 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Embeddable stand-in for Loggly's HTTP API, for tests and load tests
+ * that run without network access.
+ * <p>
+ * The server speaks HTTP/1.1 with keep-alive on a loopback port, and
+ * implements {@code inputs/<token>} (one event per request) and
+ * {@code bulk/<token>} (one event per line), with tags from the
+ * {@code X-LOGGLY-TAG} header and gzip-compressed bodies. It counts the
+ * events it accepts, in total and per tag, and hands each of them to
+ * an optional {@link Listener}.
+ * <p>
+ * Faults can be injected, and changed while the server runs: latency
+ * before each response, error statuses such as 429 or 503, connection
+ * resets, and slow reads of the request bodies. Events of a request
+ * that fails are not counted, so the client is expected to send them
+ * again.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class FakeLogglyServer implements Closeable {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] OK = "{\"response\":\"ok\"}".getBytes(UTF_8);
+    private static final int MAX_STATUS = 600;
+    /** Period of the reads of a throttled request body */
+    private static final long SLOW_READ_PERIOD_MILLIS = 100;
+
+    /**
+     * Receives the events accepted by the server
+     */
+    public interface Listener {
+        /**
+         * Called for each accepted event, from the thread of its connection
+         * @param tags tags of the event, which is empty if it has none
+         * @param event text of the event
+         */
+        void onEvent(List<String> tags, String event);
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private volatile boolean closed;
+
+    private volatile long minLatencyMillis;
+    private volatile long maxLatencyMillis;
+    /** Probability of each error status, or {@code null} if none are injected */
+    private volatile Map<Integer, Double> statusRates;
+    private volatile int retryAfterSeconds;
+    private volatile double resetRate;
+    private volatile int slowReadBytesPerSecond;
+    private volatile Listener listener;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+    private final ConcurrentHashMap<String, AtomicLong> tagCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Starts the server on an ephemeral port of the loopback interface
+     * @throws IOException the server socket could not be opened
+     */
+    public FakeLogglyServer() throws IOException {
+        serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "fake-loggly");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * Gets the base URL of the server's API, to be passed to
+     * {@link LogglyClient.Builder#endpoint(String)}
+     * @return the URL, ending with a slash
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+    }
+
+    /**
+     * Delays each response by a random time in a range
+     * @param minMillis shortest delay in milliseconds
+     * @param maxMillis longest delay in milliseconds
+     * @return this server
+     */
+    public FakeLogglyServer latency(long minMillis, long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("invalid latency range: " + minMillis + "-" + maxMillis);
+        }
+        this.minLatencyMillis = minMillis;
+        this.maxLatencyMillis = maxMillis;
+        return this;
+    }
+
+    /**
+     * Answers a fraction of the requests with an error status, such as
+     * 429 (throttled) or 503, without accepting their events
+     * @param status HTTP status code (400-599)
+     * @param probability fraction of the requests (0.0 to 1.0), or 0
+     *                    to stop injecting this status
+     * @return this server
+     */
+    public synchronized FakeLogglyServer statusRate(int status, double probability) {
+        if (status < 400 || status >= MAX_STATUS) {
+            throw new IllegalArgumentException("status must be an error status: " + status);
+        }
+        checkProbability(probability);
+        Map<Integer, Double> rates = statusRates != null
+                ? new HashMap<Integer, Double>(statusRates)
+                : new HashMap<Integer, Double>();
+        if (probability > 0) {
+            rates.put(status, probability);
+        } else {
+            rates.remove(status);
+        }
+        statusRates = rates.isEmpty() ? null : rates;
+        return this;
+    }
+
+    /**
+     * Sets the {@code Retry-After} header of the injected 429 and 503
+     * responses
+     * @param seconds delay in seconds, or 0 to omit the header
+     * @return this server
+     */
+    public FakeLogglyServer retryAfterSeconds(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("seconds cannot be negative");
+        }
+        this.retryAfterSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Resets the connection of a fraction of the requests once their
+     * headers are read, as a crashed load balancer would
+     * @param probability fraction of the requests (0.0 to 1.0)
+     * @return this server
+     */
+    public FakeLogglyServer resetRate(double probability) {
+        checkProbability(probability);
+        this.resetRate = probability;
+        return this;
+    }
+
+    /**
+     * Reads the request bodies at a limited rate, as over a congested
+     * network, which exercises the client's write timeouts and
+     * backpressure
+     * @param bytesPerSecond max read rate, or 0 to read at full speed
+     * @return this server
+     */
+    public FakeLogglyServer slowRead(int bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond cannot be negative");
+        }
+        this.slowReadBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Stops injecting faults
+     * @return this server
+     */
+    public synchronized FakeLogglyServer clearFaults() {
+        minLatencyMillis = 0;
+        maxLatencyMillis = 0;
+        statusRates = null;
+        resetRate = 0;
+        slowReadBytesPerSecond = 0;
+        return this;
+    }
+
+    /**
+     * Sets the receiver of the accepted events
+     * @param listener listener, or {@code null} for none
+     * @return this server
+     */
+    public FakeLogglyServer listener(Listener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Gets the number of requests received, including failed ones
+     * @return the request count
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Gets the number of events accepted
+     * @return the event count
+     */
+    public long getEventCount() {
+        return events.get();
+    }
+
+    /**
+     * Gets the number of accepted events that carried a tag
+     * @param tag tag of the events
+     * @return the event count
+     */
+    public long getEventCount(String tag) {
+        AtomicLong count = tagCounts.get(tag);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Gets the number of accepted events per tag
+     * @return a snapshot of the counts
+     */
+    public Map<String, Long> getEventCountsByTag() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : tagCounts.entrySet()) {
+            counts.put(e.getKey(), e.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the size of the accepted events, as received
+     * @return the number of bytes, before decompression
+     */
+    public long getByteCount() {
+        return bytes.get();
+    }
+
+    /**
+     * Gets the number of responses with a status
+     * @param status HTTP status code
+     * @return the response count
+     */
+    public long getResponseCount(int status) {
+        return status >= 0 && status < MAX_STATUS ? statusCounts.get(status) : 0;
+    }
+
+    /**
+     * Gets the number of connections reset by injected faults
+     * @return the reset count
+     */
+    public long getResetCount() {
+        return resets.get();
+    }
+
+    /**
+     * Stops the server and closes its connections
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (Socket s : connections) {
+            closeQuietly(s);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Accepts connections until the server is closed
+     */
+    private void accept() {
+        while (!closed) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            connections.add(socket);
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(socket);
+                        } catch (IOException e) {
+                            // the client went away
+                        } finally {
+                            connections.remove(socket);
+                            closeQuietly(socket);
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                connections.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of a connection until either side closes it
+     * @param socket connection
+     * @throws IOException the connection failed
+     */
+    private void serve(Socket socket) throws IOException {
+        final InputStream in = new BufferedInputStream(socket.getInputStream());
+        final OutputStream out = socket.getOutputStream();
+        while (!closed) {
+            final String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+            if (requestLine.isEmpty()) {
+                continue;
+            }
+            final Map<String, String> headers = new HashMap<String, String>();
+            for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+                }
+            }
+            requests.incrementAndGet();
+
+            if (roll(resetRate)) {
+                resets.incrementAndGet();
+                // an RST rather than a FIN
+                socket.setSoLinger(true, 0);
+                socket.close();
+                return;
+            }
+            final byte[] body = readBody(in, headers);
+            delay();
+            final String[] parts = requestLine.split(" ");
+            final int status = handle(parts.length > 1 ? parts[0] : "", parts.length > 1 ? parts[1] : "",
+                    headers, body);
+            respond(out, status);
+            if ("close".equalsIgnoreCase(headers.get("connection"))
+                    || (parts.length > 2 && "HTTP/1.0".equals(parts[2]))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Handles a request whose body was read
+     * @param method HTTP method
+     * @param path path of the request
+     * @param headers headers, with lower-case names
+     * @param body request body, as received
+     * @return the HTTP status of the response
+     */
+    private int handle(String method, String path, Map<String, String> headers, byte[] body) {
+        final boolean bulk = path.startsWith("/bulk/");
+        if (!bulk && !path.startsWith("/inputs/")) {
+            return 404;
+        }
+        if (!"POST".equals(method)) {
+            return 405;
+        }
+        final int injected = injectedStatus();
+        if (injected != 0) {
+            return injected;
+        }
+
+        final String text;
+        try {
+            text = new String("gzip".equalsIgnoreCase(headers.get("content-encoding"))
+                    ? gunzip(body) : body, UTF_8);
+        } catch (IOException e) {
+            return 400;
+        }
+        final List<String> tags = tags(headers.get("x-loggly-tag"));
+        if (bulk) {
+            int start = 0;
+            for (int end = text.indexOf('\n'); end >= 0; start = end + 1, end = text.indexOf('\n', start)) {
+                received(tags, text.substring(start, end));
+            }
+            if (start < text.length()) {
+                received(tags, text.substring(start));
+            }
+        } else {
+            received(tags, text);
+        }
+        bytes.addAndGet(body.length);
+        return 200;
+    }
+
+    /**
+     * Counts an accepted event and hands it to the listener
+     * @param tags tags of the event
+     * @param event text of the event
+     */
+    private void received(List<String> tags, String event) {
+        if (event.isEmpty()) {
+            return;
+        }
+        events.incrementAndGet();
+        for (String tag : tags) {
+            AtomicLong count = tagCounts.get(tag);
+            if (count == null) {
+                AtomicLong created = new AtomicLong();
+                count = tagCounts.putIfAbsent(tag, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onEvent(tags, event);
+        }
+    }
+
+    /**
+     * Picks an injected error status for a request
+     * @return the status, or 0 to accept the request
+     */
+    private int injectedStatus() {
+        Map<Integer, Double> rates = statusRates;
+        if (rates == null) {
+            return 0;
+        }
+        double r = ThreadLocalRandom.current().nextDouble();
+        for (Map.Entry<Integer, Double> e : rates.entrySet()) {
+            r -= e.getValue();
+            if (r < 0) {
+                return e.getKey();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes a response
+     * @param out stream of the connection
+     * @param status HTTP status
+     * @throws IOException the connection failed
+     */
+    private void respond(OutputStream out, int status) throws IOException {
+        statusCounts.incrementAndGet(status);
+        final byte[] body = status == 200 ? OK : new byte[0];
+        final StringBuilder head = new StringBuilder(128)
+                .append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n")
+                .append("Content-Type: application/json\r\n")
+                .append("Content-Length: ").append(body.length).append("\r\n");
+        final int retryAfter = retryAfterSeconds;
+        if (retryAfter > 0 && (status == 429 || status == 503)) {
+            head.append("Retry-After: ").append(retryAfter).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(UTF_8));
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Reads a request body, either of a fixed length or chunked
+     * @param in stream of the connection
+     * @param headers headers, with lower-case names
+     * @return the body
+     * @throws IOException the connection failed
+     */
+    private byte[] readBody(InputStream in, Map<String, String> headers) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream(4096);
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            for (int size = chunkSize(readLine(in)); size > 0; size = chunkSize(readLine(in))) {
+                readFully(in, body, size);
+                readLine(in);
+            }
+            // trailers
+            for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                // ignored
+            }
+        } else {
+            String length = headers.get("content-length");
+            if (length != null) {
+                readFully(in, body, Integer.parseInt(length));
+            }
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Reads a number of bytes, throttled by {@link #slowRead(int)}
+     * @param in stream of the connection
+     * @param body destination of the bytes
+     * @param length number of bytes to read
+     * @throws IOException the connection failed or ended early
+     */
+    private void readFully(InputStream in, ByteArrayOutputStream body, int length) throws IOException {
+        final byte[] buffer = new byte[8192];
+        while (length > 0) {
+            final int rate = slowReadBytesPerSecond;
+            int max = Math.min(length, buffer.length);
+            if (rate > 0) {
+                max = (int) Math.max(1, Math.min(max, rate * SLOW_READ_PERIOD_MILLIS / 1000));
+                sleep(SLOW_READ_PERIOD_MILLIS);
+            }
+            final int n = in.read(buffer, 0, max);
+            if (n < 0) {
+                throw new SocketException("connection closed in the request body");
+            }
+            body.write(buffer, 0, n);
+            length -= n;
+        }
+    }
+
+    /**
+     * Waits for the injected latency
+     */
+    private void delay() {
+        final long min = minLatencyMillis;
+        final long max = maxLatencyMillis;
+        if (max > 0) {
+            sleep(min == max ? min : ThreadLocalRandom.current().nextLong(min, max + 1));
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static boolean roll(double probability) {
+        return probability > 0 && ThreadLocalRandom.current().nextDouble() < probability;
+    }
+
+    private static void checkProbability(double probability) {
+        if (probability < 0 || probability > 1) {
+            throw new IllegalArgumentException("probability must be between 0 and 1");
+        }
+    }
+
+    /**
+     * Reads a line of ASCII text terminated by CRLF (or LF)
+     * @param in stream of the connection
+     * @return the line without its terminator, or {@code null} at the end of the stream
+     * @throws IOException the connection failed
+     */
+    private static String readLine(InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                return line.length() > 0 ? line.toString() : null;
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static int chunkSize(String line) throws IOException {
+        if (line == null) {
+            throw new SocketException("connection closed in the request body");
+        }
+        int semicolon = line.indexOf(';');
+        try {
+            return Integer.parseInt((semicolon >= 0 ? line.substring(0, semicolon) : line).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid chunk size: " + line);
+        }
+    }
+
+    private static byte[] gunzip(byte[] body) throws IOException {
+        final InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+        final byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> tags(String header) {
+        if (header == null || header.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> tags = new ArrayList<String>();
+        for (String tag : header.split(",")) {
+            if (!tag.trim().isEmpty()) {
+                tags.add(tag.trim());
+            }
+        }
+        return Collections.unmodifiableList(tags);
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "Error";
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load-test harness that drives a client at a fixed rate against a
+ * {@link FakeLogglyServer}, and reports the throughput, the latencies
+ * of logging and delivery, and the events lost or duplicated on the way.
+ * <p>
+ * Each event carries a sequence number and the time it was due, so the
+ * server side can tell which events arrived, and when. Events are logged
+ * on schedule by a number of threads (an open-loop load): a caller that
+ * falls behind logs the events it owes right away, and their latency
+ * counts from when they were due.
+ * <p>
+ * The harness can also be run from the command line (see {@link #main}),
+ * or with {@code ./gradlew :loggly-testing:soak -Psoak.args="rate=50000 reset=0.01"}.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class SoakHarness {
+    private static final String PREFIX = "soak seq=";
+
+    private int eventsPerSecond = 10000;
+    private long durationMillis = 10000;
+    private int threads = 4;
+    private int eventBytes = 256;
+    private long drainTimeoutMillis = 30000;
+
+    /**
+     * Sets the rate at which events are logged, across all threads
+     * @param eventsPerSecond number of events per second (default: 10000)
+     * @return this harness
+     */
+    public SoakHarness eventsPerSecond(int eventsPerSecond) {
+        if (eventsPerSecond <= 0) {
+            throw new IllegalArgumentException("eventsPerSecond must be positive");
+        }
+        this.eventsPerSecond = eventsPerSecond;
+        return this;
+    }
+
+    /**
+     * Sets the time during which events are logged
+     * @param durationMillis time in milliseconds (default: 10000)
+     * @return this harness
+     */
+    public SoakHarness durationMillis(long durationMillis) {
+        if (durationMillis <= 0) {
+            throw new IllegalArgumentException("durationMillis must be positive");
+        }
+        this.durationMillis = durationMillis;
+        return this;
+    }
+
+    /**
+     * Sets the number of logging threads
+     * @param threads thread count (default: 4)
+     * @return this harness
+     */
+    public SoakHarness threads(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the size of each event, which is padded to that length
+     * @param eventBytes size in bytes (default: 256)
+     * @return this harness
+     */
+    public SoakHarness eventBytes(int eventBytes) {
+        if (eventBytes <= 0) {
+            throw new IllegalArgumentException("eventBytes must be positive");
+        }
+        this.eventBytes = eventBytes;
+        return this;
+    }
+
+    /**
+     * Sets the max time to wait for the buffered events to reach the
+     * server once all of them are logged
+     * @param drainTimeoutMillis time in milliseconds (default: 30000)
+     * @return this harness
+     */
+    public SoakHarness drainTimeoutMillis(long drainTimeoutMillis) {
+        if (drainTimeoutMillis < 0) {
+            throw new IllegalArgumentException("drainTimeoutMillis cannot be negative");
+        }
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * Logs events through a client that sends them to a server, waits
+     * for them to arrive, and reports the outcome. The server's listener
+     * is replaced for the duration of the run.
+     * @param client client whose endpoint is the server
+     * @param server server that receives the events
+     * @return the report
+     * @throws InterruptedException the thread was interrupted while waiting
+     */
+    public SoakReport run(final LogglyClient client, FakeLogglyServer server) throws InterruptedException {
+        final long total = eventsPerSecond * durationMillis / 1000;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many events for one run: " + total);
+        }
+        final Receipts receipts = new Receipts();
+        final LatencyHistogram logLatency = new LatencyHistogram();
+        final AtomicLong rejected = new AtomicLong();
+        final long requests = server.getRequestCount();
+        final long resets = server.getResetCount();
+        final String padding = padding(eventBytes);
+        final double intervalNanos = 1e9 / eventsPerSecond;
+
+        server.listener(receipts);
+        final long start = System.nanoTime();
+        final Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int first = i;
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final StringBuilder event = new StringBuilder(eventBytes + 64);
+                    for (long seq = first; seq < total; seq += threads) {
+                        final long due = start + (long) (seq * intervalNanos);
+                        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                            LockSupport.parkNanos(wait);
+                        }
+                        event.setLength(0);
+                        event.append(PREFIX).append(seq).append(" t=").append(due).append(' ');
+                        event.append(padding, 0, Math.max(0, eventBytes - event.length()));
+                        if (!client.log(event.toString())) {
+                            rejected.incrementAndGet();
+                        }
+                        logLatency.record(System.nanoTime() - due);
+                    }
+                }
+            }, "soak-" + i);
+            workers[i].start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        client.flush(drainTimeoutMillis);
+        final long expected = total - rejected.get();
+        while (receipts.received() < expected && System.nanoTime() - deadline < 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        server.listener(null);
+
+        synchronized (receipts) {
+            return new SoakReport(total, rejected.get(), receipts.unique, receipts.duplicates,
+                    Math.max(0, receipts.lastReceipt - start), logLatency, receipts.deliveryLatency,
+                    server.getRequestCount() - requests, server.getResetCount() - resets);
+        }
+    }
+
+    /**
+     * Records the harness's events as the server receives them
+     */
+    private static final class Receipts implements FakeLogglyServer.Listener {
+        private final BitSet seen = new BitSet();
+        private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+        private long unique;
+        private long duplicates;
+        private long lastReceipt;
+
+        @Override
+        public void onEvent(List<String> tags, String event) {
+            if (!event.startsWith(PREFIX)) {
+                return;
+            }
+            final long now = System.nanoTime();
+            final int space = event.indexOf(' ', PREFIX.length());
+            final int end = event.indexOf(' ', space + 1);
+            if (space < 0 || end < 0 || !event.startsWith("t=", space + 1)) {
+                return;
+            }
+            final int seq = Integer.parseInt(event.substring(PREFIX.length(), space));
+            final long due = Long.parseLong(event.substring(space + 3, end));
+            synchronized (this) {
+                if (seen.get(seq)) {
+                    duplicates++;
+                    return;
+                }
+                seen.set(seq);
+                unique++;
+                lastReceipt = now;
+            }
+            deliveryLatency.record(now - due);
+        }
+
+        synchronized long received() {
+            return unique;
+        }
+    }
+
+    private static String padding(int length) {
+        final StringBuilder padding = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            padding.append((char) ('a' + i % 26));
+        }
+        return padding.toString();
+    }
+
+    /**
+     * Runs a soak test against a fake server and prints the report.
+     * Settings are passed as {@code key=value} arguments:
+     * <ul>
+     *     <li>load: {@code rate} (events/s), {@code duration} (ms),
+     *     {@code threads}, {@code eventBytes}, {@code drainTimeout} (ms)</li>
+     *     <li>faults: {@code latency} (ms, {@code min-max}), {@code status}
+     *     ({@code code:probability,...}, e.g. {@code 429:0.05,503:0.01}),
+     *     {@code retryAfter} (s), {@code reset} (probability),
+     *     {@code slowRead} (bytes/s)</li>
+     *     <li>client: {@code capacity}, {@code maxEvents}, {@code maxBytes},
+     *     {@code maxLingerMillis}, {@code targetLatencyMillis},
+     *     {@code overflowPolicy}, {@code spoolDirectory},
+     *     {@code maxInFlight}, {@code compression} (gzip level),
+     *     {@code readTimeoutMillis}, {@code maxAttempts}</li>
+     * </ul>
+     * @param args settings
+     * @throws Exception the test could not run
+     */
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> settings = new HashMap<String, String>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("expected key=value: " + arg);
+            }
+            settings.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        final FakeLogglyServer server = new FakeLogglyServer();
+        try {
+            configure(server, settings);
+            final LogglyClient client = client(server, settings).build();
+            final SoakHarness harness = new SoakHarness()
+                    .eventsPerSecond(Integer.parseInt(get(settings, "rate", "10000")))
+                    .durationMillis(Long.parseLong(get(settings, "duration", "10000")))
+                    .threads(Integer.parseInt(get(settings, "threads", "4")))
+                    .eventBytes(Integer.parseInt(get(settings, "eventBytes", "256")))
+                    .drainTimeoutMillis(Long.parseLong(get(settings, "drainTimeout", "30000")));
+            final SoakReport report = harness.run(client, server);
+            client.close(0);
+            System.out.println(report);
+            System.out.println("client: " + client.getMetrics().getEventsDropped() + " dropped, "
+                    + client.getMetrics().getEventsRetried() + " retried, "
+                    + client.getMetrics().getEventsFailed() + " failed");
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void configure(FakeLogglyServer server, Map<String, String> settings) {
+        String latency = settings.get("latency");
+        if (latency != null) {
+            int dash = latency.indexOf('-');
+            server.latency(Long.parseLong(dash > 0 ? latency.substring(0, dash) : latency),
+                    Long.parseLong(dash > 0 ? latency.substring(dash + 1) : latency));
+        }
+        String statuses = settings.get("status");
+        if (statuses != null) {
+            for (String s : statuses.split(",")) {
+                int colon = s.indexOf(':');
+                server.statusRate(Integer.parseInt(s.substring(0, colon).trim()),
+                        Double.parseDouble(s.substring(colon + 1).trim()));
+            }
+        }
+        server.retryAfterSeconds(Integer.parseInt(get(settings, "retryAfter", "0")));
+        server.resetRate(Double.parseDouble(get(settings, "reset", "0")));
+        server.slowRead(Integer.parseInt(get(settings, "slowRead", "0")));
+    }
+
+    private static LogglyClient.Builder client(FakeLogglyServer server, Map<String, String> settings) {
+        final BatchOptions batching = new BatchOptions()
+                .capacity(Integer.parseInt(get(settings, "capacity", "10000")))
+                .maxEvents(Integer.parseInt(get(settings, "maxEvents", "1000")))
+                .maxBytes(Integer.parseInt(get(settings, "maxBytes", String.valueOf(1024 * 1024))))
+                .maxLingerMillis(Long.parseLong(get(settings, "maxLingerMillis", "1000")))
+                .adaptive(Long.parseLong(get(settings, "targetLatencyMillis", "0")))
+                .overflowPolicy(OverflowPolicy.valueOf(get(settings, "overflowPolicy", "DROP_NEWEST")));
+        if (settings.containsKey("spoolDirectory")) {
+            batching.spoolDirectory(new File(settings.get("spoolDirectory")));
+        }
+        final LogglyClient.Builder builder = new LogglyClient.Builder("soak-token")
+                .endpoint(server.getUrl())
+                .batching(batching)
+                .readTimeoutMillis(Long.parseLong(get(settings, "readTimeoutMillis", "10000")))
+                .retryPolicy(new RetryPolicy().maxAttempts(Integer.parseInt(get(settings, "maxAttempts", "5"))));
+        if (settings.containsKey("maxInFlight")) {
+            builder.maxInFlightRequests(Integer.parseInt(settings.get("maxInFlight")));
+        }
+        if (settings.containsKey("compression")) {
+            builder.compression(Integer.parseInt(settings.get("compression")), 0);
+        }
+        return builder;
+    }
+
+    private static String get(Map<String, String> settings, String key, String defaultValue) {
+        String value = settings.get(key);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a {@link SoakHarness} run: how many events were logged,
+ * how many of them reached the server, and how long that took.
+ *
+ * @author tony19@gmail.com
+ * @since 1.1.0
+ */
+public final class SoakReport {
+    private final long eventsLogged;
+    private final long eventsRejected;
+    private final long eventsReceived;
+    private final long eventsDuplicated;
+    private final long elapsedNanos;
+    private final LatencyHistogram logLatency;
+    private final LatencyHistogram deliveryLatency;
+    private final long requests;
+    private final long resets;
+
+    SoakReport(long eventsLogged, long eventsRejected, long eventsReceived, long eventsDuplicated,
+               long elapsedNanos, LatencyHistogram logLatency, LatencyHistogram deliveryLatency,
+               long requests, long resets) {
+        this.eventsLogged = eventsLogged;
+        this.eventsRejected = eventsRejected;
+        this.eventsReceived = eventsReceived;
+        this.eventsDuplicated = eventsDuplicated;
+        this.elapsedNanos = elapsedNanos;
+        this.logLatency = logLatency;
+        this.deliveryLatency = deliveryLatency;
+        this.requests = requests;
+        this.resets = resets;
+    }
+
+    /**
+     * Gets the number of events passed to the client
+     * @return the event count
+     */
+    public long getEventsLogged() {
+        return eventsLogged;
+    }
+
+    /**
+     * Gets the number of events that the client refused, such as those
+     * dropped from a full buffer or throttled
+     * @return the event count
+     */
+    public long getEventsRejected() {
+        return eventsRejected;
+    }
+
+    /**
+     * Gets the number of distinct events that reached the server
+     * @return the event count
+     */
+    public long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    /**
+     * Gets the number of events that reached the server more than once,
+     * such as those of a retried request
+     * @return the number of extra copies
+     */
+    public long getEventsDuplicated() {
+        return eventsDuplicated;
+    }
+
+    /**
+     * Gets the number of events that the client accepted but that never
+     * reached the server
+     * @return the event count
+     */
+    public long getEventsLost() {
+        return Math.max(0, eventsLogged - eventsRejected - eventsReceived);
+    }
+
+    /**
+     * Gets the time from the first event logged to the last one received
+     * @return the time in milliseconds
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Gets the rate at which events reached the server
+     * @return the number of distinct events received per second
+     */
+    public double getThroughput() {
+        return elapsedNanos > 0 ? eventsReceived * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Gets the latency of the logging calls, measured from the time each
+     * event was due, so that a stalled caller also delays the events
+     * scheduled after it
+     * @return the histogram
+     */
+    public LatencyHistogram getLogLatency() {
+        return logLatency;
+    }
+
+    /**
+     * Gets the time from when each event was due to when the server
+     * first received it
+     * @return the histogram
+     */
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * Gets the number of requests that the server received
+     * @return the request count
+     */
+    public long getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * Gets the number of connections that the server reset
+     * @return the reset count
+     */
+    public long getResetCount() {
+        return resets;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "logged=%d rejected=%d received=%d lost=%d duplicated=%d%n"
+                        + "throughput=%.0f events/s over %d ms, requests=%d, resets=%d%n"
+                        + "log latency (us):      %s%n"
+                        + "delivery latency (ms): %s",
+                eventsLogged, eventsRejected, eventsReceived, getEventsLost(), eventsDuplicated,
+                getThroughput(), getElapsedMillis(), requests, resets,
+                percentiles(logLatency, 1), percentiles(deliveryLatency, 1000));
+    }
+
+    private static String percentiles(LatencyHistogram h, long unitMicros) {
+        return String.format(Locale.US, "p50=%d p99=%d p99.9=%d max=%d",
+                h.getPercentileMicros(50) / unitMicros, h.getPercentileMicros(99) / unitMicros,
+                h.getPercentileMicros(99.9) / unitMicros, h.getMaxMicros() / unitMicros);
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link com.github.tony19.loggly.FakeLogglyServer}
+ * @author tony19@gmail.com
+ */
+public class FakeLogglyServerTest {
+    private FakeLogglyServer server;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeLogglyServer();
+    }
+
+    @After
+    public void teardown() {
+        server.close();
+    }
+
+    private LogglyClient.Builder client() {
+        return new LogglyClient.Builder("1e29e92a-b099-49c5-a260-4c56a71f7c89")
+                .endpoint(server.getUrl())
+                .retryPolicy(new RetryPolicy().maxAttempts(1));
+    }
+
+    @Test
+    public void countsSingleEvents() {
+        LogglyClient loggly = client().build();
+        assertTrue(loggly.log("hello world!"));
+        assertTrue(loggly.log("{\"message\":\"hello\"}"));
+        assertThat(server.getRequestCount(), is(2L));
+        assertThat(server.getEventCount(), is(2L));
+        assertThat(server.getResponseCount(200), is(2L));
+    }
+
+    @Test
+    public void countsBulkEventsPerTag() {
+        LogglyClient loggly = client().tags("foo", "bar").build();
+        assertTrue(loggly.logBulk("event 1", "event 2", "event 3"));
+        assertThat(server.getRequestCount(), is(1L));
+        assertThat(server.getEventCount(), is(3L));
+        assertThat(server.getEventCount("foo"), is(3L));
+        assertThat(server.getEventCount("bar"), is(3L));
+        assertThat(server.getEventCount("baz"), is(0L));
+    }
+
+    @Test
+    public void decodesCompressedBodies() {
+        LogglyClient loggly = client().compression(6, 0).build();
+        assertTrue(loggly.logBulk(Arrays.asList("event 1", "event 2")));
+        assertThat(server.getEventCount(), is(2L));
+    }
+
+    @Test
+    public void passesEventsToListener() {
+        final StringBuilder received = new StringBuilder();
+        server.listener(new FakeLogglyServer.Listener() {
+            @Override
+            public void onEvent(java.util.List<String> tags, String event) {
+                synchronized (received) {
+                    received.append(tags).append(' ').append(event).append('\n');
+                }
+            }
+        });
+        assertTrue(client().tags("foo").build().logBulk("event 1", "event 2"));
+        assertThat(received.toString(), is("[foo] event 1\n[foo] event 2\n"));
+    }
+
+    @Test
+    public void injectsErrorStatus() {
+        LogglyClient loggly = client().build();
+        server.statusRate(503, 1.0);
+        assertThat(loggly.log("hello world!"), is(false));
+        assertThat(server.getResponseCount(503), is(1L));
+        assertThat(server.getEventCount(), is(0L));
+
+        server.clearFaults();
+        assertTrue(loggly.log("hello world!"));
+        assertThat(server.getEventCount(), is(1L));
+    }
+
+    @Test
+    public void injectsConnectionResets() {
+        server.resetRate(1.0);
+        assertThat(client().build().log("hello world!"), is(false));
+        assertThat(server.getResetCount(), is(1L));
+        assertThat(server.getEventCount(), is(0L));
+    }
+
+    @Test
+    public void injectsLatency() {
+        server.latency(100, 100);
+        long start = System.nanoTime();
+        assertTrue(client().build().log("hello world!"));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void rejectsInvalidFaults() {
+        try {
+            server.statusRate(200, 0.5);
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            server.resetRate(1.5);
+            throw new AssertionError("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
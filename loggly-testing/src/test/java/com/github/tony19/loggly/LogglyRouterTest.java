@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link com.github.tony19.loggly.LogglyRouter}
+ * @author tony19@gmail.com
+ */
+public class LogglyRouterTest {
+    private static final String TOKEN_A = "1e29e92a-b099-49c5-a260-4c56a71f7c89";
+    private static final String TOKEN_B = "c8d2a5b6-1f4e-4b0a-9d3c-7e6f5a4b3c2d";
+    private FakeLogglyServer server;
+    private FakeLogglyServer other;
+    private LogglyRouter router;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeLogglyServer();
+        other = new FakeLogglyServer();
+    }
+
+    @After
+    public void teardown() {
+        if (router != null) {
+            router.close(0);
+        }
+        server.close();
+        other.close();
+    }
+
+    private LogglyRouter.Builder router() {
+        return new LogglyRouter.Builder()
+                .endpoint(server.getUrl())
+                .batching(new BatchOptions().maxLingerMillis(50));
+    }
+
+    @Test
+    public void routesEventsByToken() {
+        router = router().build();
+        for (int i = 0; i < 10; i++) {
+            router.shard(TOKEN_A).log("event " + i);
+        }
+        for (int i = 0; i < 5; i++) {
+            router.shard(TOKEN_B).log("event " + i);
+        }
+        FlushResult result = router.flush(5000);
+
+        assertThat(result.getEventsSent(), is(15L));
+        assertThat(server.getEventCount(), is(15L));
+        assertThat(router.shard(TOKEN_A).getMetrics().getEventsSent(), is(10L));
+        assertThat(router.shard(TOKEN_B).getMetrics().getEventsSent(), is(5L));
+        assertThat(router.getShards().size(), is(2));
+        assertThat(router.shard(TOKEN_A), is(sameInstance(router.shard(TOKEN_A))));
+    }
+
+    @Test
+    public void routesEventsByEndpoint() {
+        router = router().build();
+        router.shard(TOKEN_A).log("event 1");
+        router.shard(TOKEN_A, other.getUrl()).log("event 2");
+        router.shard(TOKEN_A, other.getUrl()).log("event 3");
+        router.flush(5000);
+
+        assertThat(server.getEventCount(), is(1L));
+        assertThat(other.getEventCount(), is(2L));
+        assertThat(router.getShards().size(), is(2));
+    }
+
+    @Test
+    public void sendsBatchesAfterLinger() throws InterruptedException {
+        router = router().build();
+        router.shard(TOKEN_A).log("event 1");
+        router.shard(TOKEN_B).log("event 2");
+        assertTrue(awaitEvents(server, 2, 2000));
+    }
+
+    @Test
+    public void shardsIgnoreLaterChangesToTheSettings() throws InterruptedException {
+        BatchOptions options = new BatchOptions().maxLingerMillis(50);
+        router = router().batching(options).build();
+        options.maxLingerMillis(60000);
+        router.shard(TOKEN_A).log("event 1");
+        assertTrue(awaitEvents(server, 1, 2000));
+    }
+
+    @Test
+    public void slowShardDoesNotBlockOthers() throws InterruptedException {
+        other.latency(2000, 2000);
+        router = router()
+                .senderThreads(1)
+                .maxInFlightRequestsPerShard(1)
+                .batching(new BatchOptions().maxEvents(1).maxLingerMillis(10))
+                .build();
+        for (int i = 0; i < 5; i++) {
+            router.shard(TOKEN_A, other.getUrl()).log("slow " + i);
+        }
+        for (int i = 0; i < 5; i++) {
+            router.shard(TOKEN_B).log("fast " + i);
+        }
+        assertTrue(awaitEvents(server, 5, 1000));
+        assertThat(router.shard(TOKEN_A, other.getUrl()).getMetrics().getEventsSent(), is(0L));
+    }
+
+    @Test
+    public void closeDrainsShardsInParallel() {
+        server.latency(500, 500);
+        other.latency(500, 500);
+        router = router().senderThreads(2).batching(new BatchOptions().maxLingerMillis(60000)).build();
+        router.shard(TOKEN_A).log("event 1");
+        router.shard(TOKEN_B, other.getUrl()).log("event 2");
+
+        long start = System.nanoTime();
+        FlushResult result = router.close(5000);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(result.getEventsSent(), is(2L));
+        assertTrue("took " + elapsed + " ms", elapsed < 900);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedRouterCreatesNoShards() {
+        router = router().build();
+        router.close(0);
+        router.shard(TOKEN_A);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedRouterReturnsNoShards() {
+        router = router().build();
+        router.shard(TOKEN_A);
+        router.close(0);
+        router.shard(TOKEN_A);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shardsCannotSpool() {
+        router().batching(new BatchOptions().spoolDirectory(new java.io.File("spool")));
+    }
+
+    private static boolean awaitEvents(FakeLogglyServer server, long count, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (server.getEventCount() < count && System.nanoTime() - deadline < 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return server.getEventCount() >= count;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2015 Anthony K. Trinh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.tony19.loggly;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests {@link com.github.tony19.loggly.SoakHarness}
+ * @author tony19@gmail.com
+ */
+public class SoakHarnessTest {
+    private FakeLogglyServer server;
+    private LogglyClient loggly;
+
+    @Before
+    public void setup() throws Exception {
+        server = new FakeLogglyServer();
+        loggly = new LogglyClient.Builder("1e29e92a-b099-49c5-a260-4c56a71f7c89")
+                .endpoint(server.getUrl())
+                .batching(new BatchOptions().maxEvents(20).maxLingerMillis(50))
+                .retryPolicy(new RetryPolicy().maxAttempts(10).initialBackoffMillis(10).maxBackoffMillis(50))
+                .build();
+    }
+
+    @After
+    public void teardown() {
+        loggly.close(0);
+        server.close();
+    }
+
+    @Test
+    public void deliversEveryEvent() throws InterruptedException {
+        SoakReport report = new SoakHarness()
+                .eventsPerSecond(2000)
+                .durationMillis(500)
+                .threads(2)
+                .eventBytes(100)
+                .run(loggly, server);
+
+        assertThat(report.getEventsLogged(), is(1000L));
+        assertThat(report.getEventsReceived(), is(1000L));
+        assertThat(report.getEventsLost(), is(0L));
+        assertThat(report.getEventsDuplicated(), is(0L));
+        assertThat(report.getDeliveryLatency().getCount(), is(1000L));
+        assertTrue(report.getThroughput() > 0);
+    }
+
+    @Test
+    public void retriesThroughInjectedErrors() throws InterruptedException {
+        server.statusRate(503, 0.2);
+        SoakReport report = new SoakHarness()
+                .eventsPerSecond(2000)
+                .durationMillis(500)
+                .run(loggly, server);
+
+        assertThat(report.getEventsLost(), is(0L));
+        assertTrue(server.getResponseCount(503) > 0);
+    }
+}